@@ -1,16 +1,55 @@
 package com.corelationinc.script.BlueEagle;
 
 import com.corelationinc.script.*;
+import com.corelationinc.utils.BatchLoader;
+import com.corelationinc.utils.CalendarMath;
+import com.corelationinc.utils.EnvironmentSnapshot;
+import com.corelationinc.utils.FeatureQuery;
+import com.corelationinc.utils.LongHashSet;
+import com.corelationinc.utils.LongIntHashMap;
+import com.corelationinc.utils.MoneyColumn;
+import com.corelationinc.utils.RuleEngine;
 import com.corelationinc.utils.ScriptAccountUtils;
 import com.corelationinc.utils.ScriptPersonUtils;
 import com.corelationinc.utils.ScriptShareUtils;
+import com.corelationinc.utils.ScriptUtils;
 import com.corelationinc.utils.MultiThreadScript;
+import com.corelationinc.utils.ParameterBinder;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Arguments: [FULL|INCREMENTAL] [snapshot file] [shadow sample interval]
+ * <br></br>
+ * FULL (the default) evaluates every share, with the loan and negative
+ * balance checks for all of them loaded up front by one FeatureQuery (see
+ * createFeatureQuery). INCREMENTAL only evaluates shares whose decision
+ * inputs may have changed since the snapshot was written (see
+ * needsEvaluation), querying those checks per share, and requires a
+ * snapshot file. A FULL run
+ * only reads and rewrites a snapshot when a snapshot file is given, so that
+ * the next INCREMENTAL run can start from it. Run FULL on audit nights.
+ * <br></br>
+ * A shadow sample interval N greater than 0 re-evaluates every Nth share
+ * with one query per check (LegacyTask), bypassing the precomputed inputs,
+ * and reports any decision that differs.
  *
  * @author kgillooley
  * @title Courtesy Pay
@@ -22,14 +61,91 @@ public class CourtesyPay extends MultiThreadScript {
 	Serial dqLoansRestriction = null;
 	Serial chargeOffRestriction = null;
 	Serial secondChanceCPRestriction = null;
+	long[] checkingRegularTypes = null;
+	int postingEpochDay = 0;
+	LongIntHashMap depositCounts = null;
+	MoneyColumn depositTotals = null;
+	BatchLoader<Boolean> negativeLoader = null;
+	FeatureQuery.FeatureTable features = null;
+	FeatureQuery.Feature chargedOffLoansFeature = null;
+	FeatureQuery.Feature chargedOffSharesFeature = null;
+	FeatureQuery.Feature delinquentLoansFeature = null;
+	FeatureQuery.Feature negativeSinceFeature = null;
+	RuleEngine<MultiThreadTaskTemplate> rules = null;
+	RuleEngine.Rule<MultiThreadTaskTemplate> addOrRestoreCP = null;
+	RuleEngine.Rule<MultiThreadTaskTemplate> negativeBalanceDays = null;
+	RuleEngine.Rule<MultiThreadTaskTemplate> hasDelinquentLoans = null;
+	RuleEngine.Rule<MultiThreadTaskTemplate> hasChargeOffs = null;
+	EnvironmentSnapshot environment = null;
+
+	boolean incremental = false;
+	String snapshotPathName = null;
+	DecisionSnapshot previousSnapshot = null;
+	EnvironmentSnapshot previousEnvironment = null;
+	DecisionSnapshot nextSnapshot = null;
+	LongHashSet sharesWithActivity = null;
+	LongHashSet accountsWithLoanActivity = null;
+	LongHashSet negativeShares = null;
+	final AtomicInteger evaluatedCount = new AtomicInteger();
+	final AtomicInteger skippedCount = new AtomicInteger();
 
 	@Override
-	public void beforeTasks() throws SQLException, ScriptException {
-		negativeBalanceRestriction = getRestrictionSerial(getConnection(), "Negative Balance Days > 30");
-		dqLoansRestriction = getRestrictionSerial(getConnection(), "Delinquent Loans");
-		chargeOffRestriction = getRestrictionSerial(getConnection(), "Charged Off Loans/Accounts");
-		secondChanceCPRestriction = getRestrictionSerial(getConnection(), "Second Chance");
-		setNextTaskParameters(secondChanceCPRestriction);
+	public void beforeTasks() throws Exception {
+		String mode = getNextOptionalArgumentString();
+		if (mode == null || mode.isEmpty() || mode.equalsIgnoreCase("FULL")) {
+			incremental = false;
+		} else if (mode.equalsIgnoreCase("INCREMENTAL")) {
+			incremental = true;
+		} else {
+			throw new ScriptException("Invalid mode argument: " + mode + ". Expected FULL or INCREMENTAL.");
+		}
+		snapshotPathName = getNextOptionalArgumentString();
+		if (snapshotPathName != null && snapshotPathName.isEmpty()) {
+			snapshotPathName = null;
+		}
+		if (incremental && snapshotPathName == null) {
+			throw new ScriptException("No snapshot file argument passed for an incremental run.");
+		}
+		int shadowSampleInterval = getNextOptionalArgumentInt();
+		if (shadowSampleInterval > 0) {
+			enableShadowMode(shadowSampleInterval);
+		}
+
+		getReferenceData().preload(getConnection(), "COURTESY_PAY_RESTRICTION", "SH_TYPE");
+		negativeBalanceRestriction = getRestrictionSerial("Negative Balance Days > 30");
+		dqLoansRestriction = getRestrictionSerial("Delinquent Loans");
+		chargeOffRestriction = getRestrictionSerial("Charged Off Loans/Accounts");
+		secondChanceCPRestriction = getRestrictionSerial("Second Chance");
+		checkingRegularTypes = getReferenceData().getTable("SH_TYPE").getSerialValues("Checking - Regular");
+		if (checkingRegularTypes.length == 0) {
+			throw new ScriptException("Could not identify Share Type: Checking - Regular");
+		}
+		postingEpochDay = getPostingEpochDay();
+		environment = getEnvironment();
+		loadDeposits(getConnection());
+		negativeLoader = registerBatchLoader("Negative Shares", ScriptShareUtils.createNegativeLoader());
+		if (!incremental) {
+			loadFeatures(getConnection());
+		}
+		buildRules();
+		if (snapshotPathName != null) {
+			loadDecisionInputs(getConnection());
+		}
+		setNextTaskParameters(toParameterList(checkingRegularTypes), secondChanceCPRestriction);
+	}
+
+	@Override
+	public void afterTasks() throws Exception {
+		if (rules != null) {
+			writeToTextReport("Courtesy Pay Rule Statistics", rules.getSummary());
+		}
+		if (nextSnapshot != null) {
+			nextSnapshot.write(snapshotPathName);
+		}
+		writeToTextReport("Courtesy Pay Run Summary", (incremental ? "Incremental" : "Full") + " run: "
+			+ evaluatedCount.get() + " shares evaluated, " + skippedCount.get() + " shares unchanged since "
+			+ (previousSnapshot == null ? "(no snapshot)" : previousSnapshot.postingDate.toString()));
+		super.afterTasks();
 	}
 
 	public static void runScript(Script script) {
@@ -43,26 +159,47 @@ public class CourtesyPay extends MultiThreadScript {
 
 	@Override
 	protected String getNextTaskSQL() throws ScriptException {
+		// Only each person's oldest open Checking - Regular share is evaluated
+		// (earliest OPEN_DATE, then lowest SERIAL), so the ranking runs once
+		// here instead of once per share. NULLS LAST is DB2's default; it is
+		// spelled out so databases that sort NULLs first rank the same way.
 		return "SELECT "
-			+ "	PERSON.SERIAL,"
-			+ "	ACCOUNT.ACCOUNT_NUMBER || ' S ' || SHARE.ID AS ACCOUNT_NUMBER,"
-			+ "	ACCOUNT.SERIAL, "
-			+ "	SHARE.SERIAL,"
-			+ "	SHARE.COURTESY_PAY_RESTRICT_SERIAL,"
-			+ "	SHARE.COURTESY_PAY_LIMIT"
-			+ " FROM "
-			+ "	CORE.PERSON AS PERSON INNER JOIN "
-			+ "	CORE.ACCOUNT AS ACCOUNT ON "
-			+ "		PERSON.SERIAL = ACCOUNT.PRIMARY_PERSON_SERIAL INNER JOIN "
-			+ "	CORE.SHARE AS SHARE ON "
-			+ "		ACCOUNT.SERIAL = SHARE.PARENT_SERIAL INNER JOIN "
-			+ "	CORE.SH_TYPE AS SH_TYPE ON "
-			+ "		SHARE.TYPE_SERIAL = SH_TYPE.SERIAL "
+			+ "	PERSON_SERIAL,"
+			+ "	ACCOUNT_NUMBER,"
+			+ "	ACCOUNT_SERIAL,"
+			+ "	SHARE_SERIAL,"
+			+ "	COURTESY_PAY_RESTRICT_SERIAL,"
+			+ "	COURTESY_PAY_LIMIT,"
+			+ "	OPEN_DATE,"
+			+ "	BIRTH_DATE"
+			+ " FROM"
+			+ " ("
+			+ "	SELECT "
+			+ "		PERSON.SERIAL AS PERSON_SERIAL,"
+			+ "		ACCOUNT.ACCOUNT_NUMBER || ' S ' || SHARE.ID AS ACCOUNT_NUMBER,"
+			+ "		ACCOUNT.SERIAL AS ACCOUNT_SERIAL,"
+			+ "		SHARE.SERIAL AS SHARE_SERIAL,"
+			+ "		SHARE.COURTESY_PAY_RESTRICT_SERIAL,"
+			+ "		SHARE.COURTESY_PAY_LIMIT,"
+			+ "		SHARE.OPEN_DATE,"
+			+ "		PERSON.BIRTH_DATE,"
+			+ "		ROW_NUMBER() OVER (PARTITION BY PERSON.SERIAL ORDER BY SHARE.OPEN_DATE NULLS LAST, SHARE.SERIAL) AS SHARE_RANK"
+			+ "	FROM "
+			+ "		CORE.PERSON AS PERSON INNER JOIN "
+			+ "		CORE.ACCOUNT AS ACCOUNT ON "
+			+ "			PERSON.SERIAL = ACCOUNT.PRIMARY_PERSON_SERIAL INNER JOIN "
+			+ "		CORE.SHARE AS SHARE ON "
+			+ "			ACCOUNT.SERIAL = SHARE.PARENT_SERIAL "
+			+ "	WHERE "
+			+ "		ACCOUNT.CLOSE_DATE IS NULL AND "
+			+ "		SHARE.CLOSE_DATE IS NULL AND "
+			+ "		SHARE.CHARGE_OFF_DATE IS NULL AND "
+			+ "		SHARE.TYPE_SERIAL IN (" + ScriptUtils.createInStatementVariables(checkingRegularTypes.length) + ")"
+			+ " )"
 			+ " WHERE "
-			+ "	SHARE.CLOSE_DATE IS NULL AND "
-			+ "	SHARE.CHARGE_OFF_DATE IS NULL AND "
-			+ "	SH_TYPE.DESCRIPTION = 'Checking - Regular' AND "
-			+ "	(SHARE.COURTESY_PAY_RESTRICT_SERIAL IS NULL OR SHARE.COURTESY_PAY_RESTRICT_SERIAL <> ?)";
+			+ "	SHARE_RANK = 1 AND "
+			+ "	OPEN_DATE IS NOT NULL AND "
+			+ "	(COURTESY_PAY_RESTRICT_SERIAL IS NULL OR COURTESY_PAY_RESTRICT_SERIAL <> ?)";
 	}
 
 	@Override
@@ -70,6 +207,11 @@ public class CourtesyPay extends MultiThreadScript {
 		return new MultiThreadTaskTemplate(this);
 	}
 
+	@Override
+	protected MultiThreadTask getShadowTask() throws ScriptException {
+		return new LegacyTask(this);
+	}
+
 	private class MultiThreadTaskTemplate extends MultiThreadTask {
 
 		Serial personSerial = null;
@@ -78,6 +220,8 @@ public class CourtesyPay extends MultiThreadScript {
 		Serial shareSerial = null;
 		Serial cpRestriction = null;
 		Money cpLimit = null;
+		Date openDate = null;
+		Date birthDate = null;
 		Serial newCPRestriction = null;
 		Money newCPLimit = null;
 
@@ -93,47 +237,44 @@ public class CourtesyPay extends MultiThreadScript {
 			shareSerial = getSerial();
 			cpRestriction = getSerial();
 			cpLimit = getMoney();
+			openDate = getDate();
+			birthDate = getDate();
 
-			boolean hasCPRestriction = hasCPRestriction(getConnection(), shareSerial);
-			if (isOldestShare(getConnection(), personSerial, shareSerial)) {
-				enableOutput();
-				boolean hasDelinquentLoans = ScriptAccountUtils.hasDelinquentLoan(getConnection(), accountSerial, 29);
-				//add or restore CP
-				if (cpLimit.isZero()) {
-					boolean openDays = ScriptShareUtils.openForAtLeastXDays(getConnection(), shareSerial, 90);
-					double aggregateDeposits = aggregateDeposits(getConnection(), shareSerial);
-					boolean isOfAge = ScriptPersonUtils.isAtLeastAge(getConnection(), personSerial, 18);
-					boolean hasChargeOffLoans = ScriptAccountUtils.hasChargedOffLoans(getConnection(), accountSerial);
-					if (!hasCPRestriction && ScriptShareUtils.openForAtLeastXDays(getConnection(), shareSerial, 90) && (aggregateDeposits >= 1500.00) && isOfAge && !hasDelinquentLoans && !hasChargeOffLoans) {
-						newCPRestriction = null;
-						newCPLimit = new Money(50000);
-					} else if (cpRestriction.equals(negativeBalanceRestriction) && !ScriptShareUtils.isNegative(getConnection(), shareSerial)) {
-						newCPRestriction = null;
-						newCPLimit = new Money(50000);
-					} else if (cpRestriction.equals(dqLoansRestriction) && !hasDelinquentLoans) {
-						newCPRestriction = null;
-						newCPLimit = new Money(50000);
-					} else {
-						disableOutput();
-					}
+			if (previousSnapshot != null && !needsEvaluation(this)) {
+				skippedCount.incrementAndGet();
+				nextSnapshot.putShare(shareSerial, cpRestriction, cpLimit);
+				disableOutput();
+				return;
+			}
+			evaluatedCount.incrementAndGet();
+			RuleEngine.Evaluation<MultiThreadTaskTemplate> evaluation = rules.begin(this);
+			enableOutput();
+			//add or restore CP
+			if (cpLimit.isZero()) {
+				if (evaluation.test(addOrRestoreCP)) {
+					newCPRestriction = null;
+					newCPLimit = new Money(50000);
+				} else {
+					disableOutput();
 				}
-				//remove CP
-				else {
-					if (ScriptShareUtils.daysBelowAmount(getConnection(), shareSerial, new Money(0)) >= 30) {
-						newCPRestriction = negativeBalanceRestriction;
-						newCPLimit = new Money(0);
-					} else if (hasDelinquentLoans) {
-						newCPRestriction = dqLoansRestriction;
-						newCPLimit = new Money(0);
-					} else if (ScriptAccountUtils.hasChargeOffs(getConnection(), accountSerial)) {
-						newCPRestriction = chargeOffRestriction;
-						newCPLimit = new Money(0);
-					} else {
-						disableOutput();
-					}
+			}
+			//remove CP
+			else {
+				if (evaluation.test(negativeBalanceDays)) {
+					newCPRestriction = negativeBalanceRestriction;
+					newCPLimit = new Money(0);
+				} else if (evaluation.test(hasDelinquentLoans)) {
+					newCPRestriction = dqLoansRestriction;
+					newCPLimit = new Money(0);
+				} else if (evaluation.test(hasChargeOffs)) {
+					newCPRestriction = chargeOffRestriction;
+					newCPLimit = new Money(0);
+				} else {
+					disableOutput();
 				}
-			} else {
-				disableOutput();
+			}
+			if (nextSnapshot != null && !getOutputEnabled()) {
+				nextSnapshot.putShare(shareSerial, cpRestriction, cpLimit);
 			}
 		}
 
@@ -177,6 +318,134 @@ public class CourtesyPay extends MultiThreadScript {
 			}
 		}
 
+		@Override
+		protected Map<String, Object> getComparisonFields() {
+			Map<String, Object> fields = new LinkedHashMap<>();
+			if (getOutputEnabled()) {
+				fields.put("newCPRestriction", newCPRestriction);
+				fields.put("newCPLimit", newCPLimit);
+			}
+			return fields;
+		}
+
+		private Connection taskConnection() throws SQLException {
+			return getConnection();
+		}
+
+		/**
+		 * Returns the precomputed features of this share, or null if they were
+		 * not loaded (INCREMENTAL runs, or a share that was not a driver row
+		 * when they were loaded); the checks then query per share.
+		 */
+		FeatureQuery.FeatureVector featureVector() {
+			return features == null ? null : features.get(shareSerial);
+		}
+
+		boolean hasChargedOffLoans() throws Exception {
+			FeatureQuery.FeatureVector vector = featureVector();
+			if (vector == null) {
+				return ScriptAccountUtils.hasChargedOffLoans(taskConnection(), accountSerial);
+			}
+			return vector.getBoolean(chargedOffLoansFeature);
+		}
+
+		boolean hasDelinquentLoans() throws Exception {
+			FeatureQuery.FeatureVector vector = featureVector();
+			if (vector == null) {
+				return ScriptAccountUtils.hasDelinquentLoan(taskConnection(), accountSerial, 29);
+			}
+			return vector.getBoolean(delinquentLoansFeature);
+		}
+
+		boolean hasChargeOffs() throws Exception {
+			FeatureQuery.FeatureVector vector = featureVector();
+			if (vector == null) {
+				return ScriptAccountUtils.hasChargeOffs(taskConnection(), accountSerial);
+			}
+			return vector.getBoolean(chargedOffSharesFeature) || vector.getBoolean(chargedOffLoansFeature);
+		}
+
+		int daysNegative() throws Exception {
+			FeatureQuery.FeatureVector vector = featureVector();
+			if (vector == null) {
+				return ScriptShareUtils.daysBelowAmount(taskConnection(), shareSerial, new Money(0));
+			}
+			return vector.isNull(negativeSinceFeature) ? 0 : postingEpochDay - vector.getEpochDay(negativeSinceFeature);
+		}
+
+		long aggregateDeposits(Serial shareSerial) throws ScriptException {
+			if (depositCounts.getOrDefault(shareSerial, 0) >= 3) {
+				return depositTotals.getCentsForKey(shareSerial, 0);
+			} else {
+				return 0;
+			}
+		}
+
+	}
+
+	/**
+	 * Per-row form of the decision: every check is its own query, including
+	 * the deposit total and restriction lookups the primary task answers from
+	 * beforeTasks() precomputes, and nothing is skipped or recorded. Unlike
+	 * the script before the rule engine, it relies on the driver query to
+	 * pick each person's oldest share. Used only as the shadow task, so it
+	 * must not touch run-scoped state.
+	 */
+	private class LegacyTask extends MultiThreadTaskTemplate {
+
+		public LegacyTask(MultiThreadScript manager) {
+			super(manager);
+		}
+
+		@Override
+		public void perform() throws Exception {
+			personSerial = getSerial();
+			accountNumber = getString();
+			accountSerial = getSerial();
+			shareSerial = getSerial();
+			cpRestriction = getSerial();
+			cpLimit = getMoney();
+			openDate = getDate();
+			birthDate = getDate();
+
+			enableOutput();
+			boolean hasDelinquentLoans = ScriptAccountUtils.hasDelinquentLoan(getConnection(), accountSerial, 29);
+			//add or restore CP
+			if (cpLimit.isZero()) {
+				boolean openDays = ScriptShareUtils.openForAtLeastXDays(getConnection(), shareSerial, 90);
+				boolean deposits = aggregateDeposits(getConnection(), shareSerial) >= 1500.00;
+				boolean isOfAge = ScriptPersonUtils.isAtLeastAge(getConnection(), personSerial, 18);
+				boolean hasChargeOffLoans = ScriptAccountUtils.hasChargedOffLoans(getConnection(), accountSerial);
+				if (!hasCPRestriction(getConnection(), shareSerial) && openDays && deposits && isOfAge && !hasDelinquentLoans && !hasChargeOffLoans) {
+					newCPRestriction = null;
+					newCPLimit = new Money(50000);
+				} else if (cpRestriction.equals(negativeBalanceRestriction) && !ScriptShareUtils.isNegative(getConnection(), shareSerial)) {
+					newCPRestriction = null;
+					newCPLimit = new Money(50000);
+				} else if (cpRestriction.equals(dqLoansRestriction) && !hasDelinquentLoans) {
+					newCPRestriction = null;
+					newCPLimit = new Money(50000);
+				} else {
+					disableOutput();
+				}
+			}
+			//remove CP
+			else {
+				if (ScriptShareUtils.daysBelowAmount(getConnection(), shareSerial, new Money(0)) >= 30) {
+					newCPRestriction = negativeBalanceRestriction;
+					newCPLimit = new Money(0);
+				} else if (hasDelinquentLoans) {
+					newCPRestriction = dqLoansRestriction;
+					newCPLimit = new Money(0);
+				} else if (ScriptAccountUtils.hasChargeOffs(getConnection(), accountSerial)) {
+					newCPRestriction = chargeOffRestriction;
+					newCPLimit = new Money(0);
+				} else {
+					disableOutput();
+				}
+			}
+		}
+
 		private double aggregateDeposits(Connection connection, Serial shareSerial) throws SQLException {
 			int count = 0;
 			double aggregate = 0;
@@ -198,27 +467,27 @@ public class CourtesyPay extends MultiThreadScript {
 				+ "		CORE.ENV AS ENV ON " + " ENV.SERIAL > 0"
 				+ "	WHERE "
 				+ "		MONETARY.POSTING_DATE > ENV.POSTING_DATE - 90 DAYS AND "
-				+ "     LCASE(MONETARY.DESCRIPTION) NOT LIKE '%loan proceeds%' AND " //Excluding Loan Proceeds
-				+ "     NOT EXISTS (" // <-----ADDED STATEMENT TO FILTER OUT ACH IRS PAYMENTS FROM BEING COUNTED----------->
-				+ "     		SELECT 1 "
-				+ "        		FROM CORE.MON_DETAIL MON_DETAIL"
-				+ "             WHERE "
-				+ "                 MON_DETAIL.PARENT_SERIAL = MONETARY.SERIAL AND "
-				+ "                 MONETARY.SOURCE = 'a' AND "
-				+ "             	MON_DETAIL.CATEGORY = 'ACH' AND "
-				+ "                 (MON_DETAIL.CONTENTS_1 LIKE '%IRS%' OR MON_DETAIL.CONTENTS_1 LIKE '%VEC%')"//<--Added VEC payments to the exclusions -->
-				+ "         ) AND " //END ADDED STATEMENT
+				+ "		LCASE(MONETARY.DESCRIPTION) NOT LIKE '%loan proceeds%' AND " //Excluding Loan Proceeds
+				+ "		NOT EXISTS (" //Excluding ACH IRS and VEC payments
+				+ "			SELECT 1 "
+				+ "			FROM CORE.MON_DETAIL MON_DETAIL"
+				+ "			WHERE "
+				+ "				MON_DETAIL.PARENT_SERIAL = MONETARY.SERIAL AND "
+				+ "				MONETARY.SOURCE = 'a' AND "
+				+ "				MON_DETAIL.CATEGORY = 'ACH' AND "
+				+ "				(MON_DETAIL.CONTENTS_1 LIKE '%IRS%' OR MON_DETAIL.CONTENTS_1 LIKE '%VEC%')"
+				+ "		) AND "
 				+ "		SHARE.SERIAL = ?"
 				+ " )";
-			PreparedStatement stmt = connection.prepareStatement(sql);
-			int i = 1;
-			shareSerial.set(stmt, i++);
-			ResultSet rset = stmt.executeQuery();
-			if (rset.next()) {
-				count = rset.getInt(1);
-				aggregate = rset.getDouble(2);
+			try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+				shareSerial.set(stmt, 1);
+				try (ResultSet rset = stmt.executeQuery()) {
+					if (rset.next()) {
+						count = rset.getInt(1);
+						aggregate = rset.getDouble(2);
+					}
+				}
 			}
-			stmt.close();
 			if (count >= 3) {
 				return aggregate;
 			} else {
@@ -226,84 +495,430 @@ public class CourtesyPay extends MultiThreadScript {
 			}
 		}
 
-		private boolean isOldestShare(Connection connection, Serial personSerial, Serial shareSerial) throws SQLException {
-			boolean isOldestShare = false;
-			Serial oldestShare = null;
+		private boolean hasCPRestriction(Connection connection, Serial shareSerial) throws SQLException {
 			String sql = "SELECT "
-				+ "	SHARE_SERIAL "
-				+ " FROM"
-				+ " ("
-				+ "	SELECT "
-				+ "		SHARE.SERIAL AS SHARE_SERIAL,"
-				+ "		SHARE.OPEN_DATE,"
-				+ "		MIN(SHARE.OPEN_DATE) OVER (PARTITION BY PERSON.SERIAL) AS MIN_OPEN_DATE"
-				+ "	FROM "
-				+ "		CORE.PERSON AS PERSON INNER JOIN "
-				+ "         CORE.ACCOUNT AS ACCOUNT ON "
-				+ "             PERSON.SERIAL = ACCOUNT.PRIMARY_PERSON_SERIAL INNER JOIN "
-				+ " 	CORE.SHARE AS SHARE ON "
-				+ "             ACCOUNT.SERIAL = SHARE.PARENT_SERIAL INNER JOIN"
-				+ "         CORE.SH_TYPE AS SHARE_TYPE ON "
-				+ "             SHARE.TYPE_SERIAL = SHARE_TYPE.SERIAL"
-				+ " WHERE"
-				+ "     SHARE.CLOSE_DATE IS NULL AND "
-				+ "     SHARE.CHARGE_OFF_DATE IS NULL AND "
-				+ "     SHARE_TYPE.DESCRIPTION = 'Checking - Regular' AND"
-				+ "		ACCOUNT.CLOSE_DATE IS NULL AND "
-				+ "		SHARE.CLOSE_DATE IS NULL AND "
-				+ "		ACCOUNT.PRIMARY_PERSON_SERIAL = ?"
-				+ " )"
-				+ " WHERE"
-				+ "	OPEN_DATE = MIN_OPEN_DATE "
-				+ " ORDER BY "
-				+ "     SHARE_SERIAL";
-			PreparedStatement stmt = connection.prepareStatement(sql);
-			personSerial.set(stmt, 1);
-			ResultSet rset = stmt.executeQuery();
-			if (rset.next()) {
-				oldestShare = Serial.get(rset, 1);
-				isOldestShare = shareSerial.equals(oldestShare);
+				+ "	1"
+				+ " FROM "
+				+ "	CORE.SHARE AS SHARE INNER JOIN "
+				+ "	CORE.COURTESY_PAY_RESTRICTION AS COURTESY_PAY_RESTRICTION ON "
+				+ "		SHARE.COURTESY_PAY_RESTRICT_SERIAL = COURTESY_PAY_RESTRICTION.SERIAL"
+				+ " WHERE "
+				+ "	SHARE.SERIAL = ? ";
+			try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+				shareSerial.set(stmt, 1);
+				try (ResultSet rset = stmt.executeQuery()) {
+					return rset.next();
+				}
 			}
-			stmt.close();
-			return isOldestShare;
 		}
+	}
 
+	/**
+	 * Builds the eligibility rules. Each check runs at most once per share and
+	 * only when a rule needs it; in-memory checks run before queries.
+	 */
+	private void buildRules() {
+		rules = new RuleEngine<MultiThreadTaskTemplate>().setAdaptive(true);
+		int queryCost = features == null ? RuleEngine.COST_QUERY : RuleEngine.COST_MEMORY;
+		int heavyQueryCost = features == null ? RuleEngine.COST_HEAVY_QUERY : RuleEngine.COST_MEMORY;
+		RuleEngine.Predicate<MultiThreadTaskTemplate> hasCPRestriction = rules.predicate("Has CP Restriction", RuleEngine.COST_MEMORY,
+			task -> hasCPRestriction(task.cpRestriction));
+		RuleEngine.Predicate<MultiThreadTaskTemplate> negativeBalanceRestricted = rules.predicate("Negative Balance Restriction", RuleEngine.COST_MEMORY,
+			task -> task.cpRestriction.equals(negativeBalanceRestriction));
+		RuleEngine.Predicate<MultiThreadTaskTemplate> dqLoansRestricted = rules.predicate("Delinquent Loans Restriction", RuleEngine.COST_MEMORY,
+			task -> task.cpRestriction.equals(dqLoansRestriction));
+		RuleEngine.Predicate<MultiThreadTaskTemplate> openDays = rules.predicate("Open 90 Days", RuleEngine.COST_MEMORY,
+			task -> ScriptShareUtils.openForAtLeastXDays(task.openDate, postingEpochDay, 90));
+		RuleEngine.Predicate<MultiThreadTaskTemplate> deposits = rules.predicate("Deposits >= 1500.00", RuleEngine.COST_MEMORY,
+			task -> task.aggregateDeposits(task.shareSerial) >= 150000);
+		RuleEngine.Predicate<MultiThreadTaskTemplate> isOfAge = rules.predicate("Is Of Age", RuleEngine.COST_MEMORY,
+			task -> ScriptPersonUtils.isAtLeastAge(task.birthDate, environment, 18));
+		RuleEngine.Predicate<MultiThreadTaskTemplate> hasChargeOffLoans = rules.predicate("Has Charged Off Loans", queryCost,
+			task -> task.hasChargedOffLoans());
+		RuleEngine.Predicate<MultiThreadTaskTemplate> isNegative = rules.predicate("Is Negative", RuleEngine.COST_QUERY,
+			task -> negativeLoader.load(task.taskConnection(), task.shareSerial));
+		hasDelinquentLoans = rules.predicate("Has Delinquent Loans", queryCost,
+			task -> task.hasDelinquentLoans());
+		hasChargeOffs = rules.predicate("Has Charge Offs", queryCost,
+			task -> task.hasChargeOffs());
+		negativeBalanceDays = rules.predicate("Negative Balance Days >= 30", heavyQueryCost,
+			task -> task.daysNegative() >= 30);
+		// All three branches restore the same limit, so they may run in any order.
+		addOrRestoreCP = rules.or(
+			rules.and(rules.not(hasCPRestriction), openDays, deposits, isOfAge, rules.not(hasDelinquentLoans), rules.not(hasChargeOffLoans)),
+			rules.and(negativeBalanceRestricted, rules.not(isNegative)),
+			rules.and(dqLoansRestricted, rules.not(hasDelinquentLoans)));
 	}
 
-	private Serial getRestrictionSerial(Connection connection, String cpRestrictionDescription) throws SQLException, ScriptException {
+	/**
+	 * Registers the account and balance checks as features of a share. Each
+	 * sub-select matches the per-share ScriptAccountUtils or ScriptShareUtils
+	 * query it stands in for; the negative balance check returns the date the
+	 * balance last went below zero, and the task subtracts it from the
+	 * posting date.
+	 */
+	FeatureQuery createFeatureQuery() throws ScriptException {
+		FeatureQuery query = new FeatureQuery("CORE.SHARE", "SHARE", "SERIAL");
+		chargedOffLoansFeature = query.addSubselect("CHARGED_OFF_LOANS", FeatureQuery.FeatureType.BOOLEAN, "SELECT "
+			+ "	COUNT(*)"
+			+ " FROM "
+			+ "	CORE.LOAN AS LOAN"
+			+ " WHERE "
+			+ "	LOAN.PARENT_SERIAL = SHARE.PARENT_SERIAL AND "
+			+ "	LOAN.CHARGE_OFF_DATE IS NOT NULL");
+		chargedOffSharesFeature = query.addSubselect("CHARGED_OFF_SHARES", FeatureQuery.FeatureType.BOOLEAN, "SELECT "
+			+ "	COUNT(*)"
+			+ " FROM "
+			+ "	CORE.SHARE AS CHARGED_OFF_SHARE"
+			+ " WHERE "
+			+ "	CHARGED_OFF_SHARE.PARENT_SERIAL = SHARE.PARENT_SERIAL AND "
+			+ "	CHARGED_OFF_SHARE.CHARGE_OFF_DATE IS NOT NULL");
+		// PAYMENT_DUE_DATE + 29 DAYS < POSTING_DATE, with the date math done once here.
+		delinquentLoansFeature = query.addSubselect("DELINQUENT_LOANS", FeatureQuery.FeatureType.BOOLEAN, "SELECT "
+			+ "	COUNT(*)"
+			+ " FROM "
+			+ "	CORE.LOAN AS LOAN INNER JOIN "
+			+ "	CORE.LN_TYPE AS LN_TYPE ON "
+			+ "		LOAN.TYPE_SERIAL = LN_TYPE.SERIAL"
+			+ " WHERE "
+			+ "	LOAN.PARENT_SERIAL = SHARE.PARENT_SERIAL AND "
+			+ "	LOAN.PAYMENT_DUE_DATE < ? AND "
+			+ "	LOAN.BALANCE <> 0 AND "
+			+ "	LN_TYPE.CATEGORY IN (?, ?, ?, ?) AND "
+			+ "	LOAN.CLOSE_DATE IS NULL AND "
+			+ "	LOAN.CHARGE_OFF_DATE IS NULL",
+			CalendarMath.toDate(postingEpochDay - 29), "CE", "CC", "LC", "OE");
+		negativeSinceFeature = query.addSubselect("NEGATIVE_SINCE", FeatureQuery.FeatureType.DATE, "SELECT "
+			+ "	MAX(MONETARY.POSTING_DATE)"
+			+ " FROM "
+			+ "	CORE.MONETARY AS MONETARY"
+			+ " WHERE "
+			+ "	MONETARY.TARGET_ACCESS_KEY = SHARE.STORED_ACCESS_KEY AND "
+			+ "	SHARE.BALANCE < 0 AND "
+			+ "	MONETARY.STATUS = 'P' AND "
+			+ "	MONETARY.NEW_BALANCE < 0 AND "
+			+ "	MONETARY.NEW_BALANCE - MONETARY.PRINCIPAL >= 0");
+		return query;
+	}
+
+	/**
+	 * Evaluates the features for every driver share up front, one query per
+	 * chunk of shares, in place of four queries per share.
+	 */
+	private void loadFeatures(Connection connection) throws Exception {
+		FeatureQuery query = createFeatureQuery();
+		LongHashSet shares = selectSerials(connection, "SELECT SHARE_SERIAL FROM (" + getNextTaskSQL() + ") AS DRIVER",
+			toParameterList(checkingRegularTypes), secondChanceCPRestriction);
+		features = query.load(connection, shares.toArray());
+	}
+
+	/**
+	 * Totals the last 90 days of deposits for every candidate share in one
+	 * scan, replacing a MONETARY query per share. Only shares without a
+	 * courtesy pay limit need the total; a NULL limit reads as zero, so it
+	 * counts as no limit.
+	 */
+	private void loadDeposits(Connection connection) throws Exception {
 		String sql = "SELECT "
-			+ "	SERIAL "
+			+ "	SHARE.SERIAL,"
+			+ "	COUNT(MONETARY.SERIAL),"
+			+ "	SUM(MONETARY.PRINCIPAL)"
 			+ " FROM "
-			+ "	CORE.COURTESY_PAY_RESTRICTION "
+			+ "	CORE.SHARE AS SHARE INNER JOIN "
+			+ "	CORE.MONETARY AS MONETARY ON"
+			+ "		MONETARY.TARGET_ACCESS_KEY = SHARE.STORED_ACCESS_KEY AND "
+			+ "		MONETARY.STATUS = 'P' AND "
+			+ "		MONETARY.CATEGORY = 'D' AND "
+			+ "		MONETARY.TRANSFER_OPTION <> 'T'"
 			+ " WHERE "
-			+ "	DESCRIPTION = ?";
-		Serial restrictionSerial = null;
-		PreparedStatement stmt = connection.prepareStatement(sql);
-		stmt.setString(1, cpRestrictionDescription);
-		ResultSet rset = stmt.executeQuery();
-		if (rset.next()) {
-			restrictionSerial = Serial.get(rset, 1);
-		} else {
-			throw new ScriptException("Could not identify Courtesy Pay Restriction: " + cpRestrictionDescription);
+			+ "	SHARE.CLOSE_DATE IS NULL AND "
+			+ "	SHARE.CHARGE_OFF_DATE IS NULL AND "
+			+ "	COALESCE(SHARE.COURTESY_PAY_LIMIT, 0) = 0 AND "
+			+ "	SHARE.TYPE_SERIAL IN (" + ScriptUtils.createInStatementVariables(checkingRegularTypes.length) + ") AND "
+			+ "	MONETARY.POSTING_DATE > ? AND "
+			+ "	LCASE(MONETARY.DESCRIPTION) NOT LIKE '%loan proceeds%' AND " //Excluding Loan Proceeds
+			+ "	NOT EXISTS (" //Excluding ACH IRS and VEC payments
+			+ "		SELECT 1 "
+			+ "		FROM CORE.MON_DETAIL MON_DETAIL"
+			+ "		WHERE "
+			+ "			MON_DETAIL.PARENT_SERIAL = MONETARY.SERIAL AND "
+			+ "			MONETARY.SOURCE = 'a' AND "
+			+ "			MON_DETAIL.CATEGORY = 'ACH' AND "
+			+ "			(MON_DETAIL.CONTENTS_1 LIKE '%IRS%' OR MON_DETAIL.CONTENTS_1 LIKE '%VEC%')"
+			+ "	)"
+			+ " GROUP BY "
+			+ "	SHARE.SERIAL";
+		depositCounts = new LongIntHashMap();
+		depositTotals = new MoneyColumn(true, 1024);
+		try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+			int i = 1;
+			for (long typeSerial : checkingRegularTypes) {
+				stmt.setLong(i++, typeSerial);
+			}
+			stmt.setDate(i++, getEnvironment().getPreviousDate(90));
+			try (ResultSet rset = stmt.executeQuery()) {
+				while (rset.next()) {
+					long shareSerial = rset.getLong(1);
+					depositCounts.put(shareSerial, rset.getInt(2));
+					depositTotals.add(shareSerial, Money.get(rset, 3).getPennies());
+				}
+			}
 		}
-		stmt.close();
-		return restrictionSerial;
 	}
 
-	private boolean hasCPRestriction(Connection connection, Serial shareSerial) throws SQLException {
-		String sql = "SELECT "
-			+ "	1"
+	/**
+	 * Loads the set-based inputs used to decide which shares an incremental
+	 * run must evaluate, and the account statuses saved for the next run.
+	 */
+	private void loadDecisionInputs(Connection connection) throws Exception {
+		nextSnapshot = new DecisionSnapshot(environment.getPostingDate());
+		List<Serial> accounts = new ArrayList<>();
+		String accountSql = "SELECT DISTINCT "
+			+ "	ACCOUNT.SERIAL"
+			+ " FROM "
+			+ "	CORE.ACCOUNT AS ACCOUNT INNER JOIN "
+			+ "	CORE.SHARE AS SHARE ON "
+			+ "		ACCOUNT.SERIAL = SHARE.PARENT_SERIAL "
+			+ " WHERE "
+			+ "	ACCOUNT.CLOSE_DATE IS NULL AND "
+			+ "	SHARE.CLOSE_DATE IS NULL AND "
+			+ "	SHARE.CHARGE_OFF_DATE IS NULL AND "
+			+ "	SHARE.TYPE_SERIAL IN (" + ScriptUtils.createInStatementVariables(checkingRegularTypes.length) + ")";
+		selectSerials(connection, accountSql, toParameterList(checkingRegularTypes))
+			.forEach(serial -> accounts.add(ScriptUtils.toSerial(serial)));
+		nextSnapshot.delinquentAccounts = ScriptAccountUtils.hasDelinquentLoan(connection, accounts, 29);
+		nextSnapshot.chargedOffLoanAccounts = ScriptAccountUtils.hasChargedOffLoans(connection, accounts);
+		nextSnapshot.chargeOffAccounts = ScriptAccountUtils.hasChargeOffs(connection, accounts);
+
+		if (!incremental) {
+			return;
+		}
+		previousSnapshot = DecisionSnapshot.read(snapshotPathName);
+		if (previousSnapshot == null) {
+			return;
+		}
+		previousEnvironment = EnvironmentSnapshot.of(previousSnapshot.postingDate);
+		// Activity posted on the snapshot's own posting date is included, in
+		// case it was posted after the snapshot was written.
+		Date since = previousSnapshot.postingDate;
+		sharesWithActivity = selectSerials(connection, "SELECT DISTINCT "
+			+ "	SHARE.SERIAL"
 			+ " FROM "
 			+ "	CORE.SHARE AS SHARE INNER JOIN "
-			+ "	CORE.COURTESY_PAY_RESTRICTION AS COURTESY_PAY_RESTRICTION ON "
-			+ "		SHARE.COURTESY_PAY_RESTRICT_SERIAL = COURTESY_PAY_RESTRICTION.SERIAL"
+			+ "	CORE.MONETARY AS MONETARY ON "
+			+ "		MONETARY.TARGET_ACCESS_KEY = SHARE.STORED_ACCESS_KEY "
+			+ " WHERE "
+			+ "	SHARE.CLOSE_DATE IS NULL AND "
+			+ "	SHARE.TYPE_SERIAL IN (" + ScriptUtils.createInStatementVariables(checkingRegularTypes.length) + ") AND "
+			+ "	MONETARY.POSTING_DATE >= ?",
+			toParameterList(checkingRegularTypes), since);
+		accountsWithLoanActivity = selectSerials(connection, "SELECT DISTINCT "
+			+ "	LOAN.PARENT_SERIAL"
+			+ " FROM "
+			+ "	CORE.LOAN AS LOAN INNER JOIN "
+			+ "	CORE.MONETARY AS MONETARY ON "
+			+ "		MONETARY.TARGET_ACCESS_KEY = LOAN.STORED_ACCESS_KEY "
+			+ " WHERE "
+			+ "	MONETARY.POSTING_DATE >= ?",
+			since);
+		negativeShares = selectSerials(connection, "SELECT "
+			+ "	SHARE.SERIAL"
+			+ " FROM "
+			+ "	CORE.SHARE AS SHARE "
 			+ " WHERE "
-			+ "	SHARE.SERIAL = ? ";
-		try (PreparedStatement stmt = connection.prepareStatement(sql);) {
-			shareSerial.set(stmt, 1);
-			ResultSet rset = stmt.executeQuery();
-			return rset.next();
+			+ "	SHARE.CLOSE_DATE IS NULL AND "
+			+ "	SHARE.TYPE_SERIAL IN (" + ScriptUtils.createInStatementVariables(checkingRegularTypes.length) + ") AND "
+			+ "	SHARE.BALANCE < 0",
+			toParameterList(checkingRegularTypes));
+	}
+
+	/**
+	 * A share must be evaluated again if it was not saved as unchanged in the
+	 * snapshot, its restriction or limit changed, it or a loan on its account
+	 * had monetary activity, it is negative (its negative-days count grows
+	 * daily), its account's delinquency or charge-off status changed, or it
+	 * crossed the 90-day open or 18th birthday mark since the snapshot.
+	 * Deposits ageing out of the 90-day window can only lower the total, so
+	 * they cannot make a share newly eligible.
+	 */
+	private boolean needsEvaluation(MultiThreadTaskTemplate task) throws ScriptException {
+		long share = ScriptUtils.toLong(task.shareSerial);
+		long account = ScriptUtils.toLong(task.accountSerial);
+		int saved = previousSnapshot.findShare(share);
+		if (saved < 0
+			|| previousSnapshot.shareRestrictions[saved] != ScriptUtils.toLong(task.cpRestriction)
+			|| previousSnapshot.shareLimits[saved] != task.cpLimit.getPennies()
+			|| sharesWithActivity.contains(share)
+			|| negativeShares.contains(share)
+			|| accountsWithLoanActivity.contains(account)) {
+			return true;
+		}
+		if (previousSnapshot.delinquentAccounts.contains(account) != nextSnapshot.delinquentAccounts.contains(account)
+			|| previousSnapshot.chargedOffLoanAccounts.contains(account) != nextSnapshot.chargedOffLoanAccounts.contains(account)
+			|| previousSnapshot.chargeOffAccounts.contains(account) != nextSnapshot.chargeOffAccounts.contains(account)) {
+			return true;
 		}
+		return ScriptShareUtils.openForAtLeastXDays(task.openDate, previousEnvironment, 90) != ScriptShareUtils.openForAtLeastXDays(task.openDate, postingEpochDay, 90)
+			|| ScriptPersonUtils.isAtLeastAge(task.birthDate, previousEnvironment, 18) != ScriptPersonUtils.isAtLeastAge(task.birthDate, environment, 18);
+	}
+
+	private static LongHashSet selectSerials(Connection connection, String sql, Object... parameters) throws SQLException, ScriptException {
+		LongHashSet serials = new LongHashSet();
+		try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+			ParameterBinder.bind(stmt, parameters);
+			try (ResultSet rset = stmt.executeQuery()) {
+				while (rset.next()) {
+					serials.add(rset.getLong(1));
+				}
+			}
+		}
+		return serials;
+	}
+
+	/**
+	 * Per-share decision inputs saved between runs: the restriction and limit
+	 * of every share that was evaluated without a change, and the account
+	 * delinquency and charge-off statuses at the time of the run.
+	 * <br></br>
+	 * File format, one record per line:
+	 * <br>POSTING_DATE,yyyy-mm-dd</br>
+	 * <br>S,shareSerial,restrictionSerial,limitPennies</br>
+	 * <br>D|L|C,accountSerial (delinquent, charged off loans, charge offs)</br>
+	 */
+	private static final class DecisionSnapshot {
+
+		final Date postingDate;
+		final LongIntHashMap shareRows = new LongIntHashMap(1024);
+		long[] shareSerials = new long[1024];
+		long[] shareRestrictions = new long[1024];
+		long[] shareLimits = new long[1024];
+		int shareCount = 0;
+		LongHashSet delinquentAccounts = new LongHashSet();
+		LongHashSet chargedOffLoanAccounts = new LongHashSet();
+		LongHashSet chargeOffAccounts = new LongHashSet();
+
+		DecisionSnapshot(Date postingDate) {
+			this.postingDate = postingDate;
+		}
+
+		void putShare(Serial shareSerial, Serial cpRestriction, Money cpLimit) {
+			putShare(ScriptUtils.toLong(shareSerial), ScriptUtils.toLong(cpRestriction), cpLimit.getPennies());
+		}
+
+		/**
+		 * Saves a share's restriction and limit. Task threads call this
+		 * concurrently on the next snapshot.
+		 */
+		synchronized void putShare(long share, long restriction, long limitPennies) {
+			int row = shareRows.getOrDefault(share, -1);
+			if (row < 0) {
+				row = shareCount++;
+				if (row == shareSerials.length) {
+					shareSerials = Arrays.copyOf(shareSerials, row << 1);
+					shareRestrictions = Arrays.copyOf(shareRestrictions, row << 1);
+					shareLimits = Arrays.copyOf(shareLimits, row << 1);
+				}
+				shareRows.put(share, row);
+				shareSerials[row] = share;
+			}
+			shareRestrictions[row] = restriction;
+			shareLimits[row] = limitPennies;
+		}
+
+		/**
+		 * Returns the row of a saved share, or -1 if it was not saved. Only
+		 * call this on a snapshot that is no longer being written.
+		 */
+		int findShare(long share) {
+			return shareRows.getOrDefault(share, -1);
+		}
+
+		/**
+		 * Returns the saved snapshot, or null if there is none yet.
+		 */
+		static DecisionSnapshot read(String pathName) throws ScriptException {
+			File file = new File(pathName);
+			if (!file.exists()) {
+				return null;
+			}
+			DecisionSnapshot snapshot = null;
+			try (BufferedReader bfr = new BufferedReader(new FileReader(file))) {
+				String line;
+				while ((line = bfr.readLine()) != null) {
+					String[] fields = line.split(",");
+					if (fields[0].equals("POSTING_DATE")) {
+						snapshot = new DecisionSnapshot(Date.valueOf(fields[1]));
+					} else if (snapshot == null) {
+						throw new ScriptException("Courtesy Pay snapshot " + pathName + " does not start with a posting date.");
+					} else if (fields[0].equals("S")) {
+						snapshot.putShare(Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+					} else if (fields[0].equals("D")) {
+						snapshot.delinquentAccounts.add(Long.parseLong(fields[1]));
+					} else if (fields[0].equals("L")) {
+						snapshot.chargedOffLoanAccounts.add(Long.parseLong(fields[1]));
+					} else if (fields[0].equals("C")) {
+						snapshot.chargeOffAccounts.add(Long.parseLong(fields[1]));
+					}
+				}
+			} catch (IOException | IllegalArgumentException ex) {
+				throw new ScriptException("Unable to read Courtesy Pay snapshot " + pathName + ".", ex);
+			}
+			return snapshot;
+		}
+
+		/**
+		 * Writes the snapshot to a temporary file and moves it into place, so
+		 * a failed run leaves the previous snapshot intact.
+		 */
+		synchronized void write(String pathName) throws ScriptException {
+			File file = new File(pathName);
+			File temp = new File(pathName + ".tmp");
+			try (BufferedWriter writer = new BufferedWriter(new FileWriter(temp))) {
+				writer.write("POSTING_DATE," + postingDate);
+				writer.newLine();
+				for (int row = 0; row < shareCount; row++) {
+					writer.write("S," + shareSerials[row] + "," + shareRestrictions[row] + "," + shareLimits[row]);
+					writer.newLine();
+				}
+				writeAccounts(writer, "D", delinquentAccounts);
+				writeAccounts(writer, "L", chargedOffLoanAccounts);
+				writeAccounts(writer, "C", chargeOffAccounts);
+			} catch (IOException ex) {
+				throw new ScriptException("Unable to write Courtesy Pay snapshot " + pathName + ".", ex);
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException ex) {
+				throw new ScriptException("Unable to replace Courtesy Pay snapshot " + pathName + ".", ex);
+			}
+		}
+
+		private static void writeAccounts(BufferedWriter writer, String type, LongHashSet accounts) throws IOException {
+			for (long account : accounts.toArray()) {
+				writer.write(type + "," + account);
+				writer.newLine();
+			}
+		}
+	}
+
+	private Serial getRestrictionSerial(String cpRestrictionDescription) throws ScriptException {
+		long restrictionSerial = getReferenceData().getTable("COURTESY_PAY_RESTRICTION").getSerialValue(cpRestrictionDescription);
+		if (restrictionSerial == 0) {
+			throw new ScriptException("Could not identify Courtesy Pay Restriction: " + cpRestrictionDescription);
+		}
+		return ScriptUtils.toSerial(restrictionSerial);
+	}
+
+	private static List<Long> toParameterList(long[] values) {
+		List<Long> list = new ArrayList<>(values.length);
+		for (long value : values) {
+			list.add(value);
+		}
+		return list;
+	}
+
+	private boolean hasCPRestriction(Serial cpRestriction) throws ScriptException {
+		return getReferenceData().getTable("COURTESY_PAY_RESTRICTION").containsSerial(ScriptUtils.toLong(cpRestriction));
 	}
 	public static void main(String[] args) throws Throwable {
 		System.out.println("I'm Running!");
@@ -0,0 +1,328 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.ScriptException;
+import com.corelationinc.script.Serial;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces point lookups made by concurrent tasks into IN-list queries. Each
+ * task asks for a single key and gets back its own value, while the database
+ * sees one KeySetQuery per batch of keys.
+ * <br></br>
+ * The first task to ask for a key opens a batch and waits up to the batch
+ * window (2 ms by default) for other tasks to add their keys, or until the
+ * batch holds maxBatchSize distinct keys, or until every thread that can
+ * call the loader has joined (see setCallerThreadCount; with one task thread
+ * there is no wait at all). It then runs the query on its own
+ * connection and hands every waiting task its value. Keys with no result row
+ * receive the missing value. If the query fails, every task in the batch
+ * receives the same exception.
+ * <br></br>
+ * The SQL template must select the key as its first column and contain
+ * ScriptUtils.IN_LIST_MARKER, as for KeySetQuery. The data must not change
+ * during the run. All methods are safe to call from multiple task threads.
+ * <br>Ex.</br>
+ *
+ * <br>BatchLoader&lt;Boolean&gt; negativeShares = BatchLoader.exists("SELECT
+ * SERIAL FROM CORE.SHARE WHERE BALANCE &lt; 0 AND SERIAL IN ({IN})");</br>
+ * <br>...</br>
+ * <br>boolean negative = negativeShares.load(getConnection(),
+ * shareSerial);</br>
+ *
+ * @author stosti
+ * @param <V>
+ */
+public class BatchLoader<V> {
+
+    public static final long DEFAULT_WINDOW_MICROS = 2000;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 200;
+
+    private final KeySetQuery query;
+    private final V missingValue;
+    private final ValueReader<V> reader;
+
+    private long windowNanos = TimeUnit.MICROSECONDS.toNanos(DEFAULT_WINDOW_MICROS);
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private int callerThreadCount = Integer.MAX_VALUE;
+
+    private final Object lock = new Object();
+    private Batch<V> openBatch = null;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder keys = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Reads the value for one result row. The key is in column 1.
+     *
+     * @param <V>
+     */
+    public interface ValueReader<V> {
+
+        V read(ResultSet rset) throws SQLException, ScriptException;
+    }
+
+    /**
+     * @param sqlTemplate SQL selecting the key as column 1 and containing
+     * ScriptUtils.IN_LIST_MARKER
+     * @param missingValue value for keys with no result row
+     * @param reader reads the value from a result row
+     * @param leadingParameters parameters bound before the keys
+     * @throws ScriptException
+     */
+    public BatchLoader(String sqlTemplate, V missingValue, ValueReader<V> reader, Object... leadingParameters) throws ScriptException {
+        if (reader == null) {
+            throw new ScriptException("Null value reader passed to BatchLoader.");
+        }
+        this.query = new KeySetQuery(sqlTemplate, leadingParameters);
+        this.missingValue = missingValue;
+        this.reader = reader;
+    }
+
+    /**
+     * Returns a loader answering whether the query returns a row for a key.
+     *
+     * @param sqlTemplate SQL selecting the key as column 1 and containing
+     * ScriptUtils.IN_LIST_MARKER
+     * @param leadingParameters parameters bound before the keys
+     * @return
+     * @throws ScriptException
+     */
+    public static BatchLoader<Boolean> exists(String sqlTemplate, Object... leadingParameters) throws ScriptException {
+        return new BatchLoader<>(sqlTemplate, Boolean.FALSE, rset -> Boolean.TRUE, leadingParameters);
+    }
+
+    /**
+     * Sets how long the task opening a batch waits for other keys before
+     * running the query. Zero runs every batch immediately.
+     *
+     * @param micros
+     * @return this
+     */
+    public BatchLoader<V> setWindowMicros(long micros) {
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, micros));
+        return this;
+    }
+
+    /**
+     * Sets the number of distinct keys at which a batch runs without waiting
+     * for the rest of the window.
+     *
+     * @param maxBatchSize
+     * @return this
+     */
+    public BatchLoader<V> setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads that can call load(). A batch runs as soon
+     * as that many calls have joined it, since no other caller can arrive
+     * before the window ends. MultiThreadScript.registerBatchLoader sets it to
+     * the script's task thread count.
+     *
+     * @param threads
+     * @return this
+     */
+    public BatchLoader<V> setCallerThreadCount(int threads) {
+        this.callerThreadCount = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Returns the value for the given serial.
+     *
+     * @param connection the calling task's connection, used if this call
+     * runs the batch
+     * @param key
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public V load(Connection connection, Serial key) throws SQLException, ScriptException {
+        if (key == null) {
+            throw new ScriptException("Null serial passed to BatchLoader.");
+        }
+        return load(connection, ScriptUtils.toLong(key));
+    }
+
+    /**
+     * Returns the value for the given key.
+     *
+     * @param connection the calling task's connection, used if this call
+     * runs the batch
+     * @param key
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public V load(Connection connection, long key) throws SQLException, ScriptException {
+        if (connection == null) {
+            throw new ScriptException("Null connection passed to BatchLoader.");
+        }
+        requests.increment();
+        Batch<V> batch;
+        CompletableFuture<V> result;
+        boolean leader = false;
+        synchronized (lock) {
+            if (openBatch == null) {
+                openBatch = new Batch<>();
+                leader = true;
+            }
+            batch = openBatch;
+            result = batch.results.get(key);
+            if (result == null) {
+                result = new CompletableFuture<>();
+                batch.results.put(key, result);
+            }
+            batch.callers++;
+            if (batch.results.size() >= maxBatchSize || batch.callers >= callerThreadCount) {
+                openBatch = null;
+                lock.notifyAll();
+            }
+        }
+        if (leader) {
+            awaitBatch(batch);
+            dispatch(connection, batch);
+        }
+        return await(result);
+    }
+
+    /**
+     * Waits for the window to pass or the batch to fill, then closes it to
+     * further keys.
+     */
+    private void awaitBatch(Batch<V> batch) {
+        boolean interrupted = false;
+        synchronized (lock) {
+            long deadline = System.nanoTime() + windowNanos;
+            while (openBatch == batch) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+            }
+            if (openBatch == batch) {
+                openBatch = null;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch(Connection connection, Batch<V> batch) {
+        long[] batchKeys = new long[batch.results.size()];
+        int index = 0;
+        for (Long key : batch.results.keySet()) {
+            batchKeys[index++] = key;
+        }
+        batches.increment();
+        keys.add(batchKeys.length);
+        HashMap<Long, V> values = new HashMap<>(batchKeys.length * 2);
+        try {
+            query.run(connection, batchKeys, rset -> {
+                Long key = rset.getLong(1);
+                if (!values.containsKey(key)) {
+                    values.put(key, reader.read(rset));
+                }
+            });
+        } catch (Throwable e) {
+            failures.increment();
+            for (CompletableFuture<V> result : batch.results.values()) {
+                result.completeExceptionally(e);
+            }
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            return;
+        }
+        for (Map.Entry<Long, CompletableFuture<V>> entry : batch.results.entrySet()) {
+            V value = values.get(entry.getKey());
+            entry.getValue().complete(value == null ? missingValue : value);
+        }
+    }
+
+    private V await(CompletableFuture<V> result) throws SQLException, ScriptException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof ScriptException) {
+                throw (ScriptException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ScriptException("Batched lookup failed.", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScriptException("Interrupted while waiting for a batched lookup.", e);
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * Returns the number of distinct keys sent to the database, summed over
+     * every batch.
+     *
+     * @return
+     */
+    public long getKeyCount() {
+        return keys.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * Returns a one-line summary of the loader statistics, for a run summary
+     * report.
+     *
+     * @return
+     */
+    public String getSummary() {
+        long batchCount = batches.sum();
+        long keyCount = keys.sum();
+        String meanBatch = batchCount == 0 ? "0.0" : String.format("%.1f", (double) keyCount / batchCount);
+        return requests.sum() + " lookups, " + keyCount + " keys in " + batchCount + " queries (" + meanBatch
+                + " keys per query), " + failures.sum() + " failed queries";
+    }
+
+    private static final class Batch<V> {
+
+        private final LinkedHashMap<Long, CompletableFuture<V>> results = new LinkedHashMap<>();
+        private int callers = 0;
+    }
+}
@@ -0,0 +1,240 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.ScriptException;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Business-day calendar over a fixed range of years. Saturdays, Sundays and
+ * the loaded holidays are non-business days. Business days are precomputed
+ * into a bitset, a prefix count and an ordinal index, so isBusinessDay,
+ * addBusinessDays and countBusinessDays are O(1) and allocate nothing.
+ * <br></br>
+ * Build one per run (holidays do not change while a script runs) and share
+ * it between tasks; the calendar is immutable.
+ * <br>Ex.</br>
+ *
+ * <br>BusinessCalendar calendar = BusinessCalendar.load(connection,
+ * "SELECT HOLIDAY_DATE FROM MYSCHEMA.HOLIDAY", 2000, 2060);</br>
+ * <br>Date cutoff = calendar.addBusinessDays(getEnvironment(), -5);</br>
+ *
+ * @author stosti
+ */
+public final class BusinessCalendar {
+
+    /**
+     * 1970-01-01 was a Thursday; (epochDay + 3) mod 7 is 0 for Monday.
+     */
+    private static final int MONDAY_OFFSET = 3;
+
+    private final int firstEpochDay;
+    private final int lastEpochDay;
+    private final long[] businessDayBits;
+    private final int[] businessDaysThrough;
+    private final int[] businessDayByOrdinal;
+
+    private BusinessCalendar(int firstYear, int lastYear, LongHashSet holidays) throws ScriptException {
+        if (firstYear > lastYear) {
+            throw new ScriptException("First year " + firstYear + " passed to BusinessCalendar is after last year " + lastYear + ".");
+        }
+        this.firstEpochDay = CalendarMath.epochDay(firstYear, 1, 1);
+        this.lastEpochDay = CalendarMath.epochDay(lastYear, 12, 31);
+        int length = lastEpochDay - firstEpochDay + 1;
+        this.businessDayBits = new long[(length + 63) >>> 6];
+        this.businessDaysThrough = new int[length];
+        int[] ordinals = new int[length];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            int epochDay = firstEpochDay + i;
+            if (Math.floorMod(epochDay + MONDAY_OFFSET, 7) < 5 && !holidays.contains(epochDay)) {
+                businessDayBits[i >>> 6] |= 1L << i;
+                ordinals[count++] = epochDay;
+            }
+            businessDaysThrough[i] = count;
+        }
+        this.businessDayByOrdinal = new int[count];
+        System.arraycopy(ordinals, 0, businessDayByOrdinal, 0, count);
+    }
+
+    /**
+     * Builds a calendar from a list of holiday dates. Holidays outside the
+     * range are ignored.
+     *
+     * @param holidays
+     * @param firstYear
+     * @param lastYear
+     * @return
+     * @throws ScriptException
+     */
+    public static BusinessCalendar of(Collection<Date> holidays, int firstYear, int lastYear) throws ScriptException {
+        LongHashSet days = new LongHashSet(holidays.size());
+        for (Date holiday : holidays) {
+            if (holiday != null) {
+                days.add(CalendarMath.epochDay(holiday));
+            }
+        }
+        return new BusinessCalendar(firstYear, lastYear, days);
+    }
+
+    /**
+     * Builds a calendar from a query whose first column is a holiday date.
+     *
+     * @param connection
+     * @param holidaySql
+     * @param firstYear
+     * @param lastYear
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public static BusinessCalendar load(Connection connection, String holidaySql, int firstYear, int lastYear) throws SQLException, ScriptException {
+        if (connection == null) {
+            throw new ScriptException("Null connection passed to BusinessCalendar.load.");
+        }
+        List<Date> holidays = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(holidaySql)) {
+            try (ResultSet rset = stmt.executeQuery()) {
+                while (rset.next()) {
+                    holidays.add(rset.getDate(1));
+                }
+            }
+        }
+        return of(holidays, firstYear, lastYear);
+    }
+
+    /**
+     * Builds a calendar from a text file with one yyyy-MM-dd holiday per
+     * line. Blank lines and lines starting with # are skipped.
+     *
+     * @param filePath
+     * @param firstYear
+     * @param lastYear
+     * @return
+     * @throws ScriptException
+     */
+    public static BusinessCalendar load(String filePath, int firstYear, int lastYear) throws ScriptException {
+        List<Date> holidays = new ArrayList<>();
+        try (BufferedReader bfr = new BufferedReader(new FileReader(filePath))) {
+            String line;
+            while ((line = bfr.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    holidays.add(Date.valueOf(line));
+                } catch (IllegalArgumentException e) {
+                    throw new ScriptException("Invalid holiday date '" + line + "' in " + filePath + ".", e);
+                }
+            }
+        } catch (IOException ex) {
+            throw new ScriptException("Unable to read holiday file " + filePath + ".", ex);
+        }
+        return of(holidays, firstYear, lastYear);
+    }
+
+    public boolean isBusinessDay(int epochDay) throws ScriptException {
+        int i = index(epochDay);
+        return (businessDayBits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public boolean isBusinessDay(Date date) throws ScriptException {
+        return isBusinessDay(toEpochDay(date));
+    }
+
+    /**
+     * Returns the business day n business days after the given day (or before
+     * it, if n is negative). The given day itself does not need to be a
+     * business day. n = 0 returns the given day.
+     *
+     * @param epochDay
+     * @param n
+     * @return
+     * @throws ScriptException
+     */
+    public int addBusinessDays(int epochDay, int n) throws ScriptException {
+        if (n == 0) {
+            index(epochDay);
+            return epochDay;
+        }
+        int ordinal;
+        if (n > 0) {
+            ordinal = businessDaysThrough[index(epochDay)] + n - 1;
+        } else {
+            int i = index(epochDay);
+            ordinal = (i == 0 ? 0 : businessDaysThrough[i - 1]) + n;
+        }
+        if (ordinal < 0 || ordinal >= businessDayByOrdinal.length) {
+            throw new ScriptException("Adding " + n + " business days to " + CalendarMath.toDate(epochDay) + " falls outside the business calendar.");
+        }
+        return businessDayByOrdinal[ordinal];
+    }
+
+    public Date addBusinessDays(Date date, int n) throws ScriptException {
+        return CalendarMath.toDate(addBusinessDays(toEpochDay(date), n));
+    }
+
+    /**
+     * Returns the business day n business days after the posting date (or
+     * before it, if n is negative).
+     *
+     * @param environment
+     * @param n
+     * @return
+     * @throws ScriptException
+     */
+    public Date addBusinessDays(EnvironmentSnapshot environment, int n) throws ScriptException {
+        if (environment == null) {
+            throw new ScriptException("Attempted to read posting date from null environment snapshot.");
+        }
+        return CalendarMath.toDate(addBusinessDays(environment.getPostingEpochDay(), n));
+    }
+
+    /**
+     * Returns the number of business days after startDate up to and including
+     * endDate. The result is negative if endDate is before startDate.
+     *
+     * @param startEpochDay
+     * @param endEpochDay
+     * @return
+     * @throws ScriptException
+     */
+    public int countBusinessDays(int startEpochDay, int endEpochDay) throws ScriptException {
+        return businessDaysThrough[index(endEpochDay)] - businessDaysThrough[index(startEpochDay)];
+    }
+
+    public int countBusinessDays(Date startDate, Date endDate) throws ScriptException {
+        return countBusinessDays(toEpochDay(startDate), toEpochDay(endDate));
+    }
+
+    public Date getFirstDate() {
+        return CalendarMath.toDate(firstEpochDay);
+    }
+
+    public Date getLastDate() {
+        return CalendarMath.toDate(lastEpochDay);
+    }
+
+    private int index(int epochDay) throws ScriptException {
+        if (epochDay < firstEpochDay || epochDay > lastEpochDay) {
+            throw new ScriptException("Date " + CalendarMath.toDate(epochDay) + " is outside the business calendar.");
+        }
+        return epochDay - firstEpochDay;
+    }
+
+    private static int toEpochDay(Date date) throws ScriptException {
+        if (date == null) {
+            throw new ScriptException("Null date passed to BusinessCalendar.");
+        }
+        return CalendarMath.epochDay(date);
+    }
+}
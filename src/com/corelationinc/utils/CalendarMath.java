@@ -0,0 +1,181 @@
+package com.corelationinc.utils;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.TimeZone;
+
+/**
+ * Closed-form proleptic Gregorian calendar arithmetic on primitive ints.
+ * Dates are epoch days (days since 1970-01-01, the same scale as
+ * ScriptDateUtils.toEpochDay) or packed YYYYMMDD ints; nothing here allocates
+ * or loops over days or months. Packed dates assume years 0001-9999, the DB2
+ * date range.
+ *
+ * @author stosti
+ */
+public final class CalendarMath {
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    /**
+     * 1582-10-15T00:00Z. java.util.Date uses the Julian calendar before this.
+     */
+    private static final long GREGORIAN_CUTOVER_MILLIS = -12219292800000L;
+
+    /**
+     * Days from 0000-03-01 to 1970-01-01.
+     */
+    private static final int EPOCH_OFFSET = 719468;
+
+    private CalendarMath() {
+    }
+
+    /**
+     * Returns the epoch day of the given date in the default time zone, the
+     * same day java.sql.Date.toLocalDate() would give.
+     *
+     * @param date
+     * @return
+     */
+    public static int epochDay(java.util.Date date) {
+        long millis = date.getTime();
+        if (millis < GREGORIAN_CUTOVER_MILLIS + MILLIS_PER_DAY) {
+            return (int) new Date(millis).toLocalDate().toEpochDay();
+        }
+        return (int) Math.floorDiv(millis + TimeZone.getDefault().getOffset(millis), MILLIS_PER_DAY);
+    }
+
+    /**
+     * Returns the java.sql.Date for the given epoch day.
+     *
+     * @param epochDay
+     * @return
+     */
+    public static Date toDate(int epochDay) {
+        return Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+
+    /**
+     * Returns the epoch day of the given year, month (1-12) and day of month.
+     *
+     * @param year
+     * @param month
+     * @param day
+     * @return
+     */
+    public static int epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - EPOCH_OFFSET;
+    }
+
+    /**
+     * Returns the given epoch day as a packed YYYYMMDD int.
+     *
+     * @param epochDay
+     * @return
+     */
+    public static int toYearMonthDay(int epochDay) {
+        int z = epochDay + EPOCH_OFFSET;
+        int era = Math.floorDiv(z, 146097);
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+    public static int getYear(int epochDay) {
+        return toYearMonthDay(epochDay) / 10000;
+    }
+
+    public static int getMonth(int epochDay) {
+        return toYearMonthDay(epochDay) / 100 % 100;
+    }
+
+    public static int getDayOfMonth(int epochDay) {
+        return toYearMonthDay(epochDay) % 100;
+    }
+
+    public static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    /**
+     * Returns the number of days in the given month (1-12) of the given year.
+     *
+     * @param year
+     * @param month
+     * @return
+     */
+    public static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return isLeapYear(year) ? 29 : 28;
+        }
+        return 30 + ((month + (month >> 3)) & 1);
+    }
+
+    /**
+     * Returns the first day of the month containing the given epoch day.
+     *
+     * @param epochDay
+     * @return
+     */
+    public static int monthStart(int epochDay) {
+        return epochDay - getDayOfMonth(epochDay) + 1;
+    }
+
+    /**
+     * Returns the last day of the month containing the given epoch day.
+     *
+     * @param epochDay
+     * @return
+     */
+    public static int monthEnd(int epochDay) {
+        int ymd = toYearMonthDay(epochDay);
+        return epochDay - ymd % 100 + daysInMonth(ymd / 10000, ymd / 100 % 100);
+    }
+
+    /**
+     * Adds a (possibly negative) number of months, clamping the day of month
+     * to the end of the target month the way Calendar.add(MONTH) does.
+     *
+     * @param epochDay
+     * @param months
+     * @return
+     */
+    public static int addMonths(int epochDay, int months) {
+        int ymd = toYearMonthDay(epochDay);
+        int monthIndex = (ymd / 10000) * 12 + (ymd / 100 % 100 - 1) + months;
+        int year = Math.floorDiv(monthIndex, 12);
+        int month = monthIndex - year * 12 + 1;
+        return epochDay(year, month, Math.min(ymd % 100, daysInMonth(year, month)));
+    }
+
+    /**
+     * Returns the number of whole months from the earlier to the later of the
+     * two epoch days: the largest n for which addMonths(earlier, n) is not
+     * after the later day.
+     *
+     * @param startEpochDay
+     * @param endEpochDay
+     * @return
+     */
+    public static int monthsBetween(int startEpochDay, int endEpochDay) {
+        int start = Math.min(startEpochDay, endEpochDay);
+        int end = Math.max(startEpochDay, endEpochDay);
+        int startYmd = toYearMonthDay(start);
+        int endYmd = toYearMonthDay(end);
+        int months = (endYmd / 10000 - startYmd / 10000) * 12 + (endYmd / 100 % 100 - startYmd / 100 % 100);
+        if (months > 0 && addMonths(start, months) > end) {
+            months--;
+        }
+        return months;
+    }
+}
@@ -0,0 +1,214 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.ScriptException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.TextStyle;
+import java.util.Locale;
+
+/**
+ * Immutable snapshot of CORE.ENV for a single run. The posting date does not
+ * change while a script runs, so it is read once and every date derived from
+ * it (month, quarter and year boundaries, previous month end, etc.) is
+ * computed up front. Pass the snapshot to the ScriptDateUtils,
+ * ScriptShareUtils and ScriptPersonUtils overloads that accept one instead of
+ * re-querying CORE.ENV.
+ * <br></br>
+ * MultiThreadScript.getEnvironment() returns the snapshot for the current
+ * run.
+ *
+ * @author stosti
+ */
+public final class EnvironmentSnapshot {
+
+    private final LocalDate postingDate;
+    private final int postingEpochDay;
+
+    private final Date postingSqlDate;
+    private final Date yesterday;
+    private final Date tomorrow;
+    private final Date monthStart;
+    private final Date monthEnd;
+    private final Date monthStartPreviousMonth;
+    private final Date monthEndPreviousMonth;
+    private final Date quarterStart;
+    private final Date quarterEnd;
+    private final Date yearStart;
+    private final Date yearEnd;
+    private final String letterDate;
+
+    private EnvironmentSnapshot(LocalDate postingDate) {
+        this.postingDate = postingDate;
+        this.postingEpochDay = (int) postingDate.toEpochDay();
+
+        LocalDate firstOfMonth = postingDate.withDayOfMonth(1);
+        LocalDate firstOfQuarter = firstOfMonth.withMonth((postingDate.getMonthValue() - 1) / 3 * 3 + 1);
+
+        this.postingSqlDate = Date.valueOf(postingDate);
+        this.yesterday = Date.valueOf(postingDate.minusDays(1));
+        this.tomorrow = Date.valueOf(postingDate.plusDays(1));
+        this.monthStart = Date.valueOf(firstOfMonth);
+        this.monthEnd = Date.valueOf(firstOfMonth.plusMonths(1).minusDays(1));
+        this.monthStartPreviousMonth = Date.valueOf(firstOfMonth.minusMonths(1));
+        this.monthEndPreviousMonth = Date.valueOf(firstOfMonth.minusDays(1));
+        this.quarterStart = Date.valueOf(firstOfQuarter);
+        this.quarterEnd = Date.valueOf(firstOfQuarter.plusMonths(3).minusDays(1));
+        this.yearStart = Date.valueOf(postingDate.withDayOfYear(1));
+        this.yearEnd = Date.valueOf(postingDate.withDayOfYear(1).plusYears(1).minusDays(1));
+        this.letterDate = postingDate.getMonth().getDisplayName(TextStyle.FULL, Locale.US)
+                + " " + postingDate.getDayOfMonth() + ", " + postingDate.getYear();
+    }
+
+    /**
+     * Reads ENV.POSTING_DATE and builds the snapshot.
+     *
+     * @param connection
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public static EnvironmentSnapshot load(Connection connection) throws SQLException, ScriptException {
+        if (connection == null) {
+            throw new ScriptException("Attempted to load environment snapshot from null connection.");
+        } else if (connection.isClosed()) {
+            throw new ScriptException("Attempted to load environment snapshot from closed connection.");
+        }
+
+        String sql = "SELECT"
+                + "     ENV.POSTING_DATE"
+                + " FROM"
+                + "     CORE.ENV AS ENV";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            ResultSet rset = stmt.executeQuery();
+            if (rset.next()) {
+                return of(rset.getDate(1));
+            } else {
+                throw new ScriptException("Unable to fetch current posting date from database.");
+            }
+        }
+    }
+
+    /**
+     * Builds the snapshot from an already known posting date.
+     *
+     * @param postingDate
+     * @return
+     * @throws ScriptException
+     */
+    public static EnvironmentSnapshot of(Date postingDate) throws ScriptException {
+        if (postingDate == null) {
+            throw new ScriptException("Cannot build environment snapshot from a null posting date.");
+        }
+        return new EnvironmentSnapshot(postingDate.toLocalDate());
+    }
+
+    /**
+     * ENV.POSTING_DATE. A new Date is returned on each call, since
+     * java.sql.Date is mutable.
+     *
+     * @return
+     */
+    public Date getPostingDate() {
+        return copy(postingSqlDate);
+    }
+
+    public LocalDate getPostingLocalDate() {
+        return postingDate;
+    }
+
+    /**
+     * ENV.POSTING_DATE as an epoch day (see ScriptDateUtils.toEpochDay).
+     *
+     * @return
+     */
+    public int getPostingEpochDay() {
+        return postingEpochDay;
+    }
+
+    /**
+     * ENV.POSTING_DATE - 1 DAY
+     *
+     * @return
+     */
+    public Date getYesterday() {
+        return copy(yesterday);
+    }
+
+    /**
+     * ENV.POSTING_DATE + 1 DAY
+     *
+     * @return
+     */
+    public Date getTomorrow() {
+        return copy(tomorrow);
+    }
+
+    /**
+     * ENV.POSTING_DATE - X DAYS
+     *
+     * @param days
+     * @return
+     */
+    public Date getPreviousDate(int days) {
+        return Date.valueOf(postingDate.minusDays(days));
+    }
+
+    public Date getMonthStart() {
+        return copy(monthStart);
+    }
+
+    public Date getMonthEnd() {
+        return copy(monthEnd);
+    }
+
+    public Date getMonthStartPreviousMonth() {
+        return copy(monthStartPreviousMonth);
+    }
+
+    /**
+     * LAST_DAY(ENV.POSTING_DATE - 1 MONTH)
+     *
+     * @return
+     */
+    public Date getMonthEndPreviousMonth() {
+        return copy(monthEndPreviousMonth);
+    }
+
+    public Date getQuarterStart() {
+        return copy(quarterStart);
+    }
+
+    public Date getQuarterEnd() {
+        return copy(quarterEnd);
+    }
+
+    public Date getYearStart() {
+        return copy(yearStart);
+    }
+
+    public Date getYearEnd() {
+        return copy(yearEnd);
+    }
+
+    /**
+     * The posting date in letter format: "Month Day, Year".
+     *
+     * @return
+     */
+    public String getTodayLetterDate() {
+        return letterDate;
+    }
+
+    private static Date copy(Date date) {
+        return new Date(date.getTime());
+    }
+
+    @Override
+    public String toString() {
+        return "EnvironmentSnapshot[postingDate=" + postingDate + "]";
+    }
+}
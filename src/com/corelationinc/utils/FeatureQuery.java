@@ -0,0 +1,365 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.Money;
+import com.corelationinc.script.ScriptException;
+import com.corelationinc.script.Serial;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Declarative per-row features. A script registers named features as SQL
+ * fragments against a base table (e.g. CORE.SHARE AS SHARE); the fragments
+ * are assembled into a single query with one correlated sub-select per
+ * aggregate feature, and the query is run once per batch of keys (see
+ * KeySetQuery) instead of once per feature per row.
+ * <br></br>
+ * Column features are expressions over the base row. Sub-select features are
+ * full selects correlated to the base alias that return at most one row and
+ * one column, so they should be aggregates (COUNT, MIN, MAX, CASE WHEN
+ * EXISTS ...); no row reads as null. They are scalar sub-selects in the
+ * select list rather than LATERAL joins, which DB2 decorrelates the same way
+ * and which also run on databases without LATERAL. Boolean features are true
+ * when the value is non-zero.
+ * <br>Ex.</br>
+ *
+ * <br>FeatureQuery features = new FeatureQuery("CORE.SHARE", "SHARE",
+ * "SERIAL");</br>
+ * <br>Feature negative = features.addColumn("NEGATIVE", FeatureType.BOOLEAN,
+ * "CASE WHEN SHARE.BALANCE &lt; 0 THEN 1 ELSE 0 END");</br>
+ * <br>Feature chargedOffLoans = features.addSubselect("CHARGED_OFF_LOANS",
+ * FeatureType.BOOLEAN, "SELECT COUNT(*) FROM CORE.LOAN AS LOAN WHERE
+ * LOAN.PARENT_SERIAL = SHARE.PARENT_SERIAL AND LOAN.CHARGE_OFF_DATE IS NOT
+ * NULL");</br>
+ * <br>FeatureTable table = features.load(connection, shareSerials);</br>
+ * <br>boolean isNegative = table.get(shareSerial).getBoolean(negative);</br>
+ *
+ * @author stosti
+ */
+public class FeatureQuery {
+
+    public enum FeatureType {
+
+        BOOLEAN,
+        LONG,
+        MONEY,
+        DATE
+    }
+
+    /**
+     * Handle for a registered feature; pass it to the FeatureVector getters.
+     */
+    public static final class Feature {
+
+        private final String name;
+        private final FeatureType type;
+        private final int index;
+        private final String sql;
+        private final Object[] parameters;
+
+        private Feature(String name, FeatureType type, int index, String sql, Object[] parameters) {
+            this.name = name;
+            this.type = type;
+            this.index = index;
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public FeatureType getType() {
+            return type;
+        }
+    }
+
+    private final String baseTable;
+    private final String alias;
+    private final String keyColumn;
+    private final List<Feature> features = new ArrayList<>();
+    private String sql = null;
+
+    /**
+     * @param baseTable e.g. CORE.SHARE
+     * @param alias correlation name used by the fragments, e.g. SHARE
+     * @param keyColumn key column of the base table, e.g. SERIAL
+     */
+    public FeatureQuery(String baseTable, String alias, String keyColumn) {
+        this.baseTable = baseTable;
+        this.alias = alias;
+        this.keyColumn = keyColumn;
+    }
+
+    /**
+     * Registers a feature computed from the base row.
+     *
+     * @param name
+     * @param type
+     * @param expression SQL expression over the base alias
+     * @param parameters values for any parameter markers in the expression
+     * @return
+     * @throws ScriptException
+     */
+    public Feature addColumn(String name, FeatureType type, String expression, Object... parameters) throws ScriptException {
+        return add(name, type, expression, parameters);
+    }
+
+    /**
+     * Registers a feature computed by a correlated one-column select that
+     * returns at most one row.
+     *
+     * @param name
+     * @param type
+     * @param select full select correlated to the base alias
+     * @param parameters values for any parameter markers in the select
+     * @return
+     * @throws ScriptException
+     */
+    public Feature addSubselect(String name, FeatureType type, String select, Object... parameters) throws ScriptException {
+        return add(name, type, "(" + select + ")", parameters);
+    }
+
+    private synchronized Feature add(String name, FeatureType type, String fragment, Object[] parameters) throws ScriptException {
+        if (sql != null) {
+            throw new ScriptException("Feature " + name + " registered after the feature query was built.");
+        }
+        if (name == null || !name.matches("[A-Z][A-Z0-9_]*")) {
+            throw new ScriptException("Invalid feature name: " + name);
+        }
+        for (Feature feature : features) {
+            if (feature.name.equals(name)) {
+                throw new ScriptException("Feature " + name + " is already registered.");
+            }
+        }
+        Feature feature = new Feature(name, type, features.size(), fragment, ParameterBinder.flatten(parameters));
+        features.add(feature);
+        return feature;
+    }
+
+    public List<Feature> getFeatures() {
+        return Collections.unmodifiableList(features);
+    }
+
+    /**
+     * Returns the assembled query, with ScriptUtils.IN_LIST_MARKER where the
+     * keys go. No features can be added once it is built.
+     *
+     * @return
+     */
+    public synchronized String getSQL() {
+        if (sql == null) {
+            StringBuilder select = new StringBuilder("SELECT ");
+            select.append(alias).append('.').append(keyColumn);
+            for (Feature feature : features) {
+                select.append(", ").append(feature.sql).append(" AS ").append(feature.name);
+            }
+            sql = select.append(" FROM ").append(baseTable).append(" AS ").append(alias)
+                    .append(" WHERE ").append(alias).append('.').append(keyColumn)
+                    .append(" IN (").append(ScriptUtils.IN_LIST_MARKER).append(")")
+                    .toString();
+        }
+        return sql;
+    }
+
+    /**
+     * Parameters in the order their markers appear in getSQL(), which is the
+     * order the features were registered in.
+     */
+    private Object[] getParameters() {
+        List<Object> parameters = new ArrayList<>();
+        for (Feature feature : features) {
+            parameters.addAll(Arrays.asList(feature.parameters));
+        }
+        return parameters.toArray();
+    }
+
+    /**
+     * Evaluates every feature for the given keys, one round-trip per chunk of
+     * keys. Keys with no base row are absent from the result.
+     *
+     * @param connection
+     * @param keys
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public FeatureTable load(Connection connection, long[] keys) throws SQLException, ScriptException {
+        if (features.isEmpty()) {
+            throw new ScriptException("No features registered with the feature query.");
+        }
+        FeatureTable table = new FeatureTable(features.size(), keys.length);
+        new KeySetQuery(getSQL(), getParameters()).run(connection, keys, rset -> table.read(rset, features));
+        return table;
+    }
+
+    public FeatureTable load(Connection connection, Collection<Serial> keys) throws SQLException, ScriptException {
+        return load(connection, ScriptUtils.toLongArray(keys));
+    }
+
+    /**
+     * Feature values for a set of keys, stored column-wise as longs (booleans
+     * as 0/1, money as cents, dates as epoch days).
+     */
+    public static final class FeatureTable {
+
+        private final LongIntHashMap rows;
+        private final long[][] values;
+        private final boolean[][] nulls;
+        private int size = 0;
+
+        private FeatureTable(int featureCount, int expectedSize) {
+            int capacity = Math.max(expectedSize, 16);
+            this.rows = new LongIntHashMap(expectedSize);
+            this.values = new long[featureCount][capacity];
+            this.nulls = new boolean[featureCount][capacity];
+        }
+
+        private void read(ResultSet rset, List<Feature> features) throws SQLException, ScriptException {
+            long key = rset.getLong(1);
+            if (rows.containsKey(key)) {
+                throw new ScriptException("Feature query returned more than one row for key " + key + ".");
+            }
+            if (size == values[0].length) {
+                for (int f = 0; f < values.length; f++) {
+                    values[f] = Arrays.copyOf(values[f], size << 1);
+                    nulls[f] = Arrays.copyOf(nulls[f], size << 1);
+                }
+            }
+            for (Feature feature : features) {
+                int column = feature.index + 2;
+                long value;
+                switch (feature.type) {
+                    case MONEY:
+                        BigDecimal amount = rset.getBigDecimal(column);
+                        value = amount == null ? 0L : amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+                        break;
+                    case DATE:
+                        Date date = rset.getDate(column);
+                        value = date == null ? 0L : CalendarMath.epochDay(date);
+                        break;
+                    case BOOLEAN:
+                        value = rset.getLong(column) != 0 ? 1L : 0L;
+                        break;
+                    default:
+                        value = rset.getLong(column);
+                        break;
+                }
+                values[feature.index][size] = value;
+                nulls[feature.index][size] = rset.wasNull();
+            }
+            rows.put(key, size++);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean contains(long key) {
+            return rows.containsKey(key);
+        }
+
+        /**
+         * Returns the features for the given key, or null if the key had no
+         * base row.
+         *
+         * @param key
+         * @return
+         */
+        public FeatureVector get(long key) {
+            int row = rows.getOrDefault(key, -1);
+            return row < 0 ? null : new FeatureVector(this, row);
+        }
+
+        public FeatureVector get(Serial key) {
+            return get(ScriptUtils.toLong(key));
+        }
+    }
+
+    /**
+     * The features of a single key.
+     */
+    public static final class FeatureVector {
+
+        private final FeatureTable table;
+        private final int row;
+
+        private FeatureVector(FeatureTable table, int row) {
+            this.table = table;
+            this.row = row;
+        }
+
+        public boolean isNull(Feature feature) {
+            return table.nulls[feature.index][row];
+        }
+
+        /**
+         * Returns the feature as a boolean; null is false.
+         *
+         * @param feature
+         * @return
+         * @throws ScriptException
+         */
+        public boolean getBoolean(Feature feature) throws ScriptException {
+            return value(feature, FeatureType.BOOLEAN) != 0;
+        }
+
+        public long getLong(Feature feature) throws ScriptException {
+            return value(feature, FeatureType.LONG);
+        }
+
+        public long getCents(Feature feature) throws ScriptException {
+            return value(feature, FeatureType.MONEY);
+        }
+
+        /**
+         * Returns the feature as Money, or null if it is null.
+         *
+         * @param feature
+         * @return
+         * @throws ScriptException
+         */
+        public Money getMoney(Feature feature) throws ScriptException {
+            long cents = value(feature, FeatureType.MONEY);
+            return isNull(feature) ? null : new Money(cents);
+        }
+
+        /**
+         * Returns the feature as an epoch day (see ScriptDateUtils.toEpochDay).
+         *
+         * @param feature
+         * @return
+         * @throws ScriptException
+         */
+        public int getEpochDay(Feature feature) throws ScriptException {
+            return (int) value(feature, FeatureType.DATE);
+        }
+
+        /**
+         * Returns the feature as a Date, or null if it is null.
+         *
+         * @param feature
+         * @return
+         * @throws ScriptException
+         */
+        public Date getDate(Feature feature) throws ScriptException {
+            long epochDay = value(feature, FeatureType.DATE);
+            return isNull(feature) ? null : CalendarMath.toDate((int) epochDay);
+        }
+
+        private long value(Feature feature, FeatureType type) throws ScriptException {
+            if (feature.type != type) {
+                throw new ScriptException("Feature " + feature.name + " is " + feature.type + ", not " + type + ".");
+            }
+            return table.values[feature.index][row];
+        }
+    }
+}
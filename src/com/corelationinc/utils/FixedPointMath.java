@@ -0,0 +1,239 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.Money;
+import com.corelationinc.script.Rate;
+import com.corelationinc.script.ScriptException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point arithmetic on primitive longs. Money is a long count of cents
+ * (Money.getPennies()) and a rate is an unscaled long plus a decimal scale
+ * (ScaledRate), so per-account loops can multiply and divide without building
+ * BigDecimals or Money objects. Results are rounded HALF_UP, exactly as
+ * BigDecimal.setScale(2, RoundingMode.HALF_UP) would round them.
+ * <br></br>
+ * If an intermediate product does not fit in a long, the operation is redone
+ * with BigDecimal, so results are always exact. A result outside the Money
+ * range raises a ScriptException.
+ *
+ * @author stosti
+ */
+public final class FixedPointMath {
+
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+        1000000000L, 10000000000L, 100000000000L, 1000000000000L, 10000000000000L,
+        100000000000000L, 1000000000000000L, 10000000000000000L, 100000000000000000L,
+        1000000000000000000L};
+
+    private FixedPointMath() {
+    }
+
+    /**
+     * A decimal value held as unscaled * 10^-scale.
+     */
+    public static final class ScaledRate {
+
+        private final long unscaled;
+        private final int scale;
+
+        private ScaledRate(long unscaled, int scale) {
+            this.unscaled = unscaled;
+            this.scale = scale;
+        }
+
+        /**
+         * Returns the given rate as a scaled long, or null if it has more than
+         * 18 digits.
+         *
+         * @param rate
+         * @return
+         */
+        public static ScaledRate of(Rate rate) {
+            return parse(rate.toKeyBridgeString());
+        }
+
+        /**
+         * Parses a plain decimal string ([-]digits[.digits]). Returns null if
+         * the string is not in that form or has more than 18 digits.
+         *
+         * @param value
+         * @return
+         */
+        public static ScaledRate parse(String value) {
+            int length = value.length();
+            int i = 0;
+            boolean negative = false;
+            if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+                negative = value.charAt(0) == '-';
+                i++;
+            }
+            long unscaled = 0;
+            int digits = 0;
+            int scale = -1;
+            for (; i < length; i++) {
+                char c = value.charAt(i);
+                if (c == '.' && scale < 0) {
+                    scale = 0;
+                    continue;
+                }
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                if (unscaled != 0 || c != '0') {
+                    if (++digits > 18) {
+                        return null;
+                    }
+                }
+                unscaled = unscaled * 10 + (c - '0');
+                if (scale >= 0) {
+                    scale++;
+                }
+            }
+            if (scale > 18) {
+                return null;
+            }
+            return new ScaledRate(negative ? -unscaled : unscaled, Math.max(scale, 0));
+        }
+
+        public long getUnscaled() {
+            return unscaled;
+        }
+
+        public int getScale() {
+            return scale;
+        }
+
+        public boolean isZero() {
+            return unscaled == 0;
+        }
+
+        BigDecimal toBigDecimal() {
+            return BigDecimal.valueOf(unscaled, scale);
+        }
+    }
+
+    /**
+     * Returns numerator / denominator rounded HALF_UP (ties away from zero).
+     *
+     * @param numerator
+     * @param denominator must not be 0
+     * @return
+     */
+    public static long divideHalfUp(long numerator, long denominator) {
+        long quotient = numerator / denominator;
+        long remainder = numerator % denominator;
+        if (remainder != 0) {
+            long absRemainder = Math.abs(remainder);
+            long absDenominator = Math.abs(denominator);
+            if (absDenominator < 0 || absRemainder >= absDenominator - absRemainder) {
+                quotient += (numerator ^ denominator) < 0 ? -1 : 1;
+            }
+        }
+        return quotient;
+    }
+
+    /**
+     * cents * rate, rounded HALF_UP to cents.
+     *
+     * @param cents
+     * @param rate
+     * @return
+     * @throws ScriptException if the result is outside the Money range
+     */
+    public static long multiply(long cents, ScaledRate rate) throws ScriptException {
+        try {
+            return checkRange(divideHalfUp(Math.multiplyExact(cents, rate.unscaled), POWERS_OF_TEN[rate.scale]));
+        } catch (ArithmeticException e) {
+            return exact(BigDecimal.valueOf(cents).multiply(rate.toBigDecimal()), 0);
+        }
+    }
+
+    /**
+     * cents / rate, rounded HALF_UP to cents.
+     *
+     * @param cents
+     * @param rate must not be zero
+     * @return
+     * @throws ScriptException if the result is outside the Money range
+     */
+    public static long divide(long cents, ScaledRate rate) throws ScriptException {
+        try {
+            return checkRange(divideHalfUp(Math.multiplyExact(cents, POWERS_OF_TEN[rate.scale]), rate.unscaled));
+        } catch (ArithmeticException e) {
+            return exact(BigDecimal.valueOf(cents).divide(rate.toBigDecimal(), 0, RoundingMode.HALF_UP), 0);
+        }
+    }
+
+    /**
+     * The product of two money amounts in cents, rounded HALF_UP to cents.
+     *
+     * @param cents
+     * @param multiplierCents
+     * @return
+     * @throws ScriptException if the result is outside the Money range
+     */
+    public static long multiplyCents(long cents, long multiplierCents) throws ScriptException {
+        try {
+            return checkRange(divideHalfUp(Math.multiplyExact(cents, multiplierCents), 100));
+        } catch (ArithmeticException e) {
+            return exact(BigDecimal.valueOf(cents).multiply(BigDecimal.valueOf(multiplierCents)), 2);
+        }
+    }
+
+    /**
+     * The ratio of two money amounts, in cents (i.e. with 2 decimals), rounded
+     * HALF_UP.
+     *
+     * @param cents
+     * @param divisorCents must not be 0
+     * @return
+     * @throws ScriptException if the result is outside the Money range
+     */
+    public static long divideCents(long cents, long divisorCents) throws ScriptException {
+        try {
+            return checkRange(divideHalfUp(Math.multiplyExact(cents, 100L), divisorCents));
+        } catch (ArithmeticException e) {
+            return exact(BigDecimal.valueOf(cents, -2).divide(BigDecimal.valueOf(divisorCents), 0, RoundingMode.HALF_UP), 0);
+        }
+    }
+
+    /**
+     * Sum of two amounts in cents.
+     *
+     * @param cents
+     * @param augendCents
+     * @return
+     * @throws ScriptException if the result is outside the Money range
+     */
+    public static long add(long cents, long augendCents) throws ScriptException {
+        return checkRange(cents + augendCents);
+    }
+
+    /**
+     * Returns a Money for the given cents, checking the Money range.
+     *
+     * @param cents
+     * @return
+     * @throws ScriptException
+     */
+    public static Money toMoney(long cents) throws ScriptException {
+        return new Money(checkRange(cents));
+    }
+
+    private static long exact(BigDecimal value, int movePointLeft) throws ScriptException {
+        BigDecimal cents = value.movePointLeft(movePointLeft).setScale(0, RoundingMode.HALF_UP);
+        if (cents.unscaledValue().bitLength() > 63) {
+            throw new ScriptException("Fixed point result " + cents + " is outside the Money range.");
+        }
+        return checkRange(cents.longValue());
+    }
+
+    private static long checkRange(long cents) throws ScriptException {
+        if (cents < Money.MIN_PENNIES_VALUE || cents > Money.MAX_PENNIES_VALUE) {
+            throw new ScriptException("Fixed point result " + cents + " is outside the Money range.");
+        }
+        return cents;
+    }
+}
@@ -0,0 +1,246 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.ScriptException;
+import com.corelationinc.script.Serial;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a query for an arbitrarily large set of long keys (usually serials)
+ * and passes every result row to a handler. The SQL template must contain
+ * ScriptUtils.IN_LIST_MARKER where the key list belongs, inside an IN
+ * predicate, and the key list must be the last set of parameters in the
+ * statement; leading parameters are bound before the keys.
+ * <br></br>
+ * Keys are sent as IN-lists. Every IN-list is padded (by repeating its last
+ * key) to one of a few fixed sizes, so the database sees at most
+ * CHUNK_SIZES.length distinct statement texts and can reuse the prepared
+ * statements.
+ * <br></br>
+ * Optionally, setTempTableThreshold() enables a temporary table path: above
+ * the threshold, keys are bulk-loaded into a declared global temporary table
+ * and the marker is replaced with a sub-select against it, so the query runs
+ * once. Each run declares its own uniquely named table and drops it when the
+ * query finishes, and the load does not change the connection's auto-commit
+ * mode; with auto-commit on, every executeBatch() of keys is committed. If
+ * the temporary table cannot be declared (e.g. no user temporary
+ * tablespace), IN-lists are used.
+ * <br>Ex.</br>
+ *
+ * <br>new KeySetQuery("SELECT PARENT_SERIAL FROM CORE.LOAN WHERE BALANCE &gt;
+ * ? AND PARENT_SERIAL IN ({IN})", minimumBalance)</br>
+ * <br> .run(connection, accountSerials, rset -&gt; ...);</br>
+ *
+ * @author stosti
+ */
+public class KeySetQuery {
+
+    /**
+     * IN-list sizes, smallest first. The largest is the chunk size.
+     */
+    public static final int[] CHUNK_SIZES = {1, 10, 50, 200, ScriptUtils.IN_LIST_CHUNK_SIZE};
+
+    /**
+     * The temporary table path is off unless a threshold is set.
+     */
+    public static final int DEFAULT_TEMP_TABLE_THRESHOLD = Integer.MAX_VALUE;
+
+    static final String TEMP_TABLE_PREFIX = "SESSION.KEY_SET_";
+
+    private static final int TEMP_TABLE_BATCH_SIZE = 1000;
+
+    private static final AtomicLong TEMP_TABLE_SEQUENCE = new AtomicLong();
+
+    private final String sqlTemplate;
+    private final ParameterBinder leadingParameters;
+    private int tempTableThreshold = DEFAULT_TEMP_TABLE_THRESHOLD;
+
+    /**
+     * @param sqlTemplate SQL containing ScriptUtils.IN_LIST_MARKER
+     * @param leadingParameters parameters bound before the keys
+     * @throws ScriptException
+     */
+    public KeySetQuery(String sqlTemplate, Object... leadingParameters) throws ScriptException {
+        if (sqlTemplate == null || !sqlTemplate.contains(ScriptUtils.IN_LIST_MARKER)) {
+            throw new ScriptException("SQL passed to KeySetQuery does not contain " + ScriptUtils.IN_LIST_MARKER + ".");
+        }
+        this.sqlTemplate = sqlTemplate;
+        this.leadingParameters = ParameterBinder.of(leadingParameters);
+    }
+
+    /**
+     * Sets the number of keys above which a temporary table is used instead
+     * of IN-lists, e.g. 20000. Integer.MAX_VALUE (the default) always uses
+     * IN-lists.
+     *
+     * @param tempTableThreshold
+     * @return this
+     */
+    public KeySetQuery setTempTableThreshold(int tempTableThreshold) {
+        this.tempTableThreshold = tempTableThreshold;
+        return this;
+    }
+
+    /**
+     * Runs the query for the given serials. Null serials and duplicates are
+     * dropped.
+     *
+     * @param connection
+     * @param keys
+     * @param handler
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public void run(Connection connection, Collection<Serial> keys, ScriptUtils.RowHandler handler) throws SQLException, ScriptException {
+        run(connection, ScriptUtils.toLongArray(keys), handler);
+    }
+
+    /**
+     * Runs the query for the given keys. Keys should be unique; sorted keys
+     * give the best index locality.
+     *
+     * @param connection
+     * @param keys
+     * @param handler
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public void run(Connection connection, long[] keys, ScriptUtils.RowHandler handler) throws SQLException, ScriptException {
+        if (connection == null) {
+            throw new ScriptException("Null connection passed to KeySetQuery.");
+        }
+        if (keys.length == 0) {
+            return;
+        }
+        if (keys.length > tempTableThreshold) {
+            String table = TEMP_TABLE_PREFIX + TEMP_TABLE_SEQUENCE.incrementAndGet();
+            if (declareTempTable(connection, table)) {
+                runAgainstTempTable(connection, table, keys, handler);
+                return;
+            }
+        }
+        runInChunks(connection, keys, handler);
+    }
+
+    /**
+     * Runs the query and collects the first column of every row.
+     *
+     * @param connection
+     * @param keys
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public LongHashSet selectSerialSet(Connection connection, long[] keys) throws SQLException, ScriptException {
+        LongHashSet result = new LongHashSet();
+        run(connection, keys, rset -> result.add(rset.getLong(1)));
+        return result;
+    }
+
+    private void runInChunks(Connection connection, long[] keys, ScriptUtils.RowHandler handler) throws SQLException, ScriptException {
+        Map<Integer, PreparedStatement> statements = new HashMap<>();
+        try {
+            int chunkSize = CHUNK_SIZES[CHUNK_SIZES.length - 1];
+            for (int start = 0; start < keys.length; start += chunkSize) {
+                int count = Math.min(chunkSize, keys.length - start);
+                int size = bucketSize(count);
+                PreparedStatement stmt = statements.get(size);
+                if (stmt == null) {
+                    stmt = connection.prepareStatement(sqlTemplate.replace(ScriptUtils.IN_LIST_MARKER, ScriptUtils.createInStatementVariables(size)));
+                    statements.put(size, stmt);
+                }
+                leadingParameters.bind(stmt);
+                int index = leadingParameters.size() + 1;
+                for (int i = 0; i < size; i++) {
+                    stmt.setLong(index++, keys[start + Math.min(i, count - 1)]);
+                }
+                try (ResultSet rset = stmt.executeQuery()) {
+                    while (rset.next()) {
+                        handler.handle(rset);
+                    }
+                }
+            }
+        } finally {
+            for (PreparedStatement stmt : statements.values()) {
+                stmt.close();
+            }
+        }
+    }
+
+    private static int bucketSize(int count) {
+        for (int size : CHUNK_SIZES) {
+            if (count <= size) {
+                return size;
+            }
+        }
+        return CHUNK_SIZES[CHUNK_SIZES.length - 1];
+    }
+
+    /**
+     * Declares the temporary table. Returns false if it could not be
+     * declared.
+     */
+    private static boolean declareTempTable(Connection connection, String table) {
+        String declare = "DECLARE GLOBAL TEMPORARY TABLE " + table + " ("
+                + "    KEY_VALUE BIGINT NOT NULL"
+                + " ) ON COMMIT PRESERVE ROWS NOT LOGGED WITH REPLACE";
+        try (PreparedStatement stmt = connection.prepareStatement(declare)) {
+            stmt.execute();
+        } catch (SQLException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Loads the keys into the declared table, runs the query against it and
+     * drops the table, whether or not the query succeeded.
+     */
+    private void runAgainstTempTable(Connection connection, String table, long[] keys, ScriptUtils.RowHandler handler) throws SQLException, ScriptException {
+        try {
+            try (PreparedStatement stmt = connection.prepareStatement("INSERT INTO " + table + " (KEY_VALUE) VALUES (?)")) {
+                int queued = 0;
+                for (long key : keys) {
+                    stmt.setLong(1, key);
+                    stmt.addBatch();
+                    if (++queued == TEMP_TABLE_BATCH_SIZE) {
+                        stmt.executeBatch();
+                        queued = 0;
+                    }
+                }
+                if (queued > 0) {
+                    stmt.executeBatch();
+                }
+            }
+            String sql = sqlTemplate.replace(ScriptUtils.IN_LIST_MARKER, "SELECT KEY_VALUE FROM " + table);
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                leadingParameters.bind(stmt);
+                try (ResultSet rset = stmt.executeQuery()) {
+                    while (rset.next()) {
+                        handler.handle(rset);
+                    }
+                }
+            }
+        } catch (SQLException | ScriptException | RuntimeException e) {
+            try {
+                dropTempTable(connection, table);
+            } catch (SQLException dropException) {
+                e.addSuppressed(dropException);
+            }
+            throw e;
+        }
+        dropTempTable(connection, table);
+    }
+
+    private static void dropTempTable(Connection connection, String table) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("DROP TABLE " + table)) {
+            stmt.execute();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.Serial;
+import java.util.Arrays;
+
+/**
+ * A map from primitive long keys to primitive int values, used for per-serial
+ * results where a Map&lt;Serial, Integer&gt; would box and allocate per entry.
+ * Open addressing with linear probing. Not thread-safe; build it on one
+ * thread, then it may be read from many.
+ *
+ * @author stosti
+ */
+public class LongIntHashMap {
+
+    private static final long EMPTY = 0L;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+    private boolean containsZero = false;
+    private int zeroValue = 0;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of entries the map should hold without
+     * resizing
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < 2L * expectedSize && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Associates the value with the key, replacing any previous value.
+     *
+     * @param key
+     * @param value
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            if (!containsZero) {
+                containsZero = true;
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if (2 * size > keys.length) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        long current;
+        while ((current = keys[slot]) != EMPTY) {
+            if (current == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public boolean containsKey(long key) {
+        return key == EMPTY ? containsZero : indexOf(key) >= 0;
+    }
+
+    /**
+     * Returns the value for the key, or defaultValue if the key is absent.
+     *
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public int getOrDefault(long key, int defaultValue) {
+        if (key == EMPTY) {
+            return containsZero ? zeroValue : defaultValue;
+        }
+        int slot = indexOf(key);
+        return slot >= 0 ? values[slot] : defaultValue;
+    }
+
+    /**
+     * Returns the value for the Serial, or defaultValue if it is absent.
+     *
+     * @param serial
+     * @param defaultValue
+     * @return
+     */
+    public int getOrDefault(Serial serial, int defaultValue) {
+        return getOrDefault(ScriptUtils.toLong(serial), defaultValue);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the keys in ascending order.
+     *
+     * @return
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int i = 0;
+        if (containsZero) {
+            result[i++] = EMPTY;
+        }
+        for (long key : keys) {
+            if (key != EMPTY) {
+                result[i++] = key;
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[newCapacity];
+        values = new int[newCapacity];
+        int mask = newCapacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.Money;
+import com.corelationinc.script.ScriptException;
+import com.corelationinc.script.Serial;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * A column of money amounts held as a long[] of cents with a null bitmap, and
+ * optionally a parallel column of long group keys (usually serials). Use it
+ * to total balances, deposits or fees over many rows without a Money object
+ * per row.
+ * <br></br>
+ * Entries must be within the Money range, so each is at most 2^53 in
+ * magnitude. Null entries hold 0 cents, so sum() needs no null checks; the
+ * other aggregates skip nulls. Aggregates are plain loops over primitive
+ * arrays and take a branch-free path when the column has no nulls, which is
+ * what the JIT needs to unroll and vectorize them. Sums add blocks of
+ * SUM_BLOCK entries with plain +=, which cannot overflow, and check for
+ * overflow only between blocks. Not thread-safe while it is being filled;
+ * once filled it may be read from many threads.
+ * <br>Ex.</br>
+ *
+ * <br>MoneyColumn balances = MoneyColumn.load(connection, "SELECT
+ * SHARE.PARENT_SERIAL, SHARE.BALANCE FROM CORE.SHARE WHERE ...");</br>
+ * <br>MoneyColumn perAccount = balances.groupedSums();</br>
+ *
+ * @author stosti
+ */
+public class MoneyColumn {
+
+    /**
+     * 512 entries of at most 2^53 each sum to at most 2^62, so a block total
+     * always fits in a long.
+     */
+    static final int SUM_BLOCK = 512;
+
+    private long[] cents;
+    private long[] keys;
+    private long[] nullBits;
+    private int size = 0;
+    private int nullCount = 0;
+    private volatile LongIntHashMap keyIndex;
+
+    /**
+     * @param keyed true if every entry carries a group key
+     * @param expectedSize
+     */
+    public MoneyColumn(boolean keyed, int expectedSize) {
+        int capacity = Math.max(expectedSize, 16);
+        this.cents = new long[capacity];
+        this.keys = keyed ? new long[capacity] : null;
+        this.nullBits = new long[(capacity + 63) >>> 6];
+    }
+
+    public MoneyColumn() {
+        this(false, 16);
+    }
+
+    /**
+     * Loads a column from a query. With one column, the column is the amount;
+     * with two or more, the first is the group key (a serial) and the second
+     * is the amount.
+     *
+     * @param connection
+     * @param sql
+     * @param parameters
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public static MoneyColumn load(Connection connection, String sql, Object... parameters) throws SQLException, ScriptException {
+        if (connection == null) {
+            throw new ScriptException("Null connection passed to MoneyColumn.load.");
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            ParameterBinder.bind(stmt, parameters);
+            stmt.setFetchSize(SQLSingleRun.DEFAULT_STREAM_BATCH_SIZE);
+            try (ResultSet rset = stmt.executeQuery()) {
+                boolean keyed = rset.getMetaData().getColumnCount() > 1;
+                int amountColumn = keyed ? 2 : 1;
+                MoneyColumn column = new MoneyColumn(keyed, 1024);
+                while (rset.next()) {
+                    long key = keyed ? rset.getLong(1) : 0L;
+                    BigDecimal amount = rset.getBigDecimal(amountColumn);
+                    if (amount == null) {
+                        column.addNullEntry(key);
+                    } else {
+                        column.addEntry(key, toCents(amount));
+                    }
+                }
+                return column;
+            }
+        }
+    }
+
+    /**
+     * Builds a column from the remaining rows of an SQLSingleRun.
+     *
+     * @param run
+     * @param keyLabel label of the group key column, or null for an unkeyed
+     * column
+     * @param amountLabel label of the money column
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public static MoneyColumn from(SQLSingleRun run, String keyLabel, String amountLabel) throws SQLException, ScriptException {
+        boolean keyed = keyLabel != null;
+        MoneyColumn column = new MoneyColumn(keyed, 1024);
+        int amountIndex = -1;
+        int keyColumnIndex = -1;
+        while (run.next()) {
+            if (amountIndex < 0) {
+                amountIndex = run.getColumnIndex(amountLabel);
+                keyColumnIndex = keyed ? run.getColumnIndex(keyLabel) : 0;
+            }
+            long key = keyed ? run.getLong(keyColumnIndex) : 0L;
+            if (run.isNull(amountIndex)) {
+                column.addNullEntry(key);
+            } else {
+                column.addEntry(key, run.getMoney(amountIndex).getPennies());
+            }
+        }
+        return column;
+    }
+
+    private static long toCents(BigDecimal amount) throws ScriptException {
+        BigDecimal scaled = amount.scale() == 2 ? amount : amount.setScale(2, RoundingMode.HALF_UP);
+        if (scaled.unscaledValue().bitLength() > 63) {
+            throw new ScriptException("Amount " + amount + " is outside the Money range.");
+        }
+        return checkRange(scaled.unscaledValue().longValue());
+    }
+
+    private static long checkRange(long cents) throws ScriptException {
+        if (cents < Money.MIN_PENNIES_VALUE || cents > Money.MAX_PENNIES_VALUE) {
+            throw new ScriptException("Amount of " + cents + " cents is outside the Money range.");
+        }
+        return cents;
+    }
+
+    public void add(long cents) throws ScriptException {
+        checkKeyed(false);
+        addEntry(0L, checkRange(cents));
+    }
+
+    public void add(Money amount) throws ScriptException {
+        checkKeyed(false);
+        if (amount == null) {
+            addNullEntry(0L);
+        } else {
+            addEntry(0L, amount.getPennies());
+        }
+    }
+
+    public void add(long key, long cents) throws ScriptException {
+        checkKeyed(true);
+        addEntry(key, checkRange(cents));
+    }
+
+    public void add(Serial key, Money amount) throws ScriptException {
+        checkKeyed(true);
+        if (amount == null) {
+            addNullEntry(ScriptUtils.toLong(key));
+        } else {
+            addEntry(ScriptUtils.toLong(key), amount.getPennies());
+        }
+    }
+
+    public void addNull() throws ScriptException {
+        checkKeyed(false);
+        addNullEntry(0L);
+    }
+
+    private void checkKeyed(boolean withKey) throws ScriptException {
+        if (withKey != (keys != null)) {
+            throw new ScriptException(withKey ? "Group key passed to an unkeyed MoneyColumn." : "Missing group key for a keyed MoneyColumn.");
+        }
+    }
+
+    private void addEntry(long key, long value) {
+        if (size == cents.length) {
+            grow();
+        }
+        cents[size] = value;
+        if (keys != null) {
+            keys[size] = key;
+        }
+        size++;
+        keyIndex = null;
+    }
+
+    private void addNullEntry(long key) {
+        addEntry(key, 0L);
+        nullBits[(size - 1) >>> 6] |= 1L << (size - 1);
+        nullCount++;
+    }
+
+    private void grow() {
+        int capacity = cents.length << 1;
+        cents = Arrays.copyOf(cents, capacity);
+        if (keys != null) {
+            keys = Arrays.copyOf(keys, capacity);
+        }
+        nullBits = Arrays.copyOf(nullBits, (capacity + 63) >>> 6);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getNullCount() {
+        return nullCount;
+    }
+
+    public boolean isKeyed() {
+        return keys != null;
+    }
+
+    public boolean isNull(int index) {
+        return (nullBits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public long getCents(int index) {
+        return cents[index];
+    }
+
+    public long getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Returns the amount at the given index, or null for a null entry.
+     *
+     * @param index
+     * @return
+     */
+    public Money getMoney(int index) {
+        return isNull(index) ? null : new Money(cents[index]);
+    }
+
+    /**
+     * Sum of all non-null amounts, in cents.
+     *
+     * @return
+     * @throws ScriptException if the sum overflows a long
+     */
+    public long sum() throws ScriptException {
+        long[] values = cents;
+        long total = 0;
+        try {
+            for (int start = 0; start < size; start += SUM_BLOCK) {
+                int end = Math.min(size, start + SUM_BLOCK);
+                long block = 0;
+                for (int i = start; i < end; i++) {
+                    block += values[i];
+                }
+                total = Math.addExact(total, block);
+            }
+        } catch (ArithmeticException e) {
+            throw new ScriptException("Sum of MoneyColumn overflows a long.", e);
+        }
+        return total;
+    }
+
+    public Money getSum() throws ScriptException {
+        return FixedPointMath.toMoney(sum());
+    }
+
+    /**
+     * Smallest non-null amount in cents, or Long.MAX_VALUE if there is none.
+     *
+     * @return
+     */
+    public long min() {
+        long[] values = cents;
+        long min = Long.MAX_VALUE;
+        if (nullCount == 0) {
+            for (int i = 0; i < size; i++) {
+                min = Math.min(min, values[i]);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (!isNull(i)) {
+                    min = Math.min(min, values[i]);
+                }
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Largest non-null amount in cents, or Long.MIN_VALUE if there is none.
+     *
+     * @return
+     */
+    public long max() {
+        long[] values = cents;
+        long max = Long.MIN_VALUE;
+        if (nullCount == 0) {
+            for (int i = 0; i < size; i++) {
+                max = Math.max(max, values[i]);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (!isNull(i)) {
+                    max = Math.max(max, values[i]);
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Number of non-null amounts strictly below the threshold.
+     *
+     * @param thresholdCents
+     * @return
+     */
+    public int countBelow(long thresholdCents) {
+        long[] values = cents;
+        int count = 0;
+        if (nullCount == 0) {
+            for (int i = 0; i < size; i++) {
+                count += values[i] < thresholdCents ? 1 : 0;
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                count += values[i] < thresholdCents && !isNull(i) ? 1 : 0;
+            }
+        }
+        return count;
+    }
+
+    public int countBelow(Money threshold) {
+        return countBelow(threshold.getPennies());
+    }
+
+    /**
+     * Counts non-null amounts per bucket. With n ascending bounds there are
+     * n + 1 buckets: bucket 0 holds amounts below bounds[0], bucket i holds
+     * amounts from bounds[i - 1] up to (not including) bounds[i], and bucket n
+     * holds amounts at or above bounds[n - 1].
+     *
+     * @param boundsCents ascending bucket bounds in cents
+     * @return
+     */
+    public int[] histogram(long... boundsCents) {
+        int[] counts = new int[boundsCents.length + 1];
+        long[] values = cents;
+        for (int i = 0; i < size; i++) {
+            if (nullCount != 0 && isNull(i)) {
+                continue;
+            }
+            int bucket = Arrays.binarySearch(boundsCents, values[i]);
+            counts[bucket >= 0 ? bucket + 1 : -bucket - 1]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Sums the amounts per group key. The result is a keyed column with one
+     * entry per distinct key, in first-seen order; a key whose amounts are
+     * all null has a null entry.
+     *
+     * @return
+     * @throws ScriptException
+     */
+    public MoneyColumn groupedSums() throws ScriptException {
+        checkKeyed(true);
+        LongIntHashMap slots = new LongIntHashMap(Math.min(size, 1 << 20));
+        MoneyColumn result = new MoneyColumn(true, 16);
+        boolean[] hasValue = new boolean[16];
+        // Per-block partial sums, folded into result with addExact once per
+        // touched slot at the end of each block.
+        long[] partial = new long[16];
+        int[] touched = new int[SUM_BLOCK];
+        for (int start = 0; start < size; start += SUM_BLOCK) {
+            int end = Math.min(size, start + SUM_BLOCK);
+            int touchedCount = 0;
+            for (int i = start; i < end; i++) {
+                long key = keys[i];
+                int slot = slots.getOrDefault(key, -1);
+                if (slot < 0) {
+                    slot = result.size;
+                    slots.put(key, slot);
+                    result.addEntry(key, 0L);
+                    if (slot == hasValue.length) {
+                        hasValue = Arrays.copyOf(hasValue, slot << 1);
+                        partial = Arrays.copyOf(partial, slot << 1);
+                    }
+                }
+                if (nullCount == 0 || !isNull(i)) {
+                    if (partial[slot] == 0) {
+                        touched[touchedCount++] = slot;
+                    }
+                    partial[slot] += cents[i];
+                    hasValue[slot] = true;
+                }
+            }
+            for (int t = 0; t < touchedCount; t++) {
+                int slot = touched[t];
+                try {
+                    result.cents[slot] = Math.addExact(result.cents[slot], partial[slot]);
+                } catch (ArithmeticException e) {
+                    throw new ScriptException("Sum for group key " + result.keys[slot] + " overflows a long.", e);
+                }
+                partial[slot] = 0;
+            }
+        }
+        for (int slot = 0; slot < result.size; slot++) {
+            if (!hasValue[slot]) {
+                result.nullBits[slot >>> 6] |= 1L << slot;
+                result.nullCount++;
+            }
+        }
+        result.keyIndex = slots;
+        return result;
+    }
+
+    /**
+     * Returns the amount for the given key in cents, or defaultCents if the
+     * key is absent or its entry is null. Intended for the keyed column
+     * returned by groupedSums(), where keys are unique; on other keyed columns
+     * the first entry for the key is used. Safe to call from many threads once
+     * the column is filled.
+     *
+     * @param key
+     * @param defaultCents
+     * @return
+     * @throws ScriptException
+     */
+    public long getCentsForKey(long key, long defaultCents) throws ScriptException {
+        checkKeyed(true);
+        LongIntHashMap index = keyIndex;
+        if (index == null) {
+            index = new LongIntHashMap(size);
+            for (int i = size - 1; i >= 0; i--) {
+                index.put(keys[i], i);
+            }
+            keyIndex = index;
+        }
+        int slot = index.getOrDefault(key, -1);
+        return slot < 0 || isNull(slot) ? defaultCents : cents[slot];
+    }
+
+    public long getCentsForKey(Serial key, long defaultCents) throws ScriptException {
+        return getCentsForKey(ScriptUtils.toLong(key), defaultCents);
+    }
+}
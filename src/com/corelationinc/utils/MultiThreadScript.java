@@ -2,7 +2,6 @@ package com.corelationinc.utils;
 
 import com.corelationinc.script.*;
 import java.io.PrintStream;
-import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
@@ -15,10 +14,17 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import javax.xml.stream.XMLStreamException;
 
 /**
@@ -43,8 +49,31 @@ public abstract class MultiThreadScript extends TaskManager {
     String delimeter = null;
 
     List<Object> parameters = new ArrayList<>();
+    private ParameterBinder parameterBinder = null;
 
     private Date postingDate = null;
+    private EnvironmentSnapshot environment = null;
+
+    private SQLResultCache resultCache = null;
+    private PredicateMemo predicateMemo = null;
+    private final LinkedHashMap<String, BatchLoader<?>> batchLoaders = new LinkedHashMap<>();
+    private static final int MAX_SHADOW_MISMATCH_LINES = 1000;
+    private int shadowSampleInterval = 0;
+    private long shadowTaskCount = 0;
+    private final LongAdder shadowCompared = new LongAdder();
+    private final LongAdder shadowMismatched = new LongAdder();
+    private final LongAdder shadowFailed = new LongAdder();
+    private final LongAdder shadowPrimaryNanos = new LongAdder();
+    private final LongAdder shadowNanos = new LongAdder();
+    private final AtomicInteger shadowMismatchLines = new AtomicInteger();
+    private final ConcurrentLinkedQueue<String> shadowMismatches = new ConcurrentLinkedQueue<>();
+
+    private int groupColumn = 0;
+    private String currentGroupKey = null;
+    private OrderedDataCollection pendingRow = null;
+    private String pendingGroupKey = null;
+    private boolean driverExhausted = false;
+    private final ReferenceDataRegistry referenceData = new ReferenceDataRegistry();
 
     /*
      * Establishes a single database connection.
@@ -57,10 +86,43 @@ public abstract class MultiThreadScript extends TaskManager {
         return connection;
     }
 
-    final protected Date getPostingDate() throws Exception {
-        return this.postingDate != null
-                ? this.postingDate
-                : Date.valueOf(this.script.retrievePostingDateString(this.getConnection()));
+    /**
+     * Returns the posting date. Read once and cached for the run.
+     *
+     * @return
+     * @throws Exception
+     */
+    final protected synchronized Date getPostingDate() throws Exception {
+        if (this.postingDate == null) {
+            this.postingDate = Date.valueOf(this.script.retrievePostingDateString(this.getConnection()));
+        }
+        return new Date(this.postingDate.getTime());
+    }
+
+    /**
+     * Returns the run's environment snapshot: the posting date and every date
+     * derived from it, read once and cached for the run. Call it from
+     * beforeTasks() so tasks never touch the manager connection.
+     *
+     * @return
+     * @throws Exception
+     */
+    final protected synchronized EnvironmentSnapshot getEnvironment() throws Exception {
+        if (this.environment == null) {
+            this.environment = EnvironmentSnapshot.of(getPostingDate());
+        }
+        return this.environment;
+    }
+
+    /**
+     * Returns the posting date as an epoch day (see
+     * ScriptDateUtils.toEpochDay).
+     *
+     * @return
+     * @throws Exception
+     */
+    final protected int getPostingEpochDay() throws Exception {
+        return getEnvironment().getPostingEpochDay();
     }
 
     protected MultiThreadScript(Script value) {
@@ -70,9 +132,164 @@ public abstract class MultiThreadScript extends TaskManager {
 
     @Override
     public void afterTasks() throws Exception {
+        if (resultCache != null) {
+            writeToTextReport("SQL Result Cache Summary", resultCache.getSummary());
+        }
+        if (predicateMemo != null) {
+            writeToTextReport("Predicate Memo Summary", predicateMemo.getSummary());
+        }
+        for (Entry<String, BatchLoader<?>> loader : batchLoaders.entrySet()) {
+            writeToTextReport("Batch Loader Summary", loader.getKey() + ": " + loader.getValue().getSummary());
+        }
+        if (shadowSampleInterval > 0) {
+            writeShadowReport();
+        }
         closeAllReports();
     }
 
+    /**
+     * Returns the run-scoped reference data registry. Preload tables from
+     * beforeTasks(); tasks may then read them without a connection.
+     *
+     * @return
+     */
+    final protected ReferenceDataRegistry getReferenceData() {
+        return referenceData;
+    }
+
+    /**
+     * Turns on the run-scoped SQL result cache. Call from beforeTasks(); the
+     * cache statistics are written to a text report when the run ends.
+     *
+     * @param maxEntries
+     * @param maxBytes
+     */
+    final protected void enableResultCache(int maxEntries, long maxBytes) {
+        resultCache = new SQLResultCache(maxEntries, maxBytes);
+    }
+
+    /**
+     * Returns the run-scoped SQL result cache, or null if it has not been
+     * enabled. Pass it to the SQLSingleRun cache constructor.
+     *
+     * @return
+     */
+    final protected SQLResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Turns on the run-scoped predicate memo. Call from beforeTasks(); the
+     * memo statistics are written to a text report when the run ends.
+     */
+    final protected void enablePredicateMemo() {
+        predicateMemo = new PredicateMemo();
+    }
+
+    /**
+     * Returns the run-scoped predicate memo, or null if it has not been
+     * enabled. Pass it to the memoized Script*Utils predicates; a null memo
+     * makes them query directly.
+     *
+     * @return
+     */
+    final protected PredicateMemo getPredicateMemo() {
+        return predicateMemo;
+    }
+
+    /**
+     * Registers a batch loader under the given name, so tasks can share it
+     * and its statistics are written to a text report when the run ends.
+     * The loader's caller thread count is set to the task thread count, so
+     * a script with a single task thread never waits for a batch window.
+     * Call from beforeTasks().
+     *
+     * @param <V>
+     * @param name
+     * @param loader
+     * @return the loader
+     * @throws ScriptException
+     */
+    final protected <V> BatchLoader<V> registerBatchLoader(String name, BatchLoader<V> loader) throws ScriptException {
+        if (name == null || loader == null) {
+            throw new ScriptException("Null batch loader passed to registerBatchLoader.");
+        }
+        if (batchLoaders.containsKey(name)) {
+            throw new ScriptException("Batch loader already registered: " + name);
+        }
+        int threads = this.script.getDefaultThreadQueueServerCount();
+        if (threads > 0) {
+            loader.setCallerThreadCount(threads);
+        }
+        batchLoaders.put(name, loader);
+        return loader;
+    }
+
+    /**
+     * Returns the batch loader registered under the given name.
+     *
+     * @param <V>
+     * @param name
+     * @return
+     * @throws ScriptException
+     */
+    @SuppressWarnings("unchecked")
+    final protected <V> BatchLoader<V> getBatchLoader(String name) throws ScriptException {
+        BatchLoader<?> loader = batchLoaders.get(name);
+        if (loader == null) {
+            throw new ScriptException("No batch loader registered: " + name);
+        }
+        return (BatchLoader<V>) loader;
+    }
+
+    /**
+     * Hands each task every consecutive driver row with the same value in the
+     * given column (1-based), e.g. PERSON.SERIAL, instead of a single row. The
+     * driver query must be ordered by that column. Person- or account-level
+     * facts can then be fetched once per group by one task, rather than once
+     * per row and possibly concurrently by several tasks. Call from
+     * beforeTasks().
+     * <br></br>
+     * Tasks read the first row of the group with the usual getters and move
+     * to the next row with nextGroupRow(). The task limit counts groups.
+     *
+     * @param columnIndex
+     */
+    final protected void groupTasksBy(int columnIndex) {
+        groupColumn = columnIndex;
+    }
+
+    /**
+     * Turns on shadow evaluation. Every sampleInterval-th task (1 for every
+     * task) is paired with a task from getShadowTask() that is handed the
+     * same driver row(s). The shadow task performs right after the primary
+     * task, in the same worker thread and on the same connection. Their
+     * getComparisonFields() are then diffed, and mismatches are written to
+     * the "Shadow Evaluation Mismatches" text report when the run ends. Only
+     * the primary task produces output, and both tasks must obtain their
+     * connection with getConnection(). Call from beforeTasks().
+     * <br></br>
+     * Use it to prove that an optimized perform() makes the same decisions as
+     * the implementation it replaces. The shadow task must not modify
+     * run-scoped state (counters, snapshots, statistics).
+     *
+     * @param sampleInterval
+     */
+    final protected void enableShadowMode(int sampleInterval) {
+        shadowSampleInterval = Math.max(0, sampleInterval);
+    }
+
+    /**
+     * Returns the task that shadows a sampled primary task. Override when
+     * using enableShadowMode(); returning null skips the row.
+     *
+     * @return
+     * @throws ScriptException
+     */
+    protected MultiThreadTask getShadowTask() throws ScriptException {
+        return null;
+    }
+
     final protected void limitTasks(int taskCount) {
         applyTaskLimit = true;
         taskLimit = taskCount;
@@ -323,13 +540,101 @@ public abstract class MultiThreadScript extends TaskManager {
             currentTaskLimit++;
         }
 
+        if (groupColumn > 0) {
+            return nextGroupTask();
+        }
         OrderedDataCollection data = getNextRow();
         if (data == null) {
             return null;
         }
         MultiThreadTask task = getTask();
         task.setDataCollection(data);
-        return task;
+        return withShadow(task);
+    }
+
+    private Task nextGroupTask() throws Exception {
+        OrderedDataCollection first = pendingRow;
+        String groupKey = pendingGroupKey;
+        pendingRow = null;
+        if (first == null) {
+            first = getNextRow();
+            if (first == null) {
+                return null;
+            }
+            groupKey = currentGroupKey;
+        }
+        List<OrderedDataCollection> group = new ArrayList<>();
+        group.add(first);
+        OrderedDataCollection next;
+        while ((next = getNextRow()) != null) {
+            if (Objects.equals(currentGroupKey, groupKey)) {
+                group.add(next);
+            } else {
+                pendingRow = next;
+                pendingGroupKey = currentGroupKey;
+                break;
+            }
+        }
+        MultiThreadTask task = getTask();
+        task.setGroup(groupKey, group);
+        return withShadow(task);
+    }
+
+    private Task withShadow(MultiThreadTask task) throws ScriptException {
+        if (shadowSampleInterval <= 0 || ++shadowTaskCount % shadowSampleInterval != 0) {
+            return task;
+        }
+        MultiThreadTask shadow = getShadowTask();
+        if (shadow == null) {
+            return task;
+        }
+        shadow.copyRows(task);
+        return new ShadowTask(task, shadow);
+    }
+
+    private void compareShadow(MultiThreadTask primary, MultiThreadTask shadow) throws Exception {
+        shadowCompared.increment();
+        StringBuilder diff = new StringBuilder();
+        if (primary.getOutputEnabled() != shadow.getOutputEnabled()) {
+            diff.append(" output=").append(primary.getOutputEnabled()).append('/').append(shadow.getOutputEnabled());
+        }
+        Map<String, Object> primaryFields = primary.getComparisonFields();
+        Map<String, Object> shadowFields = shadow.getComparisonFields();
+        LinkedHashSet<String> names = new LinkedHashSet<>(primaryFields.keySet());
+        names.addAll(shadowFields.keySet());
+        for (String name : names) {
+            String primaryValue = String.valueOf(primaryFields.get(name));
+            String shadowValue = String.valueOf(shadowFields.get(name));
+            if (!primaryValue.equals(shadowValue)) {
+                diff.append(' ').append(name).append('=').append(primaryValue).append('/').append(shadowValue);
+            }
+        }
+        if (diff.length() > 0) {
+            shadowMismatched.increment();
+            recordShadowMismatch(primary, diff.toString());
+        }
+    }
+
+    private void recordShadowMismatch(MultiThreadTask primary, String message) {
+        if (shadowMismatchLines.incrementAndGet() <= MAX_SHADOW_MISMATCH_LINES) {
+            shadowMismatches.add("[" + primary.describeRow() + "]" + message);
+        }
+    }
+
+    private void writeShadowReport() throws Exception {
+        long compared = shadowCompared.sum();
+        long mismatched = shadowMismatched.sum();
+        String primaryMillis = String.format("%.1f", shadowPrimaryNanos.sum() / 1e6);
+        String shadowMillis = String.format("%.1f", shadowNanos.sum() / 1e6);
+        writeToTextReport("Shadow Evaluation Mismatches", "Sampled 1 in " + shadowSampleInterval + " tasks: "
+                + compared + " compared, " + mismatched + " mismatched, " + shadowFailed.sum() + " shadow failures; "
+                + "primary " + primaryMillis + " ms, shadow " + shadowMillis + " ms (values shown primary/shadow)");
+        for (String line : shadowMismatches) {
+            writeToTextReport("Shadow Evaluation Mismatches", line);
+        }
+        if (shadowMismatchLines.get() > MAX_SHADOW_MISMATCH_LINES) {
+            writeToTextReport("Shadow Evaluation Mismatches", "... " + (shadowMismatchLines.get() - MAX_SHADOW_MISMATCH_LINES) + " more not shown");
+        }
     }
 
     private static boolean isCollection(Object ob) {
@@ -362,54 +667,19 @@ public abstract class MultiThreadScript extends TaskManager {
             }
         }
         parameters = parametersList;
+        parameterBinder = null;
     }
 
     protected final void setNextTaskParametersList(List objs) {
         parameters = objs;
+        parameterBinder = null;
     }
 
     private void setParameters(PreparedStatement stmt) throws SQLException, ScriptException {
-        int i = 1;
-        for (Object parameter : parameters) {
-
-            String className = parameter.getClass().getName();
-
-            switch (className) {
-                case "java.math.BigDecimal":
-                    stmt.setBigDecimal(i, (BigDecimal) parameter);
-                    break;
-                case "java.sql.Date":
-                    stmt.setDate(i, (Date) parameter);
-                    break;
-                case "java.util.Date":
-                    stmt.setDate(i, (Date) parameter);
-                    break;
-                case "java.sql.Timestamp":
-                    stmt.setTimestamp(i, (Timestamp) parameter);
-                    break;
-                case "java.lang.Integer":
-                    stmt.setInt(i, (Integer) parameter);
-                    break;
-                case "java.lang.String":
-                    stmt.setString(i, (String) parameter);
-                    break;
-                case "com.corelationinc.script.Serial":
-                    Serial serial = (Serial) parameter;
-                    serial.set(stmt, i);
-                    break;
-                case "com.corelationinc.script.Money":
-                    Money money = (Money) parameter;
-                    money.set(stmt, i);
-                    break;
-                case "com.corelationinc.script.Rate":
-                    Rate rate = (Rate) parameter;
-                    rate.set(stmt, i);
-                    break;
-                default:
-                    throw new ScriptException("Unsupported parameter type: " + className);
-            }
-            i++;
+        if (parameterBinder == null) {
+            parameterBinder = ParameterBinder.of(parameters);
         }
+        parameterBinder.bind(stmt);
     }
 
     protected abstract String getNextTaskSQL() throws ScriptException;
@@ -557,6 +827,9 @@ public abstract class MultiThreadScript extends TaskManager {
     }
 
     private OrderedDataCollection getNextRow() throws SQLException, ScriptException {
+        if (driverExhausted) {
+            return null;
+        }
         if (this.rset == null) {
             String sql = getNextTaskSQL();
             this.stmt = getConnection().prepareStatement(sql);
@@ -566,8 +839,12 @@ public abstract class MultiThreadScript extends TaskManager {
         if (!this.rset.next()) {
             this.rset.close();
             this.stmt.close();
+            driverExhausted = true;
             return null;
         }
+        if (groupColumn > 0) {
+            currentGroupKey = rset.getString(groupColumn);
+        }
 
         OrderedDataCollection coll = new OrderedDataCollection();
         DATA_TYPE[] dataTypes = getDataTypesCache(this.stmt);
@@ -614,7 +891,11 @@ public abstract class MultiThreadScript extends TaskManager {
 
         private MultiThreadScript manager = null;
         private OrderedDataCollection dataCollection = null;
+        private List<OrderedDataCollection> groupRows = null;
+        private int groupRowIndex = 0;
+        private String groupKey = null;
         private Connection taskConnection = null;
+        private MultiThreadTask host = null;
 
         List<PreparedStatement> statementList = new ArrayList<>();
 
@@ -626,6 +907,9 @@ public abstract class MultiThreadScript extends TaskManager {
          * @throws SQLException
          */
         protected Connection getConnection() throws SQLException {
+            if (host != null) {
+                return host.getConnection();
+            }
             if (taskConnection == null) {
                 taskConnection = this.getDatabaseConnection();
             }
@@ -652,6 +936,76 @@ public abstract class MultiThreadScript extends TaskManager {
             dataCollection = coll;
         }
 
+        private void setGroup(String key, List<OrderedDataCollection> rows) {
+            groupKey = key;
+            groupRows = rows;
+            groupRowIndex = 0;
+            dataCollection = rows.get(0);
+        }
+
+        private void copyRows(MultiThreadTask other) {
+            if (other.groupRows != null) {
+                List<OrderedDataCollection> rows = new ArrayList<>(other.groupRows.size());
+                for (OrderedDataCollection row : other.groupRows) {
+                    rows.add(row.copy());
+                }
+                setGroup(other.groupKey, rows);
+            } else {
+                dataCollection = other.dataCollection.copy();
+            }
+        }
+
+        private String describeRow() {
+            OrderedDataCollection first = groupRows == null ? dataCollection : groupRows.get(0);
+            return first == null ? "" : first.describe();
+        }
+
+        /**
+         * Returns the result fields compared in shadow mode, by name. Called
+         * after perform(); the output flag is always compared. Override in
+         * tasks used with enableShadowMode().
+         *
+         * @return
+         * @throws Exception
+         */
+        protected Map<String, Object> getComparisonFields() throws Exception {
+            return new LinkedHashMap<>();
+        }
+
+        /**
+         * Returns the number of driver rows handed to this task; 1 unless
+         * groupTasksBy() is in use.
+         *
+         * @return
+         */
+        protected int getGroupSize() {
+            return groupRows == null ? 1 : groupRows.size();
+        }
+
+        /**
+         * Returns the value of the grouping column for this task's rows, or
+         * null unless groupTasksBy() is in use.
+         *
+         * @return
+         */
+        protected String getGroupKey() {
+            return groupKey;
+        }
+
+        /**
+         * Moves the getters to the next driver row of the group. Returns false
+         * when there are no more rows.
+         *
+         * @return
+         */
+        protected boolean nextGroupRow() {
+            if (groupRows == null || groupRowIndex + 1 >= groupRows.size()) {
+                return false;
+            }
+            dataCollection = groupRows.get(++groupRowIndex);
+            return true;
+        }
+
         protected Date getDate() throws ScriptException {
             return getDataCollection().getDate();
         }
@@ -689,6 +1043,48 @@ public abstract class MultiThreadScript extends TaskManager {
         }
     }
 
+    /**
+     * Runs a sampled primary task and its shadow on the same driver row(s)
+     * and compares their results. Output comes from the primary task only.
+     */
+    private final class ShadowTask extends MultiThreadTask {
+
+        private final MultiThreadTask primary;
+        private final MultiThreadTask shadow;
+
+        private ShadowTask(MultiThreadTask primary, MultiThreadTask shadow) {
+            super(MultiThreadScript.this);
+            this.primary = primary;
+            this.shadow = shadow;
+            primary.host = this;
+            shadow.host = this;
+        }
+
+        @Override
+        public void perform() throws Exception {
+            long start = System.nanoTime();
+            primary.perform();
+            long primaryEnd = System.nanoTime();
+            shadowPrimaryNanos.add(primaryEnd - start);
+            setOutputEnabled(primary.getOutputEnabled());
+            try {
+                shadow.perform();
+            } catch (Exception e) {
+                shadowFailed.increment();
+                recordShadowMismatch(primary, " shadow failed: " + e);
+                return;
+            } finally {
+                shadowNanos.add(System.nanoTime() - primaryEnd);
+            }
+            compareShadow(primary, shadow);
+        }
+
+        @Override
+        public void output() throws Exception {
+            primary.output();
+        }
+    }
+
     protected class OrderedDataCollection {
 
         private final HashMap<Integer, DataElement> map;
@@ -699,6 +1095,37 @@ public abstract class MultiThreadScript extends TaskManager {
             map = new HashMap<>();
         }
 
+        private OrderedDataCollection(HashMap<Integer, DataElement> map) {
+            this.map = map;
+        }
+
+        /**
+         * Returns a collection over the same (immutable) elements, positioned
+         * at the first column.
+         */
+        private OrderedDataCollection copy() {
+            return new OrderedDataCollection(map);
+        }
+
+        private String describe() {
+            StringBuilder description = new StringBuilder();
+            for (int index = 1; index <= map.size(); index++) {
+                DataElement element = map.get(index);
+                if (index > 1) {
+                    description.append(", ");
+                }
+                if (element == null) {
+                    continue;
+                }
+                if (element.type == DATA_TYPE.DATE && !element.value.isEmpty()) {
+                    description.append(new Date(Long.parseLong(element.value)));
+                } else {
+                    description.append(element.value);
+                }
+            }
+            return description.toString();
+        }
+
         protected int getCurrentIndex() {
             return iteratorIndex;
         }
@@ -0,0 +1,240 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.Money;
+import com.corelationinc.script.Rate;
+import com.corelationinc.script.ScriptException;
+import com.corelationinc.script.Serial;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binds script parameter values to a PreparedStatement. Shared by
+ * MultiThreadScript, SQLSingleRun and SQLBatchRun.
+ * <br></br>
+ * The setter used for a parameter is resolved once per class and cached, so
+ * binding does not compare class names on every call. Subclasses of a
+ * supported type are bound as that type. Collections and Object arrays are
+ * expanded in place, in order.
+ * <br></br>
+ * A binder compiled with of() holds the flattened parameter list and the
+ * resolved setters, and can be bound to any number of statements of the same
+ * shape.
+ * <br></br>
+ * <p>
+ * Supported parameter types:</p>
+ * <br>java.math.BigDecimal</br>
+ * <br>java.sql.Date</br>
+ * <br>java.util.Date (bound as a java.sql.Date)</br>
+ * <br>java.sql.Timestamp</br>
+ * <br>java.lang.Integer</br>
+ * <br>java.lang.Long</br>
+ * <br>java.lang.String</br>
+ * <br>com.corelationinc.script.Serial</br>
+ * <br>com.corelationinc.script.Money</br>
+ * <br>com.corelationinc.script.Rate</br>
+ *
+ * @author stosti
+ */
+public final class ParameterBinder {
+
+    private interface Setter {
+
+        void set(PreparedStatement stmt, int index, Object value) throws SQLException, ScriptException;
+    }
+
+    private static final Setter BIG_DECIMAL = (stmt, index, value) -> stmt.setBigDecimal(index, (BigDecimal) value);
+    private static final Setter TIMESTAMP = (stmt, index, value) -> stmt.setTimestamp(index, (Timestamp) value);
+    private static final Setter SQL_DATE = (stmt, index, value) -> stmt.setDate(index, (Date) value);
+    private static final Setter UTIL_DATE = (stmt, index, value) -> stmt.setDate(index, new Date(((java.util.Date) value).getTime()));
+    private static final Setter INTEGER = (stmt, index, value) -> stmt.setInt(index, (Integer) value);
+    private static final Setter LONG = (stmt, index, value) -> stmt.setLong(index, (Long) value);
+    private static final Setter STRING = (stmt, index, value) -> stmt.setString(index, (String) value);
+    private static final Setter SERIAL = (stmt, index, value) -> ((Serial) value).set(stmt, index);
+    private static final Setter MONEY = (stmt, index, value) -> ((Money) value).set(stmt, index);
+    private static final Setter RATE = (stmt, index, value) -> ((Rate) value).set(stmt, index);
+    private static final Setter UNSUPPORTED = (stmt, index, value) -> {
+        throw new ScriptException("Unsupported parameter type: " + value.getClass().getName());
+    };
+
+    private static final ClassValue<Setter> SETTERS = new ClassValue<Setter>() {
+        @Override
+        protected Setter computeValue(Class<?> type) {
+            return resolveSetter(type);
+        }
+    };
+
+    /**
+     * Most specific types first; Timestamp and java.sql.Date both extend
+     * java.util.Date.
+     */
+    private static Setter resolveSetter(Class<?> type) {
+        if (Serial.class.isAssignableFrom(type)) {
+            return SERIAL;
+        } else if (Money.class.isAssignableFrom(type)) {
+            return MONEY;
+        } else if (Rate.class.isAssignableFrom(type)) {
+            return RATE;
+        } else if (String.class == type) {
+            return STRING;
+        } else if (Integer.class == type) {
+            return INTEGER;
+        } else if (Long.class == type) {
+            return LONG;
+        } else if (BigDecimal.class.isAssignableFrom(type)) {
+            return BIG_DECIMAL;
+        } else if (Timestamp.class.isAssignableFrom(type)) {
+            return TIMESTAMP;
+        } else if (Date.class.isAssignableFrom(type)) {
+            return SQL_DATE;
+        } else if (java.util.Date.class.isAssignableFrom(type)) {
+            return UTIL_DATE;
+        }
+        return UNSUPPORTED;
+    }
+
+    private final Object[] values;
+    private final Setter[] setters;
+
+    private ParameterBinder(Object[] values, Setter[] setters) {
+        this.values = values;
+        this.setters = setters;
+    }
+
+    /**
+     * Flattens the given parameters and resolves a setter for each value.
+     *
+     * @param parameters
+     * @return
+     * @throws ScriptException if a parameter is null or of an unsupported type
+     */
+    public static ParameterBinder of(Object... parameters) throws ScriptException {
+        Object[] values = flatten(parameters);
+        Setter[] setters = new Setter[values.length];
+        for (int i = 0; i < values.length; i++) {
+            setters[i] = getSetter(values[i], i + 1);
+            if (setters[i] == UNSUPPORTED) {
+                throw new ScriptException("Unsupported parameter type: " + values[i].getClass().getName());
+            }
+        }
+        return new ParameterBinder(values, setters);
+    }
+
+    /**
+     * Binds the compiled parameters to the statement, starting at the first
+     * parameter marker.
+     *
+     * @param stmt
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public void bind(PreparedStatement stmt) throws SQLException, ScriptException {
+        for (int i = 0; i < values.length; i++) {
+            setters[i].set(stmt, i + 1, values[i]);
+        }
+    }
+
+    /**
+     * Returns the flattened parameter values, in binding order.
+     */
+    Object[] values() {
+        return values;
+    }
+
+    /**
+     * Returns the number of parameter markers this binder fills.
+     *
+     * @return
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Binds the given parameters to the statement, in order, starting at the
+     * first parameter marker.
+     *
+     * @param stmt
+     * @param parameters
+     * @return the index of the next unbound parameter marker
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public static int bind(PreparedStatement stmt, Object... parameters) throws SQLException, ScriptException {
+        return bindInternal(stmt, parameters, 1);
+    }
+
+    /**
+     * Binds the given parameters to the statement, in order, starting at the
+     * first parameter marker.
+     *
+     * @param stmt
+     * @param parameters
+     * @return the index of the next unbound parameter marker
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public static int bind(PreparedStatement stmt, List<?> parameters) throws SQLException, ScriptException {
+        int index = 1;
+        for (Object parameter : parameters) {
+            index = bindInternal(stmt, parameter, index);
+        }
+        return index;
+    }
+
+    private static int bindInternal(PreparedStatement stmt, Object parameter, int index) throws SQLException, ScriptException {
+        if (parameter instanceof Collection) {
+            for (Object obj : (Collection<?>) parameter) {
+                index = bindInternal(stmt, obj, index);
+            }
+            return index;
+        }
+        if (parameter instanceof Object[]) {
+            for (Object obj : (Object[]) parameter) {
+                index = bindInternal(stmt, obj, index);
+            }
+            return index;
+        }
+        getSetter(parameter, index).set(stmt, index, parameter);
+        return index + 1;
+    }
+
+    private static Setter getSetter(Object parameter, int index) throws ScriptException {
+        if (parameter == null) {
+            throw new ScriptException("Null parameter passed for parameter marker " + index + ".");
+        }
+        return SETTERS.get(parameter.getClass());
+    }
+
+    /**
+     * Expands Collections and Object arrays, recursively, into a single flat
+     * array of values in binding order.
+     *
+     * @param parameters
+     * @return
+     */
+    public static Object[] flatten(Object... parameters) {
+        List<Object> values = new ArrayList<>(parameters.length);
+        flattenInternal(values, parameters);
+        return values.toArray();
+    }
+
+    private static void flattenInternal(List<Object> values, Object parameter) {
+        if (parameter instanceof Collection) {
+            for (Object obj : (Collection<?>) parameter) {
+                flattenInternal(values, obj);
+            }
+        } else if (parameter instanceof Object[]) {
+            for (Object obj : (Object[]) parameter) {
+                flattenInternal(values, obj);
+            }
+        } else {
+            values.add(parameter);
+        }
+    }
+}
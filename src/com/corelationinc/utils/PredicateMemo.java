@@ -0,0 +1,242 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.ScriptException;
+import com.corelationinc.script.Serial;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Run-scoped memo of per-account and per-person predicate results, keyed by
+ * (function, serial, argument). Meant for facts that several tasks ask about
+ * the same ACCOUNT or PERSON during a run (delinquent loans, charge-offs, age
+ * checks) and that do not change during the run.
+ * <br></br>
+ * Lookups are single-flight: when two task threads miss on the same key at
+ * the same time, the first one runs the query and the second one waits for
+ * its result instead of issuing a duplicate. A query that fails is not
+ * remembered; every thread that was waiting on it receives the same
+ * exception and the next lookup runs the query again.
+ * <br></br>
+ * Entries are a few dozen bytes each and are kept until the run ends or
+ * clear() is called. The Script*Utils predicates accept a PredicateMemo as
+ * their first argument; pass null to query directly.
+ * <br>Ex.</br>
+ *
+ * <br>PredicateMemo memo = new PredicateMemo();</br>
+ * <br>boolean delinquent = ScriptAccountUtils.hasDelinquentLoan(memo,
+ * getConnection(), accountSerial, 29);</br>
+ *
+ * @author stosti
+ */
+public class PredicateMemo {
+
+    private final ConcurrentHashMap<Key, FutureTask<Object>> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Computes a memoized value. Implementations run the underlying query.
+     *
+     * @param <V>
+     */
+    public interface Loader<V> {
+
+        V load() throws SQLException, ScriptException;
+    }
+
+    /**
+     * Returns the memoized value for (function, serial), running the loader
+     * on the first lookup.
+     *
+     * @param <V>
+     * @param function name of the predicate, e.g. "hasChargedOffLoans"
+     * @param serial
+     * @param loader
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public <V> V get(String function, Serial serial, Loader<V> loader) throws SQLException, ScriptException {
+        return get(function, toLong(function, serial), 0L, loader);
+    }
+
+    /**
+     * Returns the memoized value for (function, serial, argument), running
+     * the loader on the first lookup.
+     *
+     * @param <V>
+     * @param function name of the predicate, e.g. "hasDelinquentLoan"
+     * @param serial
+     * @param argument the predicate's argument, e.g. the minimum days
+     * delinquent
+     * @param loader
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public <V> V get(String function, Serial serial, long argument, Loader<V> loader) throws SQLException, ScriptException {
+        return get(function, toLong(function, serial), argument, loader);
+    }
+
+    /**
+     * Returns the memoized value for (function, serial, argument), running
+     * the loader on the first lookup.
+     *
+     * @param <V>
+     * @param function
+     * @param serial
+     * @param argument
+     * @param loader
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(String function, long serial, long argument, Loader<V> loader) throws SQLException, ScriptException {
+        if (function == null) {
+            throw new ScriptException("Null function name passed to PredicateMemo.");
+        }
+        if (loader == null) {
+            throw new ScriptException("Null loader passed to PredicateMemo.");
+        }
+        Key key = new Key(function, serial, argument);
+        FutureTask<Object> entry = entries.get(key);
+        if (entry == null) {
+            FutureTask<Object> created = new FutureTask<>(loader::load);
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) {
+                misses.increment();
+                entry = created;
+                created.run();
+            } else if (entry.isDone()) {
+                hits.increment();
+            } else {
+                waits.increment();
+            }
+        } else if (entry.isDone()) {
+            hits.increment();
+        } else {
+            waits.increment();
+        }
+        try {
+            return (V) entry.get();
+        } catch (ExecutionException e) {
+            entries.remove(key, entry);
+            failures.increment();
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof ScriptException) {
+                throw (ScriptException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ScriptException("Unable to evaluate " + function + " for serial " + serial + ".", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScriptException("Interrupted while waiting for " + function + " for serial " + serial + ".", e);
+        }
+    }
+
+    private static long toLong(String function, Serial serial) throws ScriptException {
+        if (serial == null) {
+            throw new ScriptException("Null serial passed to PredicateMemo for " + function + ".");
+        }
+        return ScriptUtils.toLong(serial);
+    }
+
+    /**
+     * Removes every memoized result. Statistics are kept.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of lookups that waited on a query already running in
+     * another thread rather than issuing their own.
+     *
+     * @return
+     */
+    public long getWaitCount() {
+        return waits.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns a one-line summary of the memo statistics, for a run summary
+     * report.
+     *
+     * @return
+     */
+    public String getSummary() {
+        long hitCount = hits.sum();
+        long waitCount = waits.sum();
+        long missCount = misses.sum();
+        long lookups = hitCount + waitCount + missCount;
+        String hitRatio = lookups == 0 ? "0.0" : String.format("%.1f", 100.0 * (hitCount + waitCount) / lookups);
+        return "Predicate memo: " + hitCount + " hits, " + waitCount + " shared in-flight, " + missCount + " queries ("
+                + hitRatio + "% saved), " + failures.sum() + " failures, " + entries.size() + " entries held";
+    }
+
+    private static final class Key {
+
+        private final String function;
+        private final long serial;
+        private final long argument;
+        private final int hash;
+
+        private Key(String function, long serial, long argument) {
+            this.function = function;
+            this.serial = serial;
+            this.argument = argument;
+            int h = function.hashCode();
+            h = 31 * h + Long.hashCode(serial);
+            h = 31 * h + Long.hashCode(argument);
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object ob) {
+            if (this == ob) {
+                return true;
+            }
+            if (!(ob instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) ob;
+            return serial == other.serial && argument == other.argument && function.equals(other.function);
+        }
+    }
+}
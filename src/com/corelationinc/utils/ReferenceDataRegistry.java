@@ -0,0 +1,255 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.ScriptException;
+import com.corelationinc.script.Serial;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Run-scoped cache of small SERIAL / DESCRIPTION reference tables
+ * (COURTESY_PAY_RESTRICTION, SH_TYPE, LN_TYPE, etc.). Each table is read once
+ * with a single query and held as a bidirectional serial-description map, so
+ * scripts can resolve types and restrictions in memory instead of querying or
+ * joining the table for every row.
+ * <br></br>
+ * Preload the tables a script needs in beforeTasks(), on the manager
+ * connection; tasks can then read them from any thread without a connection.
+ * <br>Ex.</br>
+ *
+ * <br>getReferenceData().preload(getConnection(), "SH_TYPE",
+ * "COURTESY_PAY_RESTRICTION");</br>
+ * <br>long checkingType =
+ * getReferenceData().getTable("SH_TYPE").getSerialValue("Checking -
+ * Regular");</br>
+ *
+ * @author stosti
+ */
+public class ReferenceDataRegistry {
+
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Z][A-Z0-9_]*");
+
+    private final ConcurrentHashMap<String, ReferenceTable> tables = new ConcurrentHashMap<>();
+
+    /**
+     * Loads each of the given CORE tables, unless already loaded.
+     *
+     * @param connection
+     * @param tableNames
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public void preload(Connection connection, String... tableNames) throws SQLException, ScriptException {
+        for (String tableName : tableNames) {
+            getTable(connection, tableName);
+        }
+    }
+
+    /**
+     * Returns the given CORE table, loading it on first use.
+     *
+     * @param connection
+     * @param tableName
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public ReferenceTable getTable(Connection connection, String tableName) throws SQLException, ScriptException {
+        String key = checkTableName(tableName);
+        ReferenceTable table = tables.get(key);
+        if (table != null) {
+            return table;
+        }
+        synchronized (this) {
+            table = tables.get(key);
+            if (table == null) {
+                table = ReferenceTable.load(connection, key);
+                tables.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Returns a table loaded earlier by preload() or getTable(Connection,
+     * String).
+     *
+     * @param tableName
+     * @return
+     * @throws ScriptException if the table has not been loaded
+     */
+    public ReferenceTable getTable(String tableName) throws ScriptException {
+        ReferenceTable table = tables.get(checkTableName(tableName));
+        if (table == null) {
+            throw new ScriptException("Reference table has not been loaded: " + tableName);
+        }
+        return table;
+    }
+
+    private static String checkTableName(String tableName) throws ScriptException {
+        if (tableName == null) {
+            throw new ScriptException("Null table name passed to ReferenceDataRegistry.");
+        }
+        String key = tableName.toUpperCase();
+        if (!TABLE_NAME.matcher(key).matches()) {
+            throw new ScriptException("Invalid reference table name: " + tableName);
+        }
+        return key;
+    }
+
+    /**
+     * An immutable SERIAL / DESCRIPTION table. Serials are held as sorted
+     * primitives; a description may map to more than one serial.
+     */
+    public static final class ReferenceTable {
+
+        private static final long[] NO_SERIALS = new long[0];
+
+        private final String tableName;
+        private final long[] serials;
+        private final String[] descriptions;
+        private final Map<String, long[]> serialsByDescription;
+
+        private ReferenceTable(String tableName, long[] serials, String[] descriptions) {
+            this.tableName = tableName;
+            this.serials = serials;
+            this.descriptions = descriptions;
+            Map<String, List<Long>> grouped = new HashMap<>();
+            for (int i = 0; i < serials.length; i++) {
+                if (descriptions[i] != null) {
+                    grouped.computeIfAbsent(descriptions[i], k -> new ArrayList<>()).add(serials[i]);
+                }
+            }
+            Map<String, long[]> byDescription = new HashMap<>();
+            for (Map.Entry<String, List<Long>> entry : grouped.entrySet()) {
+                long[] values = new long[entry.getValue().size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = entry.getValue().get(i);
+                }
+                byDescription.put(entry.getKey(), values);
+            }
+            this.serialsByDescription = byDescription;
+        }
+
+        private static ReferenceTable load(Connection connection, String tableName) throws SQLException, ScriptException {
+            if (connection == null) {
+                throw new ScriptException("Null connection passed to ReferenceDataRegistry.");
+            }
+            String sql = "SELECT"
+                    + "    SERIAL,"
+                    + "    DESCRIPTION"
+                    + " FROM"
+                    + "    CORE." + tableName
+                    + " ORDER BY"
+                    + "    SERIAL";
+            List<Long> serials = new ArrayList<>();
+            List<String> descriptions = new ArrayList<>();
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                ResultSet rset = stmt.executeQuery();
+                while (rset.next()) {
+                    serials.add(rset.getLong(1));
+                    descriptions.add(rset.getString(2));
+                }
+            }
+            long[] serialArray = new long[serials.size()];
+            for (int i = 0; i < serialArray.length; i++) {
+                serialArray[i] = serials.get(i);
+            }
+            return new ReferenceTable(tableName, serialArray, descriptions.toArray(new String[0]));
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public int size() {
+            return serials.length;
+        }
+
+        /**
+         * Returns the description for the serial, or null if the serial is
+         * not in the table.
+         *
+         * @param serial
+         * @return
+         */
+        public String getDescription(long serial) {
+            int i = Arrays.binarySearch(serials, serial);
+            return i >= 0 ? descriptions[i] : null;
+        }
+
+        public String getDescription(Serial serial) {
+            return getDescription(ScriptUtils.toLong(serial));
+        }
+
+        public boolean containsSerial(long serial) {
+            return Arrays.binarySearch(serials, serial) >= 0;
+        }
+
+        /**
+         * Returns the lowest serial with the given description, or 0 if there
+         * is none.
+         *
+         * @param description
+         * @return
+         */
+        public long getSerialValue(String description) {
+            long[] values = serialsByDescription.get(description);
+            return values == null ? 0 : values[0];
+        }
+
+        /**
+         * Returns the lowest serial with the given description.
+         *
+         * @param description
+         * @return
+         * @throws ScriptException if no row has the description
+         */
+        public Serial getSerial(String description) throws ScriptException {
+            long serial = getSerialValue(description);
+            if (serial == 0) {
+                throw new ScriptException("Could not identify " + tableName + ": " + description);
+            }
+            return ScriptUtils.toSerial(serial);
+        }
+
+        /**
+         * Returns every serial with the given description, in ascending order.
+         *
+         * @param description
+         * @return
+         */
+        public long[] getSerialValues(String description) {
+            long[] values = serialsByDescription.get(description);
+            return values == null ? NO_SERIALS : values.clone();
+        }
+
+        /**
+         * Returns a Map of serial to description for the given descriptions,
+         * the same shape as ScriptUtils.getSerialDescriptionMap.
+         *
+         * @param descriptions
+         * @return
+         */
+        public Map<Serial, String> getSerialDescriptionMap(List<String> descriptions) {
+            Map<Serial, String> map = new HashMap<>();
+            for (String description : descriptions) {
+                long[] values = serialsByDescription.get(description);
+                if (values != null) {
+                    for (long value : values) {
+                        map.put(ScriptUtils.toSerial(value), description);
+                    }
+                }
+            }
+            return map;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.corelationinc.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lazily evaluated, memoized eligibility rules. Each check is registered once
+ * per run as a named predicate with a cost hint, and rules combine predicates
+ * with short-circuit and(), or() and not(). A task starts an Evaluation for
+ * its row; a predicate runs at most once per Evaluation, and only if a rule
+ * actually needs it.
+ * <br></br>
+ * The children of and() and or() are evaluated cheapest and most decisive
+ * first: an and() runs the checks most likely to be false first, an or() the
+ * ones most likely to be true, weighed against their cost. The order starts
+ * from the cost hints. With adaptive ordering on, it is recomputed
+ * periodically from the observed latency and true ratio of each predicate.
+ * Predicates must therefore be free of side effects and must not rely on
+ * another child of the same and()/or() having run first; use a plain if/else
+ * chain where order matters.
+ * <br>Ex.</br>
+ *
+ * <br>Predicate&lt;Task&gt; restricted = rules.predicate("Restricted",
+ * RuleEngine.COST_MEMORY, task -&gt; task.restriction != null);</br>
+ * <br>Predicate&lt;Task&gt; delinquent = rules.predicate("Delinquent",
+ * RuleEngine.COST_QUERY, task -&gt; ScriptAccountUtils.hasDelinquentLoan(...));</br>
+ * <br>Rule&lt;Task&gt; eligible = rules.and(rules.not(restricted),
+ * rules.not(delinquent));</br>
+ * <br>if (rules.begin(this).test(eligible)) ...</br>
+ *
+ * @author stosti
+ * @param <T> the row or task type the checks read
+ */
+public class RuleEngine<T> {
+
+    /**
+     * Cost hint for checks answered from memory (microseconds).
+     */
+    public static final int COST_MEMORY = 1;
+    /**
+     * Cost hint for a simple indexed query (microseconds).
+     */
+    public static final int COST_QUERY = 1000;
+    /**
+     * Cost hint for an aggregate or multi-join query (microseconds).
+     */
+    public static final int COST_HEAVY_QUERY = 10000;
+
+    static final int MIN_SAMPLES = 64;
+    static final int REORDER_INTERVAL = 1024;
+    private static final double MIN_RATIO = 0.001;
+
+    @FunctionalInterface
+    public interface Check<T> {
+
+        boolean test(T row) throws Exception;
+    }
+
+    private final List<Predicate<T>> predicates = new ArrayList<>();
+    private volatile boolean adaptive = false;
+
+    /**
+     * Turns adaptive ordering on or off. Off by default.
+     *
+     * @param adaptive
+     * @return this
+     */
+    public RuleEngine<T> setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Registers a check. Register every predicate before the first call to
+     * begin().
+     *
+     * @param name
+     * @param costHint estimated cost in microseconds (see the COST_
+     * constants)
+     * @param check
+     * @return
+     */
+    public synchronized Predicate<T> predicate(String name, int costHint, Check<T> check) {
+        Predicate<T> predicate = new Predicate<>(this, name, costHint, check, predicates.size());
+        predicates.add(predicate);
+        return predicate;
+    }
+
+    @SafeVarargs
+    public final Rule<T> and(Rule<T>... rules) {
+        List<Rule<T>> children = new ArrayList<>(rules.length);
+        for (Rule<T> rule : rules) {
+            children.add(rule);
+        }
+        return and(children);
+    }
+
+    public Rule<T> and(List<Rule<T>> rules) {
+        return new Composite<>(this, true, rules);
+    }
+
+    @SafeVarargs
+    public final Rule<T> or(Rule<T>... rules) {
+        List<Rule<T>> children = new ArrayList<>(rules.length);
+        for (Rule<T> rule : rules) {
+            children.add(rule);
+        }
+        return or(children);
+    }
+
+    public Rule<T> or(List<Rule<T>> rules) {
+        return new Composite<>(this, false, rules);
+    }
+
+    public Rule<T> not(Rule<T> rule) {
+        return new Not<>(rule);
+    }
+
+    /**
+     * Starts evaluating rules for a single row. An Evaluation is not
+     * thread-safe; use one per task.
+     *
+     * @param row
+     * @return
+     */
+    public synchronized Evaluation<T> begin(T row) {
+        return new Evaluation<>(row, predicates.size());
+    }
+
+    /**
+     * Returns one line per predicate with its call count, true ratio and
+     * average latency.
+     *
+     * @return
+     */
+    public synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (Predicate<T> predicate : predicates) {
+            long calls = predicate.calls.sum();
+            summary.append(predicate.name).append(": ")
+                    .append(calls).append(" calls, ")
+                    .append(calls == 0 ? "0.0" : String.format("%.1f", 100.0 * predicate.trues.sum() / calls)).append("% true, ")
+                    .append(calls == 0 ? "0.0" : String.format("%.1f", predicate.nanos.sum() / 1000.0 / calls)).append(" us average")
+                    .append(System.lineSeparator());
+        }
+        return summary.toString();
+    }
+
+    /**
+     * A rule built from predicates.
+     *
+     * @param <T>
+     */
+    public abstract static class Rule<T> {
+
+        abstract boolean evaluate(Evaluation<T> evaluation) throws Exception;
+
+        /**
+         * Expected cost of evaluating the rule, in microseconds.
+         */
+        abstract double cost();
+
+        /**
+         * Expected fraction of rows for which the rule is true.
+         */
+        abstract double trueRatio();
+    }
+
+    public static final class Predicate<T> extends Rule<T> {
+
+        private final RuleEngine<T> engine;
+        private final String name;
+        private final int costHint;
+        private final Check<T> check;
+        private final int index;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder trues = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private Predicate(RuleEngine<T> engine, String name, int costHint, Check<T> check, int index) {
+            this.engine = engine;
+            this.name = name;
+            this.costHint = costHint;
+            this.check = check;
+            this.index = index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        boolean evaluate(Evaluation<T> evaluation) throws Exception {
+            byte state = evaluation.states[index];
+            if (state != Evaluation.UNKNOWN) {
+                return state == Evaluation.TRUE;
+            }
+            long start = System.nanoTime();
+            boolean result = check.test(evaluation.row);
+            nanos.add(System.nanoTime() - start);
+            calls.increment();
+            if (result) {
+                trues.increment();
+            }
+            evaluation.states[index] = result ? Evaluation.TRUE : Evaluation.FALSE;
+            return result;
+        }
+
+        private boolean sampled() {
+            return engine.adaptive && calls.sum() >= MIN_SAMPLES;
+        }
+
+        @Override
+        double cost() {
+            if (sampled()) {
+                return nanos.sum() / 1000.0 / calls.sum();
+            }
+            return costHint;
+        }
+
+        @Override
+        double trueRatio() {
+            if (sampled()) {
+                return (double) trues.sum() / calls.sum();
+            }
+            return 0.5;
+        }
+    }
+
+    private static final class Not<T> extends Rule<T> {
+
+        private final Rule<T> rule;
+
+        private Not(Rule<T> rule) {
+            this.rule = rule;
+        }
+
+        @Override
+        boolean evaluate(Evaluation<T> evaluation) throws Exception {
+            return !rule.evaluate(evaluation);
+        }
+
+        @Override
+        double cost() {
+            return rule.cost();
+        }
+
+        @Override
+        double trueRatio() {
+            return 1 - rule.trueRatio();
+        }
+    }
+
+    private static final class Composite<T> extends Rule<T> {
+
+        private final RuleEngine<T> engine;
+        private final boolean and;
+        private final List<Rule<T>> rules;
+        private final AtomicLong evaluations = new AtomicLong();
+        private volatile int[] order;
+
+        private Composite(RuleEngine<T> engine, boolean and, List<Rule<T>> rules) {
+            this.engine = engine;
+            this.and = and;
+            this.rules = new ArrayList<>(rules);
+            this.order = computeOrder();
+        }
+
+        /**
+         * Orders children by expected cost per decisive result: for and(),
+         * cost / P(false); for or(), cost / P(true).
+         */
+        private int[] computeOrder() {
+            int count = rules.size();
+            double[] ranks = new double[count];
+            Integer[] indexes = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                Rule<T> rule = rules.get(i);
+                double decisive = and ? 1 - rule.trueRatio() : rule.trueRatio();
+                ranks[i] = rule.cost() / Math.max(decisive, MIN_RATIO);
+                indexes[i] = i;
+            }
+            Arrays.sort(indexes, Comparator.comparingDouble(i -> ranks[i]));
+            int[] result = new int[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = indexes[i];
+            }
+            return result;
+        }
+
+        @Override
+        boolean evaluate(Evaluation<T> evaluation) throws Exception {
+            if (engine.adaptive && evaluations.incrementAndGet() % REORDER_INTERVAL == 0) {
+                order = computeOrder();
+            }
+            for (int i : order) {
+                if (rules.get(i).evaluate(evaluation) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        }
+
+        @Override
+        double cost() {
+            double cost = 0;
+            double reached = 1;
+            for (int i : order) {
+                Rule<T> rule = rules.get(i);
+                cost += reached * rule.cost();
+                reached *= and ? rule.trueRatio() : 1 - rule.trueRatio();
+            }
+            return cost;
+        }
+
+        @Override
+        double trueRatio() {
+            double ratio = 1;
+            for (Rule<T> rule : rules) {
+                ratio *= and ? rule.trueRatio() : 1 - rule.trueRatio();
+            }
+            return and ? ratio : 1 - ratio;
+        }
+    }
+
+    /**
+     * Memoized predicate results for a single row.
+     *
+     * @param <T>
+     */
+    public static final class Evaluation<T> {
+
+        private static final byte UNKNOWN = 0;
+        private static final byte FALSE = 1;
+        private static final byte TRUE = 2;
+
+        private final T row;
+        private final byte[] states;
+
+        private Evaluation(T row, int predicateCount) {
+            this.row = row;
+            this.states = new byte[predicateCount];
+        }
+
+        public boolean test(Rule<T> rule) throws Exception {
+            return rule.evaluate(this);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.ScriptException;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Batched companion to SQLSingleRun for INSERT / UPDATE / DELETE statements.
+ * Create a new instance with a connection and SQL statement, then call .add()
+ * once per row with that row's parameters. Rows are bound using the same
+ * parameter types as SQLSingleRun and are queued with addBatch(); every
+ * batchSize rows the queue is sent to the database with executeBatch(). Call
+ * .close() (or use a try block) to flush the final partial batch.
+ * <br></br>
+ * If a commit interval is given, auto-commit is switched off for the life of
+ * the SQLBatchRun and a commit is issued every commitInterval rows, and once
+ * more on close. Auto-commit is restored on close.
+ * <br></br>
+ * Rows that fail are not thrown; they are collected and can be read with
+ * getErrors() once the run is closed.
+ * <br>Ex.</br>
+ *
+ * <br>try (SQLBatchRun batch = new SQLBatchRun(getConnection(), "INSERT INTO
+ * STAGING.AUDIT (SHARE_SERIAL, AMOUNT) VALUES (?, ?)", 500, 5000)) {</br>
+ * <br> for (...) {</br>
+ * <br> batch.add(shareSerial, amount);</br>
+ * <br> }</br>
+ * <br>}</br>
+ *
+ * @author stosti
+ */
+public class SQLBatchRun implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final Connection connection;
+    private final PreparedStatement stmt;
+    private final int batchSize;
+    private final int commitInterval;
+    private final boolean originalAutoCommit;
+
+    private final List<Object[]> queuedRows = new ArrayList<>();
+    private final List<BatchError> errors = new ArrayList<>();
+    private long rowCount = 0;
+    private long updateCount = 0;
+    private long rowsSinceCommit = 0;
+    private boolean closed = false;
+
+    /**
+     * Prepares the provided DML statement using the default batch size and no
+     * commit management.
+     *
+     * @param connection
+     * @param sql
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public SQLBatchRun(Connection connection, String sql) throws SQLException, ScriptException {
+        this(connection, sql, DEFAULT_BATCH_SIZE, 0);
+    }
+
+    /**
+     * Prepares the provided DML statement.
+     *
+     * @param connection
+     * @param sql
+     * @param batchSize number of rows sent to the database per executeBatch()
+     * @param commitInterval number of rows between commits, 0 to leave commits
+     * to the caller
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public SQLBatchRun(Connection connection, String sql, int batchSize, int commitInterval) throws SQLException, ScriptException {
+        if (connection == null) {
+            throw new ScriptException("Null connection passed to SQLBatchRun.");
+        }
+        if (sql == null || sql.isEmpty()) {
+            throw new ScriptException("Null or empty SQL passed to SQLBatchRun.");
+        }
+        if (batchSize <= 0) {
+            throw new ScriptException("Non-positive batch size passed to SQLBatchRun.");
+        }
+        if (commitInterval < 0) {
+            throw new ScriptException("Negative commit interval passed to SQLBatchRun.");
+        }
+        this.connection = connection;
+        this.batchSize = batchSize;
+        this.commitInterval = commitInterval;
+        this.originalAutoCommit = connection.getAutoCommit();
+        // Prepared first so that bad SQL leaves the connection untouched.
+        this.stmt = connection.prepareStatement(sql);
+        if (commitInterval > 0 && originalAutoCommit) {
+            try {
+                connection.setAutoCommit(false);
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    stmt.close();
+                } catch (SQLException closeException) {
+                    e.addSuppressed(closeException);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Binds and queues one row. Parameters are set in the order they are
+     * provided and support the same types as SQLSingleRun. Sends the queue to
+     * the database once it reaches the batch size.
+     *
+     * @param parameters
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public void add(Object... parameters) throws SQLException, ScriptException {
+        if (closed) {
+            throw new ScriptException("Attempted to add a row to a closed SQLBatchRun.");
+        }
+        ParameterBinder.bind(stmt, parameters);
+        stmt.addBatch();
+        queuedRows.add(parameters);
+        if (queuedRows.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Binds and queues one row, parameters are provided in a list.
+     *
+     * @param parameters
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public void add(List<Object> parameters) throws SQLException, ScriptException {
+        add(parameters.toArray(new Object[0]));
+    }
+
+    /**
+     * Sends all queued rows to the database. Failed rows are recorded and can
+     * be read with getErrors(). Commits if the commit interval has been
+     * reached.
+     *
+     * @throws SQLException
+     */
+    public void flush() throws SQLException {
+        if (queuedRows.isEmpty()) {
+            return;
+        }
+        int[] counts;
+        try {
+            counts = stmt.executeBatch();
+        } catch (BatchUpdateException e) {
+            counts = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+            recordErrors(counts, e);
+        }
+        for (int count : counts) {
+            if (count > 0) {
+                updateCount += count;
+            }
+        }
+        rowCount += queuedRows.size();
+        rowsSinceCommit += queuedRows.size();
+        queuedRows.clear();
+        stmt.clearBatch();
+
+        if (commitInterval > 0 && rowsSinceCommit >= commitInterval) {
+            connection.commit();
+            rowsSinceCommit = 0;
+        }
+    }
+
+    /**
+     * Pairs failed update counts with the queued rows. Drivers that stop at
+     * the first failure return fewer counts than rows; the row after the last
+     * count is the failed one and the rest were never run.
+     */
+    private void recordErrors(int[] counts, BatchUpdateException e) {
+        SQLException rowException = e.getNextException();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == Statement.EXECUTE_FAILED) {
+                SQLException cause = rowException != null ? rowException : e;
+                errors.add(new BatchError(rowCount + i + 1, queuedRows.get(i), cause.getMessage(), cause));
+                if (rowException != null) {
+                    rowException = rowException.getNextException();
+                }
+            }
+        }
+        if (counts.length < queuedRows.size()) {
+            SQLException cause = rowException != null ? rowException : e;
+            errors.add(new BatchError(rowCount + counts.length + 1, queuedRows.get(counts.length), cause.getMessage(), cause));
+            for (int i = counts.length + 1; i < queuedRows.size(); i++) {
+                errors.add(new BatchError(rowCount + i + 1, queuedRows.get(i), "Not executed, batch stopped at an earlier row.", null));
+            }
+        }
+    }
+
+    /**
+     * Flushes any remaining rows, issues the final commit, restores the
+     * connection's auto-commit setting and closes the statement. If the final
+     * flush or commit fails while this run manages commits, the open
+     * transaction is rolled back before auto-commit is restored, since
+     * turning auto-commit back on would commit the partial rows.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean managesCommits = commitInterval > 0 && originalAutoCommit;
+        try {
+            flush();
+            if (commitInterval > 0 && rowsSinceCommit > 0) {
+                connection.commit();
+                rowsSinceCommit = 0;
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (managesCommits) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackException) {
+                    e.addSuppressed(rollbackException);
+                }
+            }
+            throw e;
+        } finally {
+            try {
+                stmt.close();
+            } finally {
+                if (managesCommits) {
+                    connection.setAutoCommit(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of rows sent to the database so far.
+     *
+     * @return
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the total number of database rows reported as changed.
+     *
+     * @return
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    /**
+     * Returns the rows which failed, in the order they were added.
+     *
+     * @return
+     */
+    public List<BatchError> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * A single failed row. The row number is 1-based, counted across every
+     * row added to the SQLBatchRun.
+     */
+    public static class BatchError {
+
+        private final long rowNumber;
+        private final Object[] parameters;
+        private final String message;
+        private final SQLException exception;
+
+        private BatchError(long rowNumber, Object[] parameters, String message, SQLException exception) {
+            this.rowNumber = rowNumber;
+            this.parameters = parameters;
+            this.message = message;
+            this.exception = exception;
+        }
+
+        public long getRowNumber() {
+            return rowNumber;
+        }
+
+        public List<Object> getParameters() {
+            return Arrays.asList(parameters);
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public SQLException getException() {
+            return exception;
+        }
+
+        @Override
+        public String toString() {
+            return "Row " + rowNumber + " " + Arrays.toString(parameters) + ": " + message;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.Money;
+import com.corelationinc.script.Rate;
+import com.corelationinc.script.Serial;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Run-scoped cache of small SQLSingleRun results, keyed by SQL text plus the
+ * bound parameter values. Meant for lookups that are repeated many times
+ * within a single run against data that does not change during the run (type
+ * descriptions, restriction serials, branch information, etc.). Do not use it
+ * for data the run itself modifies.
+ * <br></br>
+ * The cache is bounded by entry count and by an estimate of the heap held by
+ * the cached rows; the least recently used entries are evicted first. A
+ * single result larger than maxBytes / 8 is never cached. All methods are
+ * safe to call from multiple task threads.
+ * <br>Ex.</br>
+ *
+ * <br>SQLResultCache cache = new SQLResultCache(10000, 32L * 1024 *
+ * 1024);</br>
+ * <br>try (SQLSingleRun run = new SQLSingleRun(cache, getConnection(),
+ * "SELECT DESCRIPTION FROM CORE.SH_TYPE WHERE SERIAL = ?", typeSerial))
+ * {</br>
+ * <br> ...</br>
+ * <br>}</br>
+ *
+ * @author stosti
+ */
+public class SQLResultCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long rejected = 0;
+
+    /**
+     * @param maxEntries maximum number of cached results
+     * @param maxBytes maximum estimated heap held by cached results
+     */
+    public SQLResultCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Non-positive entry limit passed to SQLResultCache.");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Non-positive byte limit passed to SQLResultCache.");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.max(1, maxBytes / 8);
+    }
+
+    /**
+     * Builds the cache key for a statement from its compiled parameters.
+     * Values are captured as strings so later changes to a mutable parameter
+     * (Serial, Money) cannot alter the key.
+     */
+    static String createKey(String sql, ParameterBinder binder) {
+        Object[] values = binder.values();
+        StringBuilder key = new StringBuilder(sql.length() + 16 * values.length);
+        key.append(sql);
+        for (Object value : values) {
+            key.append('\u0000');
+            if (value == null) {
+                key.append("null");
+                continue;
+            }
+            key.append(value.getClass().getName()).append('=');
+            if (value instanceof Serial) {
+                key.append(((Serial) value).toKeyBridgeString());
+            } else if (value instanceof Money) {
+                key.append(((Money) value).toKeyBridgeString());
+            } else if (value instanceof Rate) {
+                key.append(((Rate) value).toKeyBridgeString());
+            } else {
+                key.append(value.toString());
+            }
+        }
+        return key.toString();
+    }
+
+    synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry;
+    }
+
+    /**
+     * Stores a result. The column label map is kept with the rows so label
+     * lookups keep working when the result is served from the cache.
+     */
+    synchronized void put(String key, List<SQLSingleRun.Row> rows, Map<String, Integer> columnIndexes, long rowBytes) {
+        long entryBytes = rowBytes + 40 + 2L * key.length();
+        if (columnIndexes != null) {
+            for (String label : columnIndexes.keySet()) {
+                entryBytes += 48 + 2L * label.length();
+            }
+        }
+        if (entryBytes > maxEntryBytes) {
+            rejected++;
+            return;
+        }
+        Map<String, Integer> labels = columnIndexes == null ? null : Collections.unmodifiableMap(columnIndexes);
+        Entry previous = entries.put(key, new Entry(Collections.unmodifiableList(rows), labels, entryBytes));
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += entryBytes;
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            bytes -= eldest.bytes;
+            evictions++;
+        }
+    }
+
+    synchronized void recordRejected() {
+        rejected++;
+    }
+
+    long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * Removes every cached result. Statistics are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of results that were not cached because they were
+     * larger than the per-entry limit.
+     *
+     * @return
+     */
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getByteCount() {
+        return bytes;
+    }
+
+    /**
+     * Returns a one-line summary of the cache statistics, for a run summary
+     * report.
+     *
+     * @return
+     */
+    public synchronized String getSummary() {
+        long lookups = hits + misses;
+        String hitRatio = lookups == 0 ? "0.0" : String.format("%.1f", 100.0 * hits / lookups);
+        return "SQL result cache: " + hits + " hits, " + misses + " misses (" + hitRatio + "% hit ratio), "
+                + evictions + " evictions, " + rejected + " too large, "
+                + entries.size() + " entries / " + bytes + " bytes held";
+    }
+
+    static final class Entry {
+
+        final List<SQLSingleRun.Row> rows;
+        final Map<String, Integer> columnIndexes;
+        private final long bytes;
+
+        private Entry(List<SQLSingleRun.Row> rows, Map<String, Integer> columnIndexes, long bytes) {
+            this.rows = rows;
+            this.columnIndexes = columnIndexes;
+            this.bytes = bytes;
+        }
+    }
+}
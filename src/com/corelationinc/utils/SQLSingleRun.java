@@ -4,7 +4,6 @@ import com.corelationinc.script.Money;
 import com.corelationinc.script.Rate;
 import com.corelationinc.script.ScriptException;
 import com.corelationinc.script.Serial;
-import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
@@ -12,11 +11,15 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The SQLRun classes serve as a replacement for a standard SQL statement setup.
@@ -25,7 +28,8 @@ import java.util.Set;
  * inserted into the statement in the order they are passed to the constructor.)
  * Then call .next() on the SQLRun object until it runs out of results. This
  * will advance the internal result set, data can then be accessed using the
- * 'getX' function. Once the result set is exhausted, you can close the
+ * 'getX' functions. Values can be read in sequence with getX(), by column
+ * position with getX(int) or by column label with getX(String). Once the result set is exhausted, you can close the
  * statement using the .close(), or a try block can be used to automatically
  * close the SQLSingleRun object.
  * <br>Ex.</br>
@@ -50,8 +54,23 @@ public class SQLSingleRun implements AutoCloseable {
     ResultSet rset = null;
     String sql = null;
     DATA_TYPE[] nextTaskDataTypes = null;
-    OrderedDataCollection currentData = null;
     ResultSetMetaData metaData = null;
+    Map<String, Integer> columnIndexes = null;
+
+    // Reusable row slots, populated by next().
+    Row currentRow = null;
+    int rowIndex = 1;
+
+    // Result cache state. cachedRows is set on a cache hit; recordedRows
+    // collects rows on a miss until the result is complete or too large.
+    SQLResultCache cache = null;
+    String cacheKey = null;
+    List<Row> cachedRows = null;
+    int cachedPosition = 0;
+    List<Row> recordedRows = null;
+    long recordedBytes = 0;
+
+    static final int DEFAULT_STREAM_BATCH_SIZE = 1024;
 
     /**
      * Prepares and runs provided SQL statement. Optional parameters can be
@@ -76,7 +95,7 @@ public class SQLSingleRun implements AutoCloseable {
      * @throws ScriptException
      */
     public SQLSingleRun(Connection connection, String sql, Object... parameters) throws SQLException, ScriptException {
-        construct(connection, sql, parameters);
+        construct(connection, sql, ParameterBinder.of(parameters));
     }
 
     /**
@@ -102,18 +121,53 @@ public class SQLSingleRun implements AutoCloseable {
      * @throws ScriptException
      */
     public SQLSingleRun(Connection connection, String sql, List<Object> parameters) throws SQLException, ScriptException {
-        construct(connection, sql, parameters.toArray(new Object[0]));
+        construct(connection, sql, ParameterBinder.of(parameters.toArray(new Object[0])));
+    }
+
+    /**
+     * Same as SQLSingleRun(Connection, String, Object...), but the result is
+     * served from the given run-scoped cache when the same SQL has already
+     * been run with the same parameters. On a miss the statement runs as
+     * normal and the rows are stored in the cache once the result set has been
+     * read to the end, provided the result is small enough. Values handed out
+     * from a cached result are shared and must be treated as read-only.
+     * getMetaData() returns null for a cache hit. A null cache disables
+     * caching.
+     *
+     * @param cache
+     * @param connection
+     * @param sql
+     * @param parameters
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public SQLSingleRun(SQLResultCache cache, Connection connection, String sql, Object... parameters) throws SQLException, ScriptException {
+        ParameterBinder binder = ParameterBinder.of(parameters);
+        if (cache != null) {
+            this.cacheKey = SQLResultCache.createKey(sql, binder);
+            SQLResultCache.Entry cached = cache.get(cacheKey);
+            if (cached != null) {
+                this.cachedRows = cached.rows;
+                this.columnIndexes = cached.columnIndexes;
+                return;
+            }
+            this.cache = cache;
+            this.recordedRows = new ArrayList<>();
+        }
+        construct(connection, sql, binder);
     }
 
-    private void construct(Connection connection, String sql, Object[] parameters) throws SQLException, ScriptException {
+    private void construct(Connection connection, String sql, ParameterBinder binder) throws SQLException, ScriptException {
         stmt = connection.prepareStatement(sql);
-        setParameters(stmt, parameters);
+        binder.bind(stmt);
         rset = stmt.executeQuery();
         if (!rset.next()) {
             rset.close();
             stmt.close();
+            finishRecording();
         } else {
             metaData = rset.getMetaData();
+            buildColumnIndexes(metaData);
         }
     }
 
@@ -133,70 +187,184 @@ public class SQLSingleRun implements AutoCloseable {
      * @throws ScriptException
      */
     public boolean next() throws SQLException, ScriptException {
+        if (cachedRows != null || recordedRows != null) {
+            Row row = fetchRow();
+            if (row == null) {
+                return false;
+            }
+            currentRow = row;
+            rowIndex = 1;
+            return true;
+        }
         if (rset.isClosed()) {
             return false;
         }
-        OrderedDataCollection coll = new OrderedDataCollection();
-        DATA_TYPE[] dataTypes = getDataTypesCache(this.stmt);
-        ResultMapping resultMapping = new ResultMapping(dataTypes);
-        for (Map.Entry<Integer, DATA_TYPE> entry : resultMapping.getEntrySet()) {
-            int index = entry.getKey();
-            switch (entry.getValue()) {
+        if (currentRow == null) {
+            currentRow = new Row(getDataTypesCache(this.stmt), columnIndexes);
+        }
+        readRow(currentRow);
+        rowIndex = 1;
+        advance();
+        return true;
+    }
+
+    /**
+     * Returns the remaining rows of the result set as a sequential Stream.
+     * Rows are fetched from the cursor only as the stream consumes them, and
+     * each Row is a detached copy that can be held after the stream moves on.
+     * Closing the stream closes the underlying statement. Do not mix stream
+     * access with calls to next() on the same SQLSingleRun.
+     * <br></br>
+     * <br>try (Stream&lt;SQLSingleRun.Row&gt; rows = run.stream()) {</br>
+     * <br> rows.forEach(row -&gt; ...);</br>
+     * <br>}</br>
+     *
+     * @return
+     * @throws SQLException
+     */
+    public Stream<Row> stream() throws SQLException {
+        return stream(DEFAULT_STREAM_BATCH_SIZE, false);
+    }
+
+    /**
+     * Returns the remaining rows of the result set as a parallel Stream. The
+     * cursor is read on the thread that splits the stream; every split hands a
+     * batch of batchSize detached rows to the common fork-join pool, so
+     * CPU-heavy per-row work runs while the cursor keeps fetching. Closing the
+     * stream closes the underlying statement.
+     *
+     * @param batchSize number of rows handed to each fork-join task
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public Stream<Row> parallelStream(int batchSize) throws SQLException, ScriptException {
+        if (batchSize <= 0) {
+            throw new ScriptException("Non-positive batch size passed to parallelStream.");
+        }
+        return stream(batchSize, true);
+    }
+
+    private Stream<Row> stream(int batchSize, boolean parallel) throws SQLException {
+        if (rset != null && !rset.isClosed()) {
+            rset.setFetchSize(batchSize);
+        }
+        return StreamSupport.stream(new RowSpliterator(batchSize), parallel)
+                .onClose(() -> {
+                    try {
+                        close();
+                    } catch (SQLException e) {
+                        throw new IllegalStateException("Unable to close SQLSingleRun statement.", e);
+                    }
+                });
+    }
+
+    /**
+     * Reads the current cursor row into a new detached Row and advances the
+     * cursor. Returns null once the result set is exhausted.
+     */
+    private Row fetchRow() throws SQLException, ScriptException {
+        if (cachedRows != null) {
+            return cachedPosition < cachedRows.size() ? cachedRows.get(cachedPosition++) : null;
+        }
+        if (rset.isClosed()) {
+            return null;
+        }
+        Row row = new Row(getDataTypesCache(this.stmt), columnIndexes);
+        readRow(row);
+        record(row);
+        advance();
+        return row;
+    }
+
+    private void advance() throws SQLException {
+        if (!rset.next()) {
+            rset.close();
+            stmt.close();
+            finishRecording();
+        }
+    }
+
+    /**
+     * Adds a row to the pending cache entry. Recording is abandoned once the
+     * result grows past the cache's per-entry limit.
+     */
+    private void record(Row row) {
+        if (recordedRows == null) {
+            return;
+        }
+        recordedBytes += row.estimateBytes();
+        if (recordedBytes > cache.getMaxEntryBytes()) {
+            cache.recordRejected();
+            recordedRows = null;
+            return;
+        }
+        recordedRows.add(row);
+    }
+
+    private void finishRecording() {
+        if (recordedRows == null) {
+            return;
+        }
+        cache.put(cacheKey, recordedRows, columnIndexes, recordedBytes);
+        recordedRows = null;
+    }
+
+    /**
+     * Copies the current result set row into the given row slots. LONG columns
+     * are held as primitives, every other column is held as the value object
+     * read from the result set.
+     */
+    private void readRow(Row row) throws SQLException, ScriptException {
+        DATA_TYPE[] dataTypes = row.types;
+        for (int i = 0; i < dataTypes.length; i++) {
+            int index = i + 1;
+            switch (dataTypes[i]) {
                 case DATE:
-                    Date date = rset.getDate(index);
-                    coll.addDate(index, date);
+                    row.values[i] = rset.getDate(index);
                     break;
                 case MONEY:
-                    Money money = Money.get(rset, index);
-                    coll.addMoney(index, money);
-                    break;
-                case SERIAL:
-                    Serial serial = Serial.get(rset, index);
-                    coll.addSerial(index, serial);
+                    row.values[i] = Money.get(rset, index);
                     break;
                 case STRING:
-                    String string = rset.getString(index);
-                    coll.addString(index, string);
+                    row.values[i] = rset.getString(index);
                     break;
                 case RATE:
-                    Rate rate = Rate.get(rset, index);
-                    coll.addRate(index, rate);
+                    row.values[i] = Rate.get(rset, index);
                     break;
                 case TIMESTAMP:
-                    Timestamp timestamp = rset.getTimestamp(index);
-                    coll.addTimestamp(index, timestamp);
+                    row.values[i] = rset.getTimestamp(index);
                     break;
+                case SERIAL:
                 case LONG:
-                    long lng = rset.getLong(index);
-                    coll.addLong(index, lng);
+                    row.longs[i] = rset.getLong(index);
                     break;
                 default:
-                    throw new ScriptException("Attempted to create OrderedDataCollection entry for unknown type.");
+                    throw new ScriptException("Attempted to read row value for unknown type.");
             }
+            row.nulls[i] = rset.wasNull();
         }
-        this.currentData = coll;
-        if (!rset.next()) {
-            rset.close();
-            stmt.close();
-        }
-        return true;
     }
 
     public ResultSetMetaData getMetaData() {
         return metaData;
     }
 
-    private OrderedDataCollection getDataCollection() {
-        return this.currentData;
+    private Row getCurrentRow() throws ScriptException {
+        if (currentRow == null) {
+            throw new ScriptException("Attempted to read a value before calling next().");
+        }
+        return currentRow;
     }
 
+    //<editor-fold defaultstate="collapsed" desc="Sequential Accessors">
     /**
      * Returns next item in the current result row as a Date.
      *
      * @return @throws ScriptException
      */
     public Date getDate() throws ScriptException {
-        return getDataCollection().getDate();
+        return getDate(rowIndex++);
     }
 
     /**
@@ -205,7 +373,7 @@ public class SQLSingleRun implements AutoCloseable {
      * @return @throws ScriptException
      */
     public Money getMoney() throws ScriptException {
-        return getDataCollection().getMoney();
+        return getMoney(rowIndex++);
     }
 
     /**
@@ -214,7 +382,7 @@ public class SQLSingleRun implements AutoCloseable {
      * @return @throws ScriptException
      */
     public Serial getSerial() throws ScriptException {
-        return getDataCollection().getSerial();
+        return getSerial(rowIndex++);
     }
 
     /**
@@ -223,7 +391,7 @@ public class SQLSingleRun implements AutoCloseable {
      * @return @throws ScriptException
      */
     public String getString() throws ScriptException {
-        return getDataCollection().getString();
+        return getString(rowIndex++);
     }
 
     /**
@@ -232,7 +400,7 @@ public class SQLSingleRun implements AutoCloseable {
      * @return @throws ScriptException
      */
     public Rate getRate() throws ScriptException {
-        return getDataCollection().getRate();
+        return getRate(rowIndex++);
     }
 
     /**
@@ -241,7 +409,7 @@ public class SQLSingleRun implements AutoCloseable {
      * @return @throws ScriptException
      */
     public Timestamp getTimestamp() throws ScriptException {
-        return getDataCollection().getTimestamp();
+        return getTimestamp(rowIndex++);
     }
 
     /**
@@ -250,7 +418,7 @@ public class SQLSingleRun implements AutoCloseable {
      * @return @throws ScriptException
      */
     public Long getLong() throws ScriptException {
-        return getDataCollection().getLong();
+        return getLong(rowIndex++);
     }
 
     /**
@@ -259,7 +427,187 @@ public class SQLSingleRun implements AutoCloseable {
      * @return @throws ScriptException
      */
     public int getInt() throws ScriptException {
-        return getLong().intValue();
+        return getInt(rowIndex++);
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Positional Accessors">
+    /**
+     * Returns the item at the given column position (1-based) of the current
+     * result row as a Date. Does not move the sequential counter.
+     *
+     * @param index
+     * @return
+     * @throws ScriptException
+     */
+    public Date getDate(int index) throws ScriptException {
+        return getCurrentRow().getDate(index);
+    }
+
+    /**
+     * Returns the item at the given column position (1-based) of the current
+     * result row as a Money.
+     *
+     * @param index
+     * @return
+     * @throws ScriptException
+     */
+    public Money getMoney(int index) throws ScriptException {
+        return getCurrentRow().getMoney(index);
+    }
+
+    /**
+     * Returns the item at the given column position (1-based) of the current
+     * result row as a Serial.
+     *
+     * @param index
+     * @return
+     * @throws ScriptException
+     */
+    public Serial getSerial(int index) throws ScriptException {
+        return getCurrentRow().getSerial(index);
+    }
+
+    /**
+     * Returns the item at the given column position (1-based) of the current
+     * result row as a String.
+     *
+     * @param index
+     * @return
+     * @throws ScriptException
+     */
+    public String getString(int index) throws ScriptException {
+        return getCurrentRow().getString(index);
+    }
+
+    /**
+     * Returns the item at the given column position (1-based) of the current
+     * result row as a Rate.
+     *
+     * @param index
+     * @return
+     * @throws ScriptException
+     */
+    public Rate getRate(int index) throws ScriptException {
+        return getCurrentRow().getRate(index);
+    }
+
+    /**
+     * Returns the item at the given column position (1-based) of the current
+     * result row as a Timestamp.
+     *
+     * @param index
+     * @return
+     * @throws ScriptException
+     */
+    public Timestamp getTimestamp(int index) throws ScriptException {
+        return getCurrentRow().getTimestamp(index);
+    }
+
+    /**
+     * Returns the item at the given column position (1-based) of the current
+     * result row as a primitive long. SQL NULL is returned as 0.
+     *
+     * @param index
+     * @return
+     * @throws ScriptException
+     */
+    public long getLong(int index) throws ScriptException {
+        return getCurrentRow().getLong(index);
+    }
+
+    /**
+     * Returns the item at the given column position (1-based) of the current
+     * result row as an int. SQL NULL is returned as 0.
+     *
+     * @param index
+     * @return
+     * @throws ScriptException
+     */
+    public int getInt(int index) throws ScriptException {
+        return getCurrentRow().getInt(index);
+    }
+
+    /**
+     * Determines if the item at the given column position (1-based) of the
+     * current result row was SQL NULL.
+     *
+     * @param index
+     * @return
+     * @throws ScriptException
+     */
+    public boolean isNull(int index) throws ScriptException {
+        return getCurrentRow().isNull(index);
+    }
+    //</editor-fold>
+
+    //<editor-fold defaultstate="collapsed" desc="Column Label Accessors">
+    public Date getDate(String columnLabel) throws ScriptException {
+        return getCurrentRow().getDate(columnLabel);
+    }
+
+    public Money getMoney(String columnLabel) throws ScriptException {
+        return getCurrentRow().getMoney(columnLabel);
+    }
+
+    public Serial getSerial(String columnLabel) throws ScriptException {
+        return getCurrentRow().getSerial(columnLabel);
+    }
+
+    public String getString(String columnLabel) throws ScriptException {
+        return getCurrentRow().getString(columnLabel);
+    }
+
+    public Rate getRate(String columnLabel) throws ScriptException {
+        return getCurrentRow().getRate(columnLabel);
+    }
+
+    public Timestamp getTimestamp(String columnLabel) throws ScriptException {
+        return getCurrentRow().getTimestamp(columnLabel);
+    }
+
+    public long getLong(String columnLabel) throws ScriptException {
+        return getCurrentRow().getLong(columnLabel);
+    }
+
+    public int getInt(String columnLabel) throws ScriptException {
+        return getCurrentRow().getInt(columnLabel);
+    }
+
+    public boolean isNull(String columnLabel) throws ScriptException {
+        return getCurrentRow().isNull(columnLabel);
+    }
+
+    /**
+     * Returns the column position (1-based) for the given column label. Labels
+     * are matched case-insensitively; when a label appears more than once the
+     * left-most column is used.
+     *
+     * @param columnLabel
+     * @return
+     * @throws ScriptException
+     */
+    public int getColumnIndex(String columnLabel) throws ScriptException {
+        return getColumnIndex(columnIndexes, columnLabel);
+    }
+    //</editor-fold>
+
+    private static int getColumnIndex(Map<String, Integer> columnIndexes, String columnLabel) throws ScriptException {
+        if (columnLabel == null) {
+            throw new ScriptException("Null column label passed to getColumnIndex.");
+        }
+        Integer index = columnIndexes == null ? null : columnIndexes.get(columnLabel.toUpperCase());
+        if (index == null) {
+            throw new ScriptException("Column label does not exist in result set: " + columnLabel);
+        }
+        return index;
+    }
+
+    private void buildColumnIndexes(ResultSetMetaData meta) throws SQLException {
+        columnIndexes = new HashMap<>();
+        for (int i = meta.getColumnCount(); i >= 1; i--) {
+            columnIndexes.put(meta.getColumnLabel(i).toUpperCase(), i);
+        }
     }
 
     private DATA_TYPE[] getDataTypesCache(PreparedStatement stmt) throws SQLException {
@@ -283,58 +631,6 @@ public class SQLSingleRun implements AutoCloseable {
         return dataTypes;
     }
 
-    private int setParametersInternal(PreparedStatement stmt, Object parameter, int index) throws SQLException, ScriptException {
-        if (parameter instanceof Collection) {
-            Collection<Object> coll = (Collection) parameter;
-            for (Object obj : coll) {
-                index = setParametersInternal(stmt, obj, index);
-
-            }
-            return index;
-        }
-        String className = parameter.getClass().getName();
-        switch (className) {
-            case "java.math.BigDecimal":
-                stmt.setBigDecimal(index, (BigDecimal) parameter);
-                break;
-            case "java.sql.Date":
-                stmt.setDate(index, (Date) parameter);
-                break;
-            case "java.sql.Timestamp":
-                stmt.setTimestamp(index, (Timestamp) parameter);
-                break;
-            case "java.lang.Integer":
-                stmt.setInt(index, (Integer) parameter);
-                break;
-            case "java.lang.String":
-                stmt.setString(index, (String) parameter);
-                break;
-            case "com.corelationinc.script.Serial":
-                Serial serial = (Serial) parameter;
-                serial.set(stmt, index);
-                break;
-            case "com.corelationinc.script.Money":
-                Money money = (Money) parameter;
-                money.set(stmt, index);
-                break;
-            case "com.corelationinc.script.Rate":
-                Rate rate = (Rate) parameter;
-                rate.set(stmt, index);
-                break;
-            default:
-                throw new ScriptException("Unsupported parameter type: " + className);
-        }
-        index++;
-        return index;
-    }
-
-    private void setParameters(PreparedStatement stmt, Object[] parameters) throws SQLException, ScriptException {
-        int index = 1;
-        for (Object obj : parameters) {
-            index = setParametersInternal(stmt, obj, index);
-        }
-    }
-
     private static DATA_TYPE getColumnType(String columnClassName, int scale) {
         switch (columnClassName) {
             case "java.math.BigDecimal":
@@ -370,255 +666,188 @@ public class SQLSingleRun implements AutoCloseable {
         LONG
     }
 
-    private class DataElement {
-
-        DATA_TYPE type;
-        String value;
-
-        protected DataElement(DATA_TYPE type, String value) {
-            this.value = value;
-            this.type = type;
-        }
-
-        private Serial getSerial() throws ScriptException {
-            if (type == DATA_TYPE.LONG) {
-                Serial s = new Serial();
-                s.fromString(value);
-                return s;
-            } else {
-                throw new ScriptException("Attempted to get a Serial from a non-Serial DataElement!");
-            }
-        }
-
-        private Money getMoney() throws ScriptException {
-            if (type == DATA_TYPE.MONEY) {
-                Money money = new Money();
-                money.fromString(value);
-                return money;
-            } else {
-                throw new ScriptException("Attempted to get a Money from a non-Money DataElement!");
-            }
-        }
+    /**
+     * A single result row. The SQLSingleRun accessors read from a Row that is
+     * reused for every call to next(); rows returned from stream() are
+     * detached copies.
+     */
+    public static final class Row {
 
-        private Date getDate() throws ScriptException {
-            if (type == DATA_TYPE.DATE) {
-                if (value.isEmpty()) {
-                    return null;
-                } else {
-                    return new Date(Long.parseLong(value));
-                }
-            } else {
-                throw new ScriptException("Attempted to get a Date from a non-Date DataElement!");
-            }
-        }
+        private final DATA_TYPE[] types;
+        private final Map<String, Integer> columnIndexes;
+        private final Object[] values;
+        private final long[] longs;
+        private final boolean[] nulls;
 
-        private String getString() throws ScriptException {
-            if (type == DATA_TYPE.STRING) {
-                return value;
-            } else {
-                throw new ScriptException("Attempted to get a String from a non-String DataElement!");
-            }
+        private Row(DATA_TYPE[] types, Map<String, Integer> columnIndexes) {
+            this.types = types;
+            this.columnIndexes = columnIndexes;
+            this.values = new Object[types.length];
+            this.longs = new long[types.length];
+            this.nulls = new boolean[types.length];
         }
 
-        private Rate getRate() throws ScriptException {
-            if (type == DATA_TYPE.RATE) {
-                return new Rate(value);
-            } else {
-                throw new ScriptException("Attempted to get a Rate from a non-Rate DataElement!");
-            }
+        public int getColumnCount() {
+            return types.length;
         }
 
-        private Timestamp getTimestamp() throws ScriptException {
-            if (type == DATA_TYPE.TIMESTAMP) {
-                if (value.isEmpty()) {
-                    return null;
-                } else {
-                    return Timestamp.valueOf(value);
+        /**
+         * Rough heap size of this row, used for cache accounting.
+         */
+        long estimateBytes() {
+            long bytes = 64 + 13L * types.length;
+            for (int i = 0; i < types.length; i++) {
+                Object value = values[i];
+                if (value instanceof String) {
+                    bytes += 40 + 2L * ((String) value).length();
+                } else if (value != null) {
+                    bytes += 32;
                 }
-
-            } else {
-                throw new ScriptException("Attempted to get a Timestamp from a non-Timestamp DataElement!");
-            }
-        }
-
-        private Long getLong() throws ScriptException {
-            if (type == DATA_TYPE.LONG) {
-                return Long.parseLong(value);
-            } else {
-                throw new ScriptException("Attempted to get a Long from a non-Long DataElement!");
             }
+            return bytes;
         }
 
-    }
-
-    private class OrderedDataCollection {
-
-        private final HashMap<Integer, DataElement> map;
-
-        private int iteratorIndex = 1;
-
-        protected OrderedDataCollection() {
-            map = new HashMap<>();
+        public Date getDate(int index) throws ScriptException {
+            return (Date) getValue(index, DATA_TYPE.DATE, "Date");
         }
 
-        private void add(int index, DataElement element) throws ScriptException {
-            if (map.get(index) != null) {
-                throw new ScriptException("Attempted to add element for an existing index!");
-            }
-            map.put(index, element);
+        public Money getMoney(int index) throws ScriptException {
+            return (Money) getValue(index, DATA_TYPE.MONEY, "Money");
         }
 
-        private DataElement get(int index) throws ScriptException {
-            DataElement element = map.get(index);
-            if (element == null) {
-                throw new ScriptException("Attempted to get element for an index which does not exist!");
-            }
-            return element;
+        public Serial getSerial(int index) throws ScriptException {
+            return ScriptUtils.toSerial(getLongValue(index, "Serial"));
         }
 
-        private void addDate(int index, Date date) throws ScriptException {
-            DataElement element = null;
-            if (date == null) {
-                element = new DataElement(DATA_TYPE.DATE, "");
-            } else {
-                element = new DataElement(DATA_TYPE.DATE, String.valueOf(date.getTime()));
-            }
-            add(index, element);
+        public String getString(int index) throws ScriptException {
+            return (String) getValue(index, DATA_TYPE.STRING, "String");
         }
 
-        protected Date getDate(int index) throws ScriptException {
-            DataElement element = get(index);
-            return element.getDate();
+        public Rate getRate(int index) throws ScriptException {
+            return (Rate) getValue(index, DATA_TYPE.RATE, "Rate");
         }
 
-        protected Date getDate() throws ScriptException {
-            return getDate(iteratorIndex++);
+        public Timestamp getTimestamp(int index) throws ScriptException {
+            return (Timestamp) getValue(index, DATA_TYPE.TIMESTAMP, "Timestamp");
         }
 
-        private void addMoney(int index, Money money) throws ScriptException {
-            DataElement element = new DataElement(DATA_TYPE.MONEY, money.toKeyBridgeString());
-            add(index, element);
+        public long getLong(int index) throws ScriptException {
+            return getLongValue(index, "Long");
         }
 
-        protected Money getMoney(int index) throws ScriptException {
-            DataElement element = get(index);
-            return element.getMoney();
+        public int getInt(int index) throws ScriptException {
+            return (int) getLongValue(index, "Long");
         }
 
-        protected Money getMoney() throws ScriptException {
-            return getMoney(iteratorIndex++);
+        public boolean isNull(int index) throws ScriptException {
+            checkIndex(index);
+            return nulls[index - 1];
         }
 
-        private void addSerial(int index, Serial serial) throws ScriptException {
-            DataElement element = new DataElement(DATA_TYPE.LONG, serial.toKeyBridgeString());
-            add(index, element);
+        public Date getDate(String columnLabel) throws ScriptException {
+            return getDate(getColumnIndex(columnIndexes, columnLabel));
         }
 
-        protected Serial getSerial(int index) throws ScriptException {
-            DataElement element = get(index);
-            return element.getSerial();
+        public Money getMoney(String columnLabel) throws ScriptException {
+            return getMoney(getColumnIndex(columnIndexes, columnLabel));
         }
 
-        protected Serial getSerial() throws ScriptException {
-            return getSerial(iteratorIndex++);
+        public Serial getSerial(String columnLabel) throws ScriptException {
+            return getSerial(getColumnIndex(columnIndexes, columnLabel));
         }
 
-        private void addString(int index, String string) throws ScriptException {
-            DataElement element = new DataElement(DATA_TYPE.STRING, string);
-            add(index, element);
+        public String getString(String columnLabel) throws ScriptException {
+            return getString(getColumnIndex(columnIndexes, columnLabel));
         }
 
-        protected String getString(int index) throws ScriptException {
-            DataElement element = get(index);
-            return element.getString();
+        public Rate getRate(String columnLabel) throws ScriptException {
+            return getRate(getColumnIndex(columnIndexes, columnLabel));
         }
 
-        protected String getString() throws ScriptException {
-            return getString(iteratorIndex++);
+        public Timestamp getTimestamp(String columnLabel) throws ScriptException {
+            return getTimestamp(getColumnIndex(columnIndexes, columnLabel));
         }
 
-        private void addRate(int index, Rate rate) throws ScriptException {
-            DataElement element = new DataElement(DATA_TYPE.RATE, rate.toKeyBridgeString());
-            add(index, element);
+        public long getLong(String columnLabel) throws ScriptException {
+            return getLong(getColumnIndex(columnIndexes, columnLabel));
         }
 
-        protected Rate getRate(int index) throws ScriptException {
-            DataElement element = get(index);
-            return element.getRate();
+        public int getInt(String columnLabel) throws ScriptException {
+            return getInt(getColumnIndex(columnIndexes, columnLabel));
         }
 
-        protected Rate getRate() throws ScriptException {
-            return getRate(iteratorIndex++);
+        public boolean isNull(String columnLabel) throws ScriptException {
+            return isNull(getColumnIndex(columnIndexes, columnLabel));
         }
 
-        private void addTimestamp(int index, Timestamp timestamp) throws ScriptException {
-            if (timestamp == null) {
-                DataElement element = new DataElement(DATA_TYPE.TIMESTAMP, "");
-                add(index, element);
-
-            } else {
-                DataElement element = new DataElement(DATA_TYPE.TIMESTAMP, timestamp.toString());
-                add(index, element);
+        private void checkIndex(int index) throws ScriptException {
+            if (index < 1 || index > types.length) {
+                throw new ScriptException("Attempted to get element for an index which does not exist!");
             }
-
-        }
-
-        protected Timestamp getTimestamp(int index) throws ScriptException {
-            DataElement element = get(index);
-            return element.getTimestamp();
-        }
-
-        protected Timestamp getTimestamp() throws ScriptException {
-            return getTimestamp(iteratorIndex++);
-        }
-
-        private void addLong(int index, long lng) throws ScriptException {
-            DataElement element = new DataElement(DATA_TYPE.LONG, String.valueOf(lng));
-            add(index, element);
         }
 
-        protected long getLong(int index) throws ScriptException {
-            DataElement element = get(index);
-            return element.getLong();
+        private Object getValue(int index, DATA_TYPE type, String typeName) throws ScriptException {
+            checkIndex(index);
+            if (types[index - 1] != type) {
+                throw new ScriptException("Attempted to get a " + typeName + " from a non-" + typeName + " column!");
+            }
+            return values[index - 1];
         }
 
-        protected long getLong() throws ScriptException {
-            return getLong(iteratorIndex++);
+        private long getLongValue(int index, String typeName) throws ScriptException {
+            checkIndex(index);
+            DATA_TYPE type = types[index - 1];
+            if (type != DATA_TYPE.LONG && type != DATA_TYPE.SERIAL) {
+                throw new ScriptException("Attempted to get a " + typeName + " from a non-" + typeName + " column!");
+            }
+            return longs[index - 1];
         }
-
     }
 
-    private class ResultMapping {
-
-        private final HashMap<Integer, DATA_TYPE> map;
-
-        protected ResultMapping() {
-            map = new HashMap<>();
-        }
+    /**
+     * Pulls rows from the cursor one at a time. trySplit() fetches a batch of
+     * rows into an array so a parallel stream can process that batch on
+     * another fork-join worker while the splitting thread keeps reading.
+     */
+    private class RowSpliterator extends Spliterators.AbstractSpliterator<Row> {
 
-        protected ResultMapping(DATA_TYPE[] types) throws ScriptException {
-            map = new HashMap<>();
-            addMappings(types);
+        private final int batchSize;
 
+        RowSpliterator(int batchSize) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+            this.batchSize = batchSize;
         }
 
-        protected final void addMappings(DATA_TYPE[] types) throws ScriptException {
-
-            for (int i = 0; i < types.length; i++) {
-                addMapping(i + 1, types[i]);
+        @Override
+        public boolean tryAdvance(Consumer<? super Row> action) {
+            Row row = fetch();
+            if (row == null) {
+                return false;
             }
+            action.accept(row);
+            return true;
         }
 
-        protected final void addMapping(int index, DATA_TYPE type) throws ScriptException {
-            if (map.get(index) != null) {
-                throw new ScriptException("Attempted to add mapping for an existing index!");
+        @Override
+        public Spliterator<Row> trySplit() {
+            Row[] batch = new Row[batchSize];
+            int count = 0;
+            Row row;
+            while (count < batchSize && (row = fetch()) != null) {
+                batch[count++] = row;
             }
-            map.put(index, type);
+            if (count == 0) {
+                return null;
+            }
+            return Spliterators.spliterator(batch, 0, count, characteristics() | Spliterator.SIZED | Spliterator.SUBSIZED);
         }
 
-        private Set<Map.Entry<Integer, DATA_TYPE>> getEntrySet() {
-            return map.entrySet();
+        private Row fetch() {
+            try {
+                return fetchRow();
+            } catch (SQLException | ScriptException e) {
+                throw new IllegalStateException("Unable to fetch next row from SQLSingleRun.", e);
+            }
         }
-
     }
 }
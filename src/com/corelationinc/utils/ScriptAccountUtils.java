@@ -13,8 +13,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -47,6 +48,24 @@ public class ScriptAccountUtils {
         return hasChargeOffShares || hasChargeOffLoans;
     }
 
+    /**
+     * Memoized form of hasChargeOffs. Tasks asking about the same account
+     * share one query per run; pass a null memo to query directly.
+     *
+     * @param memo run-scoped predicate memo, may be null
+     * @param connection
+     * @param accountSerial
+     * @return true if charged-off share or loan exists beneath account
+     * @throws SQLException
+     * @throws com.corelationinc.script.ScriptException
+     */
+    public static boolean hasChargeOffs(PredicateMemo memo, Connection connection, Serial accountSerial) throws SQLException, ScriptException {
+        if (memo == null) {
+            return hasChargeOffs(connection, accountSerial);
+        }
+        return memo.get("hasChargeOffs", accountSerial, () -> hasChargeOffs(connection, accountSerial));
+    }
+
     /**
      * Determines there are any charged-off shares associated with the given
      * account.
@@ -111,6 +130,25 @@ public class ScriptAccountUtils {
 
         }
     }
+
+    /**
+     * Memoized form of hasChargedOffLoans. Tasks asking about the same
+     * account share one query per run; pass a null memo to query directly.
+     *
+     * @param memo run-scoped predicate memo, may be null
+     * @param connection
+     * @param accountSerial
+     * @return true if charged-off loan exists beneath account
+     * @throws SQLException
+     * @throws com.corelationinc.script.ScriptException
+     */
+    public static boolean hasChargedOffLoans(PredicateMemo memo, Connection connection, Serial accountSerial) throws SQLException, ScriptException {
+        if (memo == null) {
+            return hasChargedOffLoans(connection, accountSerial);
+        }
+        return memo.get("hasChargedOffLoans", accountSerial, () -> hasChargedOffLoans(connection, accountSerial));
+    }
+
     /**
      * Determines if the given account has any loans which are delinquent
      * more-than or equal-to the given number of days.
@@ -133,6 +171,27 @@ public class ScriptAccountUtils {
                 LOAN_TYPE_CATEGORY.OPEN_END);
     }
 
+    /**
+     * Memoized form of hasDelinquentLoan over every loan category, keyed by
+     * account and minimum days delinquent. Tasks asking about the same
+     * account share one query per run; pass a null memo to query directly.
+     *
+     * @param memo run-scoped predicate memo, may be null
+     * @param connection
+     * @param accountSerial
+     * @param minimumDaysDelinquent
+     * @return
+     * @throws SQLException
+     * @throws com.corelationinc.script.ScriptException
+     */
+    public static boolean hasDelinquentLoan(PredicateMemo memo, Connection connection, Serial accountSerial, int minimumDaysDelinquent) throws SQLException, ScriptException {
+        if (memo == null) {
+            return hasDelinquentLoan(connection, accountSerial, minimumDaysDelinquent);
+        }
+        return memo.get("hasDelinquentLoan", accountSerial, minimumDaysDelinquent,
+                () -> hasDelinquentLoan(connection, accountSerial, minimumDaysDelinquent));
+    }
+
     /**
      *
      * @param connection
@@ -157,23 +216,7 @@ public class ScriptAccountUtils {
             throw new ScriptException("Empty loan category list passed to hasDelinquentLoan.");
         }
 
-        Set<String> loanTypeCategories = new HashSet<>();
-        for (LOAN_TYPE_CATEGORY category : categories) {
-            switch (category) {
-                case CLOSED_END:
-                    loanTypeCategories.add("CE");
-                    break;
-                case OPEN_END:
-                    loanTypeCategories.add("OE");
-                    break;
-                case LINE_OF_CREDIT:
-                    loanTypeCategories.add("LC");
-                    break;
-                case CREDIT_CARD:
-                    loanTypeCategories.add("CC");
-                    break;
-            }
-        }
+        Set<String> loanTypeCategories = getLoanTypeCategoryCodes(categories);
         String sql = "SELECT"
                 + "    1"
                 + " FROM"
@@ -200,4 +243,171 @@ public class ScriptAccountUtils {
             return rset.next();
         }
     }
+
+    /**
+     * Bulk form of hasChargeOffs. Returns the serials of the given accounts
+     * which have a charged-off share or loan beneath them.
+     *
+     * @param connection
+     * @param accountSerials
+     * @return serials of matching accounts
+     * @throws SQLException
+     * @throws com.corelationinc.script.ScriptException
+     */
+    public static LongHashSet hasChargeOffs(Connection connection, Collection<Serial> accountSerials) throws SQLException, ScriptException {
+        if (connection == null) {
+            throw new ScriptException("Null connection passed to hasChargeOffs.");
+        }
+        if (accountSerials == null) {
+            throw new ScriptException("Null account serial collection passed to hasChargeOffs.");
+        }
+
+        LongHashSet matches = hasChargedOffShares(connection, accountSerials);
+        matches.addAll(hasChargedOffLoans(connection, accountSerials));
+        return matches;
+    }
+
+    /**
+     * Bulk form of hasChargedOffShares. Returns the serials of the given
+     * accounts which have a charged-off share beneath them.
+     *
+     * @param connection
+     * @param accountSerials
+     * @return serials of matching accounts
+     * @throws SQLException
+     * @throws com.corelationinc.script.ScriptException
+     */
+    public static LongHashSet hasChargedOffShares(Connection connection, Collection<Serial> accountSerials) throws SQLException, ScriptException {
+        if (connection == null) {
+            throw new ScriptException("Null connection passed to hasChargedOffShares.");
+        }
+        if (accountSerials == null) {
+            throw new ScriptException("Null account serial collection passed to hasChargedOffShares.");
+        }
+
+        String sql = "SELECT DISTINCT"
+                + "    PARENT_SERIAL"
+                + " FROM"
+                + "    CORE.SHARE"
+                + " WHERE"
+                + "    CHARGE_OFF_DATE IS NOT NULL AND"
+                + "    PARENT_SERIAL IN (" + ScriptUtils.IN_LIST_MARKER + ")";
+        return ScriptUtils.selectSerialSet(connection, sql, ScriptUtils.toLongArray(accountSerials));
+    }
+
+    /**
+     * Bulk form of hasChargedOffLoans. Returns the serials of the given
+     * accounts which have a charged-off loan beneath them.
+     *
+     * @param connection
+     * @param accountSerials
+     * @return serials of matching accounts
+     * @throws SQLException
+     * @throws com.corelationinc.script.ScriptException
+     */
+    public static LongHashSet hasChargedOffLoans(Connection connection, Collection<Serial> accountSerials) throws SQLException, ScriptException {
+        if (connection == null) {
+            throw new ScriptException("Null connection passed to hasChargedOffLoans.");
+        }
+        if (accountSerials == null) {
+            throw new ScriptException("Null account serial collection passed to hasChargedOffLoans.");
+        }
+
+        String sql = "SELECT DISTINCT"
+                + "    PARENT_SERIAL"
+                + " FROM"
+                + "    CORE.LOAN"
+                + " WHERE"
+                + "    CHARGE_OFF_DATE IS NOT NULL AND"
+                + "    PARENT_SERIAL IN (" + ScriptUtils.IN_LIST_MARKER + ")";
+        return ScriptUtils.selectSerialSet(connection, sql, ScriptUtils.toLongArray(accountSerials));
+    }
+
+    /**
+     * Bulk form of hasDelinquentLoan. Returns the serials of the given
+     * accounts which have a loan delinquent more-than or equal-to the given
+     * number of days.
+     *
+     * @param connection
+     * @param accountSerials
+     * @param minimumDaysDelinquent
+     * @return serials of matching accounts
+     * @throws SQLException
+     * @throws com.corelationinc.script.ScriptException
+     */
+    public static LongHashSet hasDelinquentLoan(Connection connection, Collection<Serial> accountSerials, int minimumDaysDelinquent) throws SQLException, ScriptException {
+        return hasDelinquentLoan(
+                connection,
+                accountSerials,
+                minimumDaysDelinquent,
+                LOAN_TYPE_CATEGORY.CLOSED_END,
+                LOAN_TYPE_CATEGORY.CREDIT_CARD,
+                LOAN_TYPE_CATEGORY.LINE_OF_CREDIT,
+                LOAN_TYPE_CATEGORY.OPEN_END);
+    }
+
+    /**
+     * Bulk form of hasDelinquentLoan, limited to the given loan categories.
+     *
+     * @param connection
+     * @param accountSerials
+     * @param minimumDaysDelinquent
+     * @param categories
+     * @return serials of matching accounts
+     * @throws ScriptException
+     * @throws SQLException
+     */
+    public static LongHashSet hasDelinquentLoan(Connection connection, Collection<Serial> accountSerials, int minimumDaysDelinquent, LOAN_TYPE_CATEGORY... categories) throws ScriptException, SQLException {
+        if (connection == null) {
+            throw new ScriptException("Null connection passed to hasDelinquentLoan.");
+        }
+        if (accountSerials == null) {
+            throw new ScriptException("Null account serial collection passed to hasDelinquentLoan.");
+        }
+        if (minimumDaysDelinquent < 0) {
+            throw new ScriptException("Negative minimum days delinquent passed to hasDelinquentLoan.");
+        }
+        if (categories == null) {
+            throw new ScriptException("Empty loan category list passed to hasDelinquentLoan.");
+        }
+
+        Set<String> loanTypeCategories = getLoanTypeCategoryCodes(categories);
+        String sql = "SELECT DISTINCT"
+                + "    LOAN.PARENT_SERIAL"
+                + " FROM"
+                + "    CORE.LOAN AS LOAN INNER JOIN"
+                + "    CORE.LN_TYPE AS LN_TYPE ON"
+                + "        LOAN.TYPE_SERIAL = LN_TYPE.SERIAL LEFT OUTER JOIN"
+                + "    CORE.ENV AS ENV ON"
+                + "        ENV.SERIAL > 0"
+                + " WHERE"
+                + "    LOAN.PAYMENT_DUE_DATE + ? DAYS < ENV.POSTING_DATE AND"
+                + "    LOAN.BALANCE <> 0 AND"
+                + "    LN_TYPE.CATEGORY IN (" + ScriptUtils.createInStatementVariables(loanTypeCategories) + ") AND"
+                + "    LOAN.CLOSE_DATE IS NULL AND"
+                + "    LOAN.CHARGE_OFF_DATE IS NULL AND"
+                + "    LOAN.PARENT_SERIAL IN (" + ScriptUtils.IN_LIST_MARKER + ")";
+        return ScriptUtils.selectSerialSet(connection, sql, ScriptUtils.toLongArray(accountSerials), minimumDaysDelinquent, loanTypeCategories);
+    }
+
+    private static Set<String> getLoanTypeCategoryCodes(LOAN_TYPE_CATEGORY... categories) {
+        Set<String> loanTypeCategories = new LinkedHashSet<>();
+        for (LOAN_TYPE_CATEGORY category : categories) {
+            switch (category) {
+                case CLOSED_END:
+                    loanTypeCategories.add("CE");
+                    break;
+                case OPEN_END:
+                    loanTypeCategories.add("OE");
+                    break;
+                case LINE_OF_CREDIT:
+                    loanTypeCategories.add("LC");
+                    break;
+                case CREDIT_CARD:
+                    loanTypeCategories.add("CC");
+                    break;
+            }
+        }
+        return loanTypeCategories;
+    }
 }
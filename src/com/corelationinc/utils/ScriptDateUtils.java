@@ -9,7 +9,6 @@ import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
@@ -49,6 +48,17 @@ public class ScriptDateUtils {
         }
     }
 
+    /**
+     * Returns the current posting date from the run's environment snapshot.
+     *
+     * @param environment
+     * @return
+     * @throws ScriptException
+     */
+    public static Date getToday(EnvironmentSnapshot environment) throws ScriptException {
+        return checkEnvironment(environment).getPostingDate();
+    }
+
     /**
      * Returns the day before the current posting date.
      *
@@ -78,6 +88,18 @@ public class ScriptDateUtils {
         }
     }
 
+    /**
+     * Returns the day before the current posting date, from the run's
+     * environment snapshot.
+     *
+     * @param environment
+     * @return
+     * @throws ScriptException
+     */
+    public static Date getYesterday(EnvironmentSnapshot environment) throws ScriptException {
+        return checkEnvironment(environment).getYesterday();
+    }
+
     /**
      * Returns the day after the current posting date.
      *
@@ -91,6 +113,18 @@ public class ScriptDateUtils {
         return addXDays(today, 1);
     }
 
+    /**
+     * Returns the day after the current posting date, from the run's
+     * environment snapshot.
+     *
+     * @param environment
+     * @return
+     * @throws ScriptException
+     */
+    public static Date getTomorrow(EnvironmentSnapshot environment) throws ScriptException {
+        return checkEnvironment(environment).getTomorrow();
+    }
+
     /**
      * Converts java.util.Date variables into java.sql.date variables.
      *
@@ -106,6 +140,22 @@ public class ScriptDateUtils {
         return sqlDate;
     }
 
+    /**
+     * Returns the number of days between 1970-01-01 and the given date. The
+     * difference of two epoch days equals the difference of DB2's DAYS() for
+     * the same two dates.
+     *
+     * @param date
+     * @return
+     * @throws ScriptException
+     */
+    public static int toEpochDay(Date date) throws ScriptException {
+        if (date == null) {
+            throw new ScriptException("Cannot convert a null date to an epoch day.");
+        }
+        return CalendarMath.epochDay(date);
+    }
+
     /**
      * Returns a date variable corresponding to the date x days in the past.
      * <br></br>
@@ -138,6 +188,22 @@ public class ScriptDateUtils {
         }
     }
 
+    /**
+     * Returns a date variable corresponding to the date x days in the past,
+     * from the run's environment snapshot.
+     * <br></br>
+     * <p>
+     * ENV.POSTING_DATE - X DAYS</p>
+     *
+     * @param environment
+     * @param days
+     * @return
+     * @throws ScriptException
+     */
+    public static Date getPreviousDate(EnvironmentSnapshot environment, int days) throws ScriptException {
+        return checkEnvironment(environment).getPreviousDate(days);
+    }
+
     /**
      * Returns a date x number of years in the past, relative to the given date.
      * <br></br>
@@ -340,7 +406,8 @@ public class ScriptDateUtils {
      * Determines the number of days between the provided start and end date.
      * (inclusive)
      * <br></br>
-     * startDate must be chronologically before the endDate.
+     * startDate should be chronologically before the endDate; if it is after,
+     * the result is negative.
      *
      * @param startDate
      * @param endDate
@@ -354,28 +421,7 @@ public class ScriptDateUtils {
             throw new ScriptException("Cannot evaluate range for null date expression.");
         }
 
-        if (startDate.equals(endDate)) {
-            return 0;
-        }
-
-        LocalDate start = startDate.toLocalDate();
-        LocalDate end = endDate.toLocalDate();
-        int ctr = 1;
-        if (start.isBefore(end)) {
-
-            while (start.plusDays(ctr).isBefore(end)) {
-                ctr++;
-            }
-            return ctr;
-
-        } else {
-
-            while (start.minusDays(ctr).isBefore(end)) {
-                ctr++;
-            }
-            return -ctr;
-        }
-
+        return CalendarMath.epochDay(endDate) - CalendarMath.epochDay(startDate);
     }
     
     /**
@@ -394,26 +440,7 @@ public class ScriptDateUtils {
         } else if (endDate == null) {
             throw new ScriptException("Cannot evaluate range for null date expression.");
         } 
-        if (startDate.equals(endDate)) {
-            return 0;
-        }
-        if (startDate.after(endDate)) {
-            Date tempDate = startDate;
-            startDate = endDate;
-            endDate = tempDate;
-        }
-        int count = 0;
-        Date tempDate = startDate;
-        while (tempDate.before(endDate)) {
-                count++;
-                tempDate = ScriptDateUtils.addXMonths(startDate, count);
-            }
-        if (tempDate.equals(endDate)) {
-            return count;
-        } else {
-            count--;
-            return count;
-        }
+        return CalendarMath.monthsBetween(CalendarMath.epochDay(startDate), CalendarMath.epochDay(endDate));
     }  
     
     /**
@@ -466,6 +493,16 @@ public class ScriptDateUtils {
         }
     }
 
+    /*
+     * Returns the first day of the current month, from the run's environment snapshot.
+     * @param EnvironmentSnapshot
+     * @return Date
+     * @throws ScriptException
+     */
+    public static Date getMonthStart(EnvironmentSnapshot environment) throws ScriptException {
+        return checkEnvironment(environment).getMonthStart();
+    }
+
     /*
      * Returns the current posting date in letter format: "Month Day, Year".
      * @param Connection
@@ -494,6 +531,16 @@ public class ScriptDateUtils {
         }
     }
 
+    /*
+     * Returns the current posting date in letter format: "Month Day, Year", from the run's environment snapshot.
+     * @param EnvironmentSnapshot
+     * @return String
+     * @throws ScriptException
+     */
+    public static String getTodayLetterDate(EnvironmentSnapshot environment) throws ScriptException {
+        return checkEnvironment(environment).getTodayLetterDate();
+    }
+
     /*
      * Returns SQL date from string using SimpleDateFormat string.
      * @param datestring
@@ -541,6 +588,16 @@ public class ScriptDateUtils {
         }
     }
 
+    /*
+     * Returns first day of the previous month, from the run's environment snapshot.
+     * @param EnvironmentSnapshot
+     * @return Date
+     * @throws ScriptException
+     */
+    public static Date getMonthStartPreviousMonth(EnvironmentSnapshot environment) throws ScriptException {
+        return checkEnvironment(environment).getMonthStartPreviousMonth();
+    }
+
     /*
      * Returns last day of the previous month
      * @param Connection
@@ -548,29 +605,23 @@ public class ScriptDateUtils {
      * @throws SQLException, ScriptException
      */
     public static String getYear(Date targetDate) throws Exception {
-        return getValuesFromDate(targetDate, 0, 4);
+        return pad(CalendarMath.getYear(toEpochDay(targetDate)), 4);
     }
 
     public static String getMonth(Date targetDate) throws Exception {
-        return getValuesFromDate(targetDate, 5, 7);
+        return pad(CalendarMath.getMonth(toEpochDay(targetDate)), 2);
     }
 
     public static String getDays(Date targetDate) throws Exception {
-        return getValuesFromDate(targetDate, 8, 10);
+        return pad(CalendarMath.getDayOfMonth(toEpochDay(targetDate)), 2);
     }
 
-    private static String getValuesFromDate(Date targetDate, int beginIndex, int endIndex) throws Exception {
-        if (targetDate == null) {
-            throw new ScriptException("Cannot pass a null target date");
-        }
-
-        String date = targetDate.toString();
-
-        if (date.length() != 10) {
+    private static String pad(int value, int width) throws ScriptException {
+        String digits = Integer.toString(value);
+        if (digits.length() > width || value < 0) {
             throw new ScriptException("Invalid date size, it must be 10 characters long");
         }
-
-        return date.substring(beginIndex, endIndex);
+        return "0000".substring(0, width - digits.length()) + digits;
     }
 
     public static Date getMonthEndPreviousMonth(Connection connection) throws SQLException, ScriptException {
@@ -595,6 +646,23 @@ public class ScriptDateUtils {
         }
     }
 
+    /*
+     * Returns last day of the previous month, from the run's environment snapshot.
+     * @param EnvironmentSnapshot
+     * @return Date
+     * @throws ScriptException
+     */
+    public static Date getMonthEndPreviousMonth(EnvironmentSnapshot environment) throws ScriptException {
+        return checkEnvironment(environment).getMonthEndPreviousMonth();
+    }
+
+    private static EnvironmentSnapshot checkEnvironment(EnvironmentSnapshot environment) throws ScriptException {
+        if (environment == null) {
+            throw new ScriptException("Attempted to read posting date from null environment snapshot.");
+        }
+        return environment;
+    }
+
     public enum CalandarQuarter {
         FIRST,
         SECOND,
@@ -749,7 +817,7 @@ public class ScriptDateUtils {
     }
 
     public static boolean isLeapYear(Date date) throws Exception {
-        return isLeapYear(getYear(date));
+        return CalendarMath.isLeapYear(CalendarMath.getYear(toEpochDay(date)));
     }
 
     public static boolean isLeapYear(String year) throws Exception {
@@ -761,12 +829,6 @@ public class ScriptDateUtils {
             throw new ScriptException("The year must be 4 characters long");
         }
 
-        Integer leapYear = Integer.valueOf(year);
-
-        if (leapYear % 400 == 0) {
-            return true;
-        }
-
-        return leapYear % 100 != 0 && leapYear % 4 == 0;
+        return CalendarMath.isLeapYear(Integer.parseInt(year));
     }
 }
@@ -7,6 +7,8 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 
 /**
+ * Money and Money/Rate operations run on FixedPointMath (long cents and
+ * scaled longs); the BigDecimal overloads remain for other scales.
  *
  * @author JTowner
  */
@@ -14,38 +16,15 @@ public class ScriptMathUtils {
 
     public static String CLASS_NAME = "ScriptMathUtils";
 
-    private static class Variable {
-
-        private final Object var;
-        private final String varName;
-        private final String methodHandler;
-
-        public Variable(Object var, String varName, String methodHandler) throws ScriptException {
-            if (varName == null || varName.isEmpty()) {
-                throw new ScriptException("Cannot pass a null or empty variable name");
-            }
-
-            if (methodHandler == null || methodHandler.isEmpty()) {
-                throw new ScriptException("Cannot pass a null or empty variable name");
-            }
-
-            this.var = var;
-            this.varName = varName;
-            this.methodHandler = methodHandler;
-        }
-
-        public void verifyContents() throws ScriptException {
-            if (this.var == null) {
-                throw new ScriptException("Variable Name: " + this.varName + " cannot be null in method: " + this.methodHandler);
-            }
+    private static void verifyArgument(Object var, String varName, String methodName) throws ScriptException {
+        if (var == null) {
+            throw new ScriptException("Variable Name: " + varName + " cannot be null in method: " + ScriptMathUtils.CLASS_NAME + "." + methodName);
         }
     }
 
-    private static void verifyArguments(Variable... varList) throws ScriptException {
-        if (varList.length > 0) {
-            for (Variable var : varList) {
-                var.verifyContents();
-            }
+    private static void verifyDivisor(boolean isZero) throws ScriptException {
+        if (isZero) {
+            throw new ScriptException("Variable Name: divisor cannot be 0 in method: " + ScriptMathUtils.CLASS_NAME + ".divide");
         }
     }
 
@@ -60,10 +39,17 @@ public class ScriptMathUtils {
      * divisor
      */
     public static Money divide(Money dividend, Rate divisor) throws Exception {
-        return new Money(divide(
-                new BigDecimal(dividend.toKeyBridgeString()),
-                new BigDecimal(divisor.toKeyBridgeString()),
-                2, RoundingMode.HALF_UP).toString());
+        verifyArgument(dividend, "dividend", "divide");
+        verifyArgument(divisor, "divisor", "divide");
+        FixedPointMath.ScaledRate rate = FixedPointMath.ScaledRate.of(divisor);
+        if (rate == null) {
+            return new Money(divide(
+                    new BigDecimal(dividend.toKeyBridgeString()),
+                    new BigDecimal(divisor.toKeyBridgeString()),
+                    2, RoundingMode.HALF_UP).toString());
+        }
+        verifyDivisor(rate.isZero());
+        return new Money(FixedPointMath.divide(dividend.getPennies(), rate));
     }
 
     /**
@@ -77,11 +63,10 @@ public class ScriptMathUtils {
      * divisor
      */
     public static Money divide(Money dividend, Money divisor) throws Exception {
-
-        return new Money(divide(
-                new BigDecimal(dividend.toKeyBridgeString()),
-                new BigDecimal(divisor.toKeyBridgeString()),
-                2, RoundingMode.HALF_UP).toString());
+        verifyArgument(dividend, "dividend", "divide");
+        verifyArgument(divisor, "divisor", "divide");
+        verifyDivisor(divisor.isZero());
+        return new Money(FixedPointMath.divideCents(dividend.getPennies(), divisor.getPennies()));
     }
 
     /**
@@ -96,14 +81,9 @@ public class ScriptMathUtils {
      * divisor
      */
     public static BigDecimal divide(BigDecimal dividend, BigDecimal divisor, int scale, RoundingMode roundMode) throws Exception {
-        String methodHandler = ScriptMathUtils.CLASS_NAME + ".divide";
-        verifyArguments(
-                new Variable(dividend, "dividend", methodHandler),
-                new Variable(divisor, "divisor", methodHandler));
-
-        if (divisor.compareTo(BigDecimal.ZERO) == 0) {
-            throw new ScriptException("Variable Name: divisor cannot be 0 in method: " + ScriptMathUtils.CLASS_NAME + ".divide");
-        }
+        verifyArgument(dividend, "dividend", "divide");
+        verifyArgument(divisor, "divisor", "divide");
+        verifyDivisor(divisor.signum() == 0);
 
         return dividend.divide(divisor, scale, roundMode);
     }
@@ -124,11 +104,17 @@ public class ScriptMathUtils {
      * @throws Exception - if null variables are passed
      */
     public static Money multiply(Money multiplicand, Rate multiplier) throws Exception {
-        return new Money(
-                multiply(
-                        new BigDecimal(multiplicand.toKeyBridgeString()),
-                        new BigDecimal(multiplier.toKeyBridgeString()),
-                        2, RoundingMode.HALF_UP).toString());
+        verifyArgument(multiplicand, "multiplicand", "multiply");
+        verifyArgument(multiplier, "multiplier", "multiply");
+        FixedPointMath.ScaledRate rate = FixedPointMath.ScaledRate.of(multiplier);
+        if (rate == null) {
+            return new Money(
+                    multiply(
+                            new BigDecimal(multiplicand.toKeyBridgeString()),
+                            new BigDecimal(multiplier.toKeyBridgeString()),
+                            2, RoundingMode.HALF_UP).toString());
+        }
+        return new Money(FixedPointMath.multiply(multiplicand.getPennies(), rate));
     }
 
     /**
@@ -140,11 +126,9 @@ public class ScriptMathUtils {
      * @throws Exception - if null variables are passed
      */
     public static Money multiply(Money multiplicand, Money multiplier) throws Exception {
-        return new Money(
-                multiply(
-                        new BigDecimal(multiplicand.toString()),
-                        new BigDecimal(multiplier.toString()),
-                        2, RoundingMode.HALF_UP).toString());
+        verifyArgument(multiplicand, "multiplicand", "multiply");
+        verifyArgument(multiplier, "multiplier", "multiply");
+        return new Money(FixedPointMath.multiplyCents(multiplicand.getPennies(), multiplier.getPennies()));
     }
 
     /**
@@ -158,10 +142,8 @@ public class ScriptMathUtils {
      * @throws Exception - if null variables are passed
      */
     public static BigDecimal multiply(BigDecimal multiplicand, BigDecimal multiplier, int scale, RoundingMode roundMode) throws Exception {
-        String methodHandler = ScriptMathUtils.CLASS_NAME + ".multiply";
-        verifyArguments(
-                new Variable(multiplicand, "multiplicand", methodHandler),
-                new Variable(multiplier, "multiplier", methodHandler));
+        verifyArgument(multiplicand, "multiplicand", "multiply");
+        verifyArgument(multiplier, "multiplier", "multiply");
 
         return multiplicand.multiply(multiplier).setScale(scale, roundMode);
     }
@@ -193,10 +175,8 @@ public class ScriptMathUtils {
      * @throws Exception - if null variables are passed
      */
     public static BigDecimal add(BigDecimal amount, BigDecimal augend, int scale, RoundingMode roundMode) throws Exception {
-        String methodHandler = ScriptMathUtils.CLASS_NAME + ".add";
-        verifyArguments(
-                new Variable(amount, "amount", methodHandler),
-                new Variable(augend, "augend", methodHandler));
+        verifyArgument(amount, "amount", "add");
+        verifyArgument(augend, "augend", "add");
 
         return amount.add(augend).setScale(scale, roundMode);
     }
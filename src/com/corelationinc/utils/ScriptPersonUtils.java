@@ -1,7 +1,9 @@
 package com.corelationinc.utils;
 
+import com.corelationinc.script.ScriptException;
 import com.corelationinc.script.Serial;
 import java.sql.Connection;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -45,4 +47,51 @@ public class ScriptPersonUtils {
             return rset.next();
         }
     }
+
+    /**
+     * Memoized form of isAtLeastAge, keyed by person and age. Tasks asking
+     * about the same person share one query per run; pass a null memo to
+     * query directly.
+     *
+     * @param memo run-scoped predicate memo, may be null
+     * @param connection current connection to the database.
+     * @param personSerial person serial to check.
+     * @param ageInyears minimum age of the person in years.
+     * @return true if the member is over given age
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public static boolean isAtLeastAge(PredicateMemo memo, Connection connection, Serial personSerial, int ageInyears) throws SQLException, ScriptException {
+        if (memo == null) {
+            return isAtLeastAge(connection, personSerial, ageInyears);
+        }
+        return memo.get("isAtLeastAge", personSerial, ageInyears,
+                () -> isAtLeastAge(connection, personSerial, ageInyears));
+    }
+
+    /**
+     * Determines if a person is at least the given number of years old, using
+     * the person's BIRTH_DATE from the driver row and the run's environment
+     * snapshot, without a database round-trip.
+     * <br></br>
+     * Note: If the person does not have a birth-date populated, this function
+     * returns true.
+     * <br></br>
+     * PERSON.BIRTH_DATE + X YEARS <= ENV.POSTING_DATE
+     *
+     * @param birthDate the person's birth date, may be null.
+     * @param environment the run's environment snapshot.
+     * @param ageInyears minimum age of the person in years.
+     * @return true if the member is over given age
+     * @throws ScriptException
+     */
+    public static boolean isAtLeastAge(Date birthDate, EnvironmentSnapshot environment, int ageInyears) throws ScriptException {
+        if (environment == null) {
+            throw new ScriptException("Null environment snapshot passed to isAtLeastAge.");
+        }
+        if (birthDate == null) {
+            return true;
+        }
+        return !birthDate.toLocalDate().plusYears(ageInyears).isAfter(environment.getPostingLocalDate());
+    }
 }
@@ -14,6 +14,7 @@ import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.LinkedList;
 
 /**
@@ -49,6 +50,63 @@ public class ScriptShareUtils {
     }
 
 
+    /**
+     * Determines if a share has been open for a given number of days, without
+     * a database round-trip. Use the share's OPEN_DATE from the driver row and
+     * the run's posting date as an epoch day (see
+     * MultiThreadScript.getPostingEpochDay()).
+     * <br></br>
+     * ENV.POSTING_DATE - X DAYS >= SHARE.OPEN_DATE
+     *
+     * @param openDate
+     * @param postingEpochDay
+     * @param days
+     * @return
+     * @throws com.corelationinc.script.ScriptException
+     */
+    public static boolean openForAtLeastXDays(Date openDate, int postingEpochDay, int days) throws ScriptException {
+        if (days < 0) {
+            throw new ScriptException("Negative number of days passed to openForAtLeastXDays.");
+        }
+
+        return getAgeInDays(openDate, postingEpochDay) >= days;
+    }
+
+    /**
+     * Determines if a share has been open for a given number of days, using the
+     * run's environment snapshot for the posting date.
+     *
+     * @param openDate
+     * @param environment
+     * @param days
+     * @return
+     * @throws com.corelationinc.script.ScriptException
+     */
+    public static boolean openForAtLeastXDays(Date openDate, EnvironmentSnapshot environment, int days) throws ScriptException {
+        if (environment == null) {
+            throw new ScriptException("Null environment snapshot passed to openForAtLeastXDays.");
+        }
+        return openForAtLeastXDays(openDate, environment.getPostingEpochDay(), days);
+    }
+
+    /**
+     * Returns the number of days a share has been open, without a database
+     * round-trip. Matches the SQL form, including a null OPEN_DATE yielding 0.
+     * <br></br>
+     * DAYS(ENV.POSTING_DATE) - DAYS(SHARE.OPEN_DATE)
+     *
+     * @param openDate
+     * @param postingEpochDay
+     * @return
+     * @throws com.corelationinc.script.ScriptException
+     */
+    public static int getAgeInDays(Date openDate, int postingEpochDay) throws ScriptException {
+        if (openDate == null) {
+            return 0;
+        }
+        return postingEpochDay - ScriptDateUtils.toEpochDay(openDate);
+    }
+
     /**
      * Returns the number of days a given share has been open.
      * <br></br>
@@ -154,6 +212,23 @@ public class ScriptShareUtils {
         }
     }
 
+    /**
+     * Returns a batch loader answering isNegative for many shares at once.
+     * Register it with the script in beforeTasks() and call load() from the
+     * tasks; concurrent lookups are sent to the database as one IN-list.
+     *
+     * @return
+     * @throws com.corelationinc.script.ScriptException
+     */
+    public static BatchLoader<Boolean> createNegativeLoader() throws ScriptException {
+        return BatchLoader.exists("SELECT"
+                + "    SHARE.SERIAL"
+                + " FROM"
+                + "    CORE.SHARE AS SHARE"
+                + " WHERE"
+                + "    SHARE.BALANCE < 0 AND"
+                + "    SHARE.SERIAL IN (" + ScriptUtils.IN_LIST_MARKER + ")");
+    }
 
     /**
      * Returns the number of consecutive days a share has carried a balance
@@ -177,35 +252,35 @@ public class ScriptShareUtils {
             throw new ScriptException("Null amount passed to daysBelowAmount.");
         }
 
-        String sql = "WITH lastMonetaryAboveAmount(targetAccessKey,postingDate) AS ("
+        // The share predicates sit inside the CTE so only the one share's
+        // monetary history is grouped, rather than every posted MONETARY row.
+        String sql = "WITH lastMonetaryAboveAmount(postingDate) AS ("
                 + "    SELECT"
-                + "        MONETARY.TARGET_ACCESS_KEY,"
                 + "        MAX(MONETARY.POSTING_DATE)"
                 + "    FROM"
-                + "        CORE.MONETARY AS MONETARY "
+                + "        CORE.SHARE AS SHARE INNER JOIN"
+                + "        CORE.MONETARY AS MONETARY ON"
+                + "            MONETARY.TARGET_ACCESS_KEY = SHARE.STORED_ACCESS_KEY"
                 + "    WHERE"
+                + "        SHARE.SERIAL = ? AND"
+                + "        SHARE.BALANCE < ? AND"
                 + "        MONETARY.STATUS='P' AND"
                 + "        MONETARY.NEW_BALANCE < ? AND"
                 + "        MONETARY.NEW_BALANCE - MONETARY.PRINCIPAL >= ?"
-                + "    GROUP BY"
-                + "        MONETARY.TARGET_ACCESS_KEY"
                 + "    )"
                 + " SELECT"
                 + "    DAYS(ENV.POSTING_DATE) - DAYS(lastMonetaryAboveAmount.postingDate)"
                 + " FROM"
-                + "	CORE.SHARE AS SHARE INNER JOIN"
-                + "	lastMonetaryAboveAmount ON"
-                + "	   SHARE.STORED_ACCESS_KEY = lastMonetaryAboveAmount.targetAccessKey LEFT OUTER JOIN"
+                + "    lastMonetaryAboveAmount LEFT OUTER JOIN"
                 + "    CORE.ENV AS ENV ON"
                 + "        ENV.SERIAL > 0"
                 + " WHERE"
-                + "    SHARE.BALANCE < ? AND"
-                + "    SHARE.SERIAL = ?";
+                + "    lastMonetaryAboveAmount.postingDate IS NOT NULL";
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            amount.set(stmt, 1);
+            shareSerial.set(stmt, 1);
             amount.set(stmt, 2);
             amount.set(stmt, 3);
-            shareSerial.set(stmt, 4);
+            amount.set(stmt, 4);
             ResultSet rset = stmt.executeQuery();
             if (rset.next()) {
                 return rset.getInt(1);
@@ -213,4 +288,55 @@ public class ScriptShareUtils {
             return 0;
         }
     }
+
+    /**
+     * Bulk form of daysBelowAmount. Returns, for each of the given shares which
+     * currently carries a balance below the given amount, the number of days
+     * since its balance last dropped below that amount. Shares that are not
+     * below the amount, or have no such monetary history, are absent from the
+     * map (daysBelowAmount returns 0 for them).
+     *
+     * @param connection
+     * @param shareSerials
+     * @param amount
+     * @return map of share serial to days below amount
+     * @throws SQLException
+     * @throws com.corelationinc.script.ScriptException
+     */
+    public static LongIntHashMap daysBelowAmount(Connection connection, Collection<Serial> shareSerials, Money amount) throws SQLException, ScriptException {
+        if (connection == null) {
+            throw new ScriptException("Null connection passed to daysBelowAmount.");
+        }
+        if (shareSerials == null) {
+            throw new ScriptException("Null share serial collection passed to daysBelowAmount.");
+        }
+        if (amount == null) {
+            throw new ScriptException("Null amount passed to daysBelowAmount.");
+        }
+
+        String sql = "SELECT"
+                + "    SHARE.SERIAL,"
+                + "    DAYS(ENV.POSTING_DATE) - DAYS(MAX(MONETARY.POSTING_DATE))"
+                + " FROM"
+                + "    CORE.SHARE AS SHARE INNER JOIN"
+                + "    CORE.MONETARY AS MONETARY ON"
+                + "        MONETARY.TARGET_ACCESS_KEY = SHARE.STORED_ACCESS_KEY LEFT OUTER JOIN"
+                + "    CORE.ENV AS ENV ON"
+                + "        ENV.SERIAL > 0"
+                + " WHERE"
+                + "    SHARE.BALANCE < ? AND"
+                + "    MONETARY.STATUS='P' AND"
+                + "    MONETARY.NEW_BALANCE < ? AND"
+                + "    MONETARY.NEW_BALANCE - MONETARY.PRINCIPAL >= ? AND"
+                + "    SHARE.SERIAL IN (" + ScriptUtils.IN_LIST_MARKER + ")"
+                + " GROUP BY"
+                + "    SHARE.SERIAL,"
+                + "    ENV.POSTING_DATE";
+        long[] keys = ScriptUtils.toLongArray(shareSerials);
+        LongIntHashMap daysBelow = new LongIntHashMap(keys.length);
+        ScriptUtils.selectInChunks(connection, sql, keys,
+                rset -> daysBelow.put(rset.getLong(1), rset.getInt(2)),
+                amount, amount, amount);
+        return daysBelow;
+    }
 }
@@ -38,12 +38,12 @@ public class ScriptUtils {
             return "";
         }
 
-        String questionMarks = "";
-        for (int i = 0; i < variableCount; i++) {
-            questionMarks += "?,";
+        StringBuilder questionMarks = new StringBuilder(2 * variableCount);
+        questionMarks.append('?');
+        for (int i = 1; i < variableCount; i++) {
+            questionMarks.append(",?");
         }
-
-        return questionMarks.substring(0, questionMarks.length() - 1);
+        return questionMarks.toString();
     }
 
     /**
@@ -119,6 +119,114 @@ public class ScriptUtils {
     }
 
 
+    /**
+     * Marker replaced with a list of parameter markers (or a temporary table
+     * sub-select) by KeySetQuery.
+     */
+    public static final String IN_LIST_MARKER = "{IN}";
+
+    /**
+     * Largest number of keys bound into a single IN-list by KeySetQuery and
+     * the bulk lookup functions. Keeps statements well under DB2's parameter marker limit.
+     */
+    public static final int IN_LIST_CHUNK_SIZE = 500;
+
+    /**
+     * Converts the given serials to a de-duplicated, ascending primitive
+     * array. Null references and null serials are skipped.
+     *
+     * @param serials
+     * @return
+     */
+    public static long[] toLongArray(Collection<Serial> serials) {
+        LongHashSet set = new LongHashSet(serials.size());
+        for (Serial serial : serials) {
+            set.add(serial);
+        }
+        return set.toArray();
+    }
+
+    /**
+     * Runs a query for a set of keys and collects the first column of every
+     * result row. The SQL must contain IN_LIST_MARKER where the IN-list
+     * parameter markers belong, and the IN-list must be the last set of
+     * parameters in the statement; leading parameters are bound before the
+     * keys.
+     * <br>Ex.</br>
+     * <br>selectSerialSet(connection, "SELECT PARENT_SERIAL FROM CORE.LOAN
+     * WHERE BALANCE &gt; ? AND PARENT_SERIAL IN ({IN})", accountSerials,
+     * minimumBalance)</br>
+     *
+     * @param connection
+     * @param sqlTemplate
+     * @param keys
+     * @param leadingParameters
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public static LongHashSet selectSerialSet(Connection connection, String sqlTemplate, long[] keys, Object... leadingParameters) throws SQLException, ScriptException {
+        LongHashSet result = new LongHashSet();
+        selectInChunks(connection, sqlTemplate, keys, rset -> result.add(rset.getLong(1)), leadingParameters);
+        return result;
+    }
+
+    /**
+     * Handles a single result row for selectInChunks().
+     */
+    public interface RowHandler {
+
+        void handle(ResultSet rset) throws SQLException, ScriptException;
+    }
+
+    /**
+     * Runs a query for a set of keys and passes every result row to the given
+     * handler. See KeySetQuery for how the keys are sent. The SQL must
+     * contain IN_LIST_MARKER where the IN-list parameter markers belong, and
+     * the IN-list must be the last set of parameters in the statement; leading
+     * parameters are bound before the keys.
+     *
+     * @param connection
+     * @param sqlTemplate
+     * @param keys
+     * @param handler
+     * @param leadingParameters
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public static void selectInChunks(Connection connection, String sqlTemplate, long[] keys, RowHandler handler, Object... leadingParameters) throws SQLException, ScriptException {
+        new KeySetQuery(sqlTemplate, leadingParameters).run(connection, keys, handler);
+    }
+
+    /**
+     * Returns the primitive value of a Serial. A null reference or a null
+     * Serial both yield 0.
+     *
+     * @param serial
+     * @return
+     */
+    public static long toLong(Serial serial) {
+        if (serial == null || serial.isNull()) {
+            return 0;
+        }
+        return Long.parseLong(serial.toKeyBridgeString());
+    }
+
+    /**
+     * Returns a Serial for the given primitive value. A value of 0 yields a
+     * null Serial, matching Serial.get() for a NULL column.
+     *
+     * @param value
+     * @return
+     */
+    public static Serial toSerial(long value) {
+        Serial serial = new Serial();
+        if (value != 0) {
+            serial.fromKeyBridgeString(String.valueOf(value));
+        }
+        return serial;
+    }
+
     public enum LOAN_TYPE_CATEGORY {
 
         CLOSED_END,
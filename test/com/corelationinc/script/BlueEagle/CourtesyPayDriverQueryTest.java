@@ -0,0 +1,123 @@
+package com.corelationinc.script.BlueEagle;
+
+import com.corelationinc.utils.SyntheticCoreData;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs the CourtesyPay driver query against SyntheticCoreData in an
+ * in-memory H2 database and checks it selects each person's oldest open
+ * Checking - Regular share, ranking shares without an OPEN_DATE last as DB2
+ * does.
+ *
+ * @author stosti
+ */
+public class CourtesyPayDriverQueryTest {
+
+    private static final long CHECKING_REGULAR = 1;
+    private static final long SECOND_CHANCE = 4;
+
+    private static Connection connection;
+
+    @BeforeClass
+    public static void createData() throws Exception {
+        connection = DriverManager.getConnection("jdbc:h2:mem:courtesypay;MODE=DB2");
+        SyntheticCoreData data = new SyntheticCoreData(42, 20000);
+        data.createSchema(connection);
+        data.generate(connection);
+    }
+
+    @AfterClass
+    public static void closeConnection() throws SQLException {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void selectsOldestOpenCheckingSharePerPerson() throws Exception {
+        assertEquals(expectedShares(), driverShares());
+    }
+
+    @Test
+    public void dataCoversNullOpenDatesAndLimits() throws SQLException {
+        assertTrue(count("SELECT COUNT(*) FROM CORE.SHARE WHERE COURTESY_PAY_LIMIT IS NULL AND TYPE_SERIAL = 1") > 0);
+        // A person whose earliest-serial share has no OPEN_DATE but who has a
+        // dated share as well; NULLs sorted first would drop them.
+        assertTrue(count("SELECT COUNT(*) FROM CORE.SHARE AS UNDATED, CORE.ACCOUNT AS A1, CORE.SHARE AS DATED, CORE.ACCOUNT AS A2"
+                + " WHERE UNDATED.OPEN_DATE IS NULL AND UNDATED.PARENT_SERIAL = A1.SERIAL"
+                + " AND DATED.OPEN_DATE IS NOT NULL AND DATED.PARENT_SERIAL = A2.SERIAL"
+                + " AND A1.PRIMARY_PERSON_SERIAL = A2.PRIMARY_PERSON_SERIAL AND UNDATED.SERIAL <> DATED.SERIAL"
+                + " AND UNDATED.TYPE_SERIAL = 1 AND DATED.TYPE_SERIAL = 1") > 0);
+    }
+
+    private TreeSet<Long> driverShares() throws Exception {
+        CourtesyPay script = new CourtesyPay(null);
+        script.checkingRegularTypes = new long[]{CHECKING_REGULAR};
+        TreeSet<Long> shares = new TreeSet<>();
+        try (PreparedStatement stmt = connection.prepareStatement(script.getNextTaskSQL())) {
+            stmt.setLong(1, CHECKING_REGULAR);
+            stmt.setLong(2, SECOND_CHANCE);
+            try (ResultSet rset = stmt.executeQuery()) {
+                while (rset.next()) {
+                    assertTrue(shares.add(rset.getLong("SHARE_SERIAL")));
+                }
+            }
+        }
+        return shares;
+    }
+
+    /**
+     * Ranks the candidate shares in Java: earliest OPEN_DATE with NULLs last,
+     * then lowest SERIAL.
+     */
+    private TreeSet<Long> expectedShares() throws SQLException {
+        Map<Long, long[]> oldest = new HashMap<>();
+        String sql = "SELECT ACCOUNT.PRIMARY_PERSON_SERIAL, SHARE.SERIAL, SHARE.OPEN_DATE, SHARE.COURTESY_PAY_RESTRICT_SERIAL"
+                + " FROM CORE.ACCOUNT AS ACCOUNT INNER JOIN CORE.SHARE AS SHARE ON ACCOUNT.SERIAL = SHARE.PARENT_SERIAL"
+                + " WHERE ACCOUNT.CLOSE_DATE IS NULL AND SHARE.CLOSE_DATE IS NULL AND SHARE.CHARGE_OFF_DATE IS NULL"
+                + " AND SHARE.TYPE_SERIAL = " + CHECKING_REGULAR;
+        try (Statement stmt = connection.createStatement();
+                ResultSet rset = stmt.executeQuery(sql)) {
+            while (rset.next()) {
+                long person = rset.getLong(1);
+                long share = rset.getLong(2);
+                Date openDate = rset.getDate(3);
+                long restriction = rset.getLong(4);
+                long[] candidate = {share, openDate == null ? Long.MAX_VALUE : openDate.toLocalDate().toEpochDay(), restriction};
+                long[] current = oldest.get(person);
+                if (current == null || candidate[1] < current[1] || (candidate[1] == current[1] && candidate[0] < current[0])) {
+                    oldest.put(person, candidate);
+                }
+            }
+        }
+        TreeSet<Long> shares = new TreeSet<>();
+        for (long[] share : oldest.values()) {
+            if (share[1] != Long.MAX_VALUE && share[2] != SECOND_CHANCE) {
+                shares.add(share[0]);
+            }
+        }
+        return shares;
+    }
+
+    private static long count(String sql) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+                ResultSet rset = stmt.executeQuery(sql)) {
+            rset.next();
+            return rset.getLong(1);
+        }
+    }
+}
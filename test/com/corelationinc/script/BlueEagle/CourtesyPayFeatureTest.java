@@ -0,0 +1,138 @@
+package com.corelationinc.script.BlueEagle;
+
+import com.corelationinc.script.Money;
+import com.corelationinc.script.Serial;
+import com.corelationinc.utils.CalendarMath;
+import com.corelationinc.utils.FeatureQuery;
+import com.corelationinc.utils.ScriptAccountUtils;
+import com.corelationinc.utils.ScriptShareUtils;
+import com.corelationinc.utils.ScriptUtils;
+import com.corelationinc.utils.SyntheticCoreData;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs the CourtesyPay feature query against SyntheticCoreData in an
+ * in-memory H2 database and checks every feature of every driver share
+ * against the per-share ScriptAccountUtils and ScriptShareUtils query it
+ * stands in for. H2 has no labeled durations ("? DAYS"), so delinquency is
+ * checked against the hasDelinquentLoan query rewritten with DATEADD.
+ *
+ * @author stosti
+ */
+public class CourtesyPayFeatureTest {
+
+    private static final long CHECKING_REGULAR = 1;
+    private static final long SECOND_CHANCE = 4;
+
+    private static Connection connection;
+
+    @BeforeClass
+    public static void createData() throws Exception {
+        connection = DriverManager.getConnection("jdbc:h2:mem:courtesypayfeatures;MODE=DB2");
+        SyntheticCoreData data = new SyntheticCoreData(7, 3000);
+        data.createSchema(connection);
+        data.generate(connection);
+        // DB2's DAYS(), for daysBelowAmount.
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE ALIAS DAYS FOR '" + CourtesyPayFeatureTest.class.getName() + ".days'");
+        }
+    }
+
+    @AfterClass
+    public static void closeConnection() throws SQLException {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    public static long days(Date date) {
+        return date == null ? 0 : CalendarMath.epochDay(date) + 719163L;
+    }
+
+    @Test
+    public void featuresMatchPerShareQueries() throws Exception {
+        CourtesyPay script = new CourtesyPay(null);
+        script.checkingRegularTypes = new long[]{CHECKING_REGULAR};
+        script.postingEpochDay = CalendarMath.epochDay(SyntheticCoreData.DEFAULT_POSTING_DATE);
+        FeatureQuery query = script.createFeatureQuery();
+        Map<Long, Long> driverShares = driverShares(script);
+        long[] keys = driverShares.keySet().stream().mapToLong(Long::longValue).toArray();
+        FeatureQuery.FeatureTable table = query.load(connection, keys);
+        assertEquals(driverShares.size(), table.size());
+
+        Set<Long> delinquentAccounts = delinquentAccounts();
+        int[] trueCounts = new int[4];
+        for (Map.Entry<Long, Long> share : driverShares.entrySet()) {
+            Serial shareSerial = ScriptUtils.toSerial(share.getKey());
+            Serial accountSerial = ScriptUtils.toSerial(share.getValue());
+            FeatureQuery.FeatureVector vector = table.get(share.getKey());
+            String label = "share " + share.getKey();
+
+            boolean chargedOffLoans = vector.getBoolean(script.chargedOffLoansFeature);
+            assertEquals(label, ScriptAccountUtils.hasChargedOffLoans(connection, accountSerial), chargedOffLoans);
+            boolean delinquent = vector.getBoolean(script.delinquentLoansFeature);
+            assertEquals(label, delinquentAccounts.contains(share.getValue()), delinquent);
+            boolean chargeOffs = chargedOffLoans || vector.getBoolean(script.chargedOffSharesFeature);
+            assertEquals(label, ScriptAccountUtils.hasChargeOffs(connection, accountSerial), chargeOffs);
+            int daysNegative = vector.isNull(script.negativeSinceFeature) ? 0
+                    : script.postingEpochDay - vector.getEpochDay(script.negativeSinceFeature);
+            assertEquals(label, ScriptShareUtils.daysBelowAmount(connection, shareSerial, new Money(0)), daysNegative);
+
+            trueCounts[0] += chargedOffLoans ? 1 : 0;
+            trueCounts[1] += delinquent ? 1 : 0;
+            trueCounts[2] += chargeOffs && !chargedOffLoans ? 1 : 0;
+            trueCounts[3] += daysNegative >= 30 ? 1 : 0;
+        }
+        for (int count : trueCounts) {
+            assertTrue(count > 0);
+        }
+    }
+
+    private static Set<Long> delinquentAccounts() throws SQLException {
+        Set<Long> accounts = new HashSet<>();
+        String sql = "SELECT DISTINCT LOAN.PARENT_SERIAL"
+                + " FROM CORE.LOAN AS LOAN INNER JOIN CORE.LN_TYPE AS LN_TYPE ON LOAN.TYPE_SERIAL = LN_TYPE.SERIAL"
+                + " LEFT OUTER JOIN CORE.ENV AS ENV ON ENV.SERIAL > 0"
+                + " WHERE DATEADD(DAY, 29, LOAN.PAYMENT_DUE_DATE) < ENV.POSTING_DATE AND LOAN.BALANCE <> 0"
+                + " AND LN_TYPE.CATEGORY IN ('CE', 'CC', 'LC', 'OE') AND LOAN.CLOSE_DATE IS NULL AND LOAN.CHARGE_OFF_DATE IS NULL";
+        try (Statement stmt = connection.createStatement();
+                ResultSet rset = stmt.executeQuery(sql)) {
+            while (rset.next()) {
+                accounts.add(rset.getLong(1));
+            }
+        }
+        return accounts;
+    }
+
+    /**
+     * Share serial to account serial for every driver row.
+     */
+    private static Map<Long, Long> driverShares(CourtesyPay script) throws Exception {
+        Map<Long, Long> shares = new LinkedHashMap<>();
+        try (PreparedStatement stmt = connection.prepareStatement(script.getNextTaskSQL())) {
+            stmt.setLong(1, CHECKING_REGULAR);
+            stmt.setLong(2, SECOND_CHANCE);
+            try (ResultSet rset = stmt.executeQuery()) {
+                while (rset.next()) {
+                    shares.put(rset.getLong("SHARE_SERIAL"), rset.getLong("ACCOUNT_SERIAL"));
+                }
+            }
+        }
+        return shares;
+    }
+}
@@ -0,0 +1,110 @@
+package com.corelationinc.utils;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs BatchLoader against an in-memory H2 database. The batch window is set
+ * far longer than any test, so a batch only runs early because every caller
+ * thread has joined it.
+ *
+ * @author stosti
+ */
+public class BatchLoaderTest {
+
+    private static final int THREADS = 8;
+    private static final long LONG_WINDOW_MICROS = TimeUnit.SECONDS.toMicros(30);
+    private static final String SQL = "SELECT SERIAL, NOTE FROM NOTES WHERE SERIAL IN (" + ScriptUtils.IN_LIST_MARKER + ")";
+
+    private Connection connection;
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    @Before
+    public void createTable() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE NOTES (SERIAL BIGINT NOT NULL PRIMARY KEY, NOTE VARCHAR(20) NOT NULL)");
+            stmt.execute("INSERT INTO NOTES VALUES (1, 'one'), (2, 'two'), (3, 'three')");
+        }
+    }
+
+    @After
+    public void closeConnection() throws SQLException {
+        executor.shutdownNow();
+        connection.close();
+    }
+
+    private static BatchLoader<String> createLoader(String sql) throws Exception {
+        return new BatchLoader<>(sql, "missing", rset -> rset.getString(2))
+                .setWindowMicros(LONG_WINDOW_MICROS)
+                .setCallerThreadCount(THREADS);
+    }
+
+    @Test
+    public void concurrentCallersShareOneQuery() throws Exception {
+        BatchLoader<String> loader = createLoader(SQL);
+        String[] expected = {"missing", "one", "two", "three"};
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            long key = i % 4;
+            results.add(executor.submit(() -> loader.load(connection, key)));
+        }
+        for (int i = 0; i < THREADS; i++) {
+            assertEquals(expected[i % 4], results.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(THREADS, loader.getRequestCount());
+        assertEquals(1, loader.getBatchCount());
+        assertEquals(4, loader.getKeyCount());
+    }
+
+    @Test
+    public void failedQueryFailsEveryCaller() throws Exception {
+        BatchLoader<String> loader = createLoader(SQL.replace("NOTES", "MISSING_TABLE"));
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            long key = i % 3;
+            results.add(executor.submit(() -> loader.load(connection, key)));
+        }
+        Throwable failure = null;
+        for (Future<String> result : results) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("Expected the query failure");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SQLException);
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertEquals(1, loader.getBatchCount());
+        assertEquals(1, loader.getFailureCount());
+    }
+
+    @Test
+    public void singleCallerThreadDoesNotWait() throws Exception {
+        BatchLoader<String> loader = createLoader(SQL).setCallerThreadCount(1);
+        long start = System.nanoTime();
+        assertEquals("two", loader.load(connection, 2));
+        assertEquals("missing", loader.load(connection, 9));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(2, loader.getBatchCount());
+    }
+}
@@ -0,0 +1,116 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.ScriptException;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.SplittableRandom;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks CalendarMath against java.time for every day in the DB2 date range,
+ * 0001-01-01 through 9999-12-31.
+ *
+ * @author stosti
+ */
+public class CalendarMathTest {
+
+    private static final int FIRST_DAY = (int) LocalDate.of(1, 1, 1).toEpochDay();
+    private static final int LAST_DAY = (int) LocalDate.of(9999, 12, 31).toEpochDay();
+
+    @Test
+    public void everyDayMatchesLocalDate() {
+        for (int day = FIRST_DAY; day <= LAST_DAY; day++) {
+            LocalDate date = LocalDate.ofEpochDay(day);
+            int year = date.getYear();
+            int month = date.getMonthValue();
+            int dayOfMonth = date.getDayOfMonth();
+            assertEquals(date.toString(), day, CalendarMath.epochDay(year, month, dayOfMonth));
+            assertEquals(date.toString(), year * 10000 + month * 100 + dayOfMonth, CalendarMath.toYearMonthDay(day));
+            assertEquals(date.toString(), year, CalendarMath.getYear(day));
+            assertEquals(date.toString(), month, CalendarMath.getMonth(day));
+            assertEquals(date.toString(), dayOfMonth, CalendarMath.getDayOfMonth(day));
+            assertEquals(date.toString(), date.withDayOfMonth(1).toEpochDay(), CalendarMath.monthStart(day));
+            assertEquals(date.toString(), date.withDayOfMonth(date.lengthOfMonth()).toEpochDay(), CalendarMath.monthEnd(day));
+        }
+    }
+
+    @Test
+    public void everyMonthLengthMatchesLocalDate() {
+        for (int year = 1; year <= 9999; year++) {
+            assertEquals(String.valueOf(year), LocalDate.of(year, 1, 1).isLeapYear(), CalendarMath.isLeapYear(year));
+            for (int month = 1; month <= 12; month++) {
+                assertEquals(year + "-" + month, LocalDate.of(year, month, 1).lengthOfMonth(), CalendarMath.daysInMonth(year, month));
+            }
+        }
+    }
+
+    @Test
+    public void addMonthsMatchesPlusMonths() {
+        int[] offsets = {-120, -13, -12, -1, 0, 1, 11, 12, 13, 120};
+        for (int day = FIRST_DAY + 3660; day <= LAST_DAY - 3660; day++) {
+            LocalDate date = LocalDate.ofEpochDay(day);
+            for (int months : offsets) {
+                assertEquals(date + " + " + months, date.plusMonths(months).toEpochDay(), CalendarMath.addMonths(day, months));
+            }
+        }
+    }
+
+    @Test
+    public void monthsBetweenMatchesPlusMonths() {
+        SplittableRandom random = new SplittableRandom(37);
+        for (int i = 0; i < 2000000; i++) {
+            int start = random.nextInt(FIRST_DAY, LAST_DAY + 1);
+            int end = random.nextInt(FIRST_DAY, LAST_DAY + 1);
+            LocalDate earlier = LocalDate.ofEpochDay(Math.min(start, end));
+            LocalDate later = LocalDate.ofEpochDay(Math.max(start, end));
+            // Largest n with earlier.plusMonths(n) not after later. This can be
+            // one more than ChronoUnit.MONTHS when plusMonths clamps the day.
+            long months = ChronoUnit.MONTHS.between(earlier, later);
+            if (!earlier.plusMonths(months + 1).isAfter(later)) {
+                months++;
+            }
+            assertEquals(earlier + " to " + later, months, CalendarMath.monthsBetween(start, end));
+        }
+    }
+
+    @Test
+    public void monthEndsClampLikeCalendar() {
+        int january31 = CalendarMath.epochDay(2020, 1, 31);
+        assertEquals(CalendarMath.epochDay(2020, 2, 29), CalendarMath.addMonths(january31, 1));
+        assertEquals(CalendarMath.epochDay(2021, 2, 28), CalendarMath.addMonths(january31, 13));
+        assertEquals(0, CalendarMath.monthsBetween(january31, CalendarMath.epochDay(2020, 2, 28)));
+        assertEquals(1, CalendarMath.monthsBetween(january31, CalendarMath.epochDay(2020, 2, 29)));
+        assertEquals(1, CalendarMath.monthsBetween(CalendarMath.epochDay(2020, 2, 29), january31));
+    }
+
+    @Test
+    public void daysBetweenIsSignedDifference() throws ScriptException {
+        SplittableRandom random = new SplittableRandom(41);
+        int first = (int) LocalDate.of(1900, 1, 1).toEpochDay();
+        int last = (int) LocalDate.of(2100, 12, 31).toEpochDay();
+        for (int i = 0; i < 200000; i++) {
+            int start = random.nextInt(first, last + 1);
+            int end = random.nextInt(first, last + 1);
+            Date startDate = Date.valueOf(LocalDate.ofEpochDay(start));
+            Date endDate = Date.valueOf(LocalDate.ofEpochDay(end));
+            assertEquals(startDate + " to " + endDate, end - start, ScriptDateUtils.getDaysBetween(startDate, endDate));
+        }
+    }
+
+    @Test
+    public void sqlDatesRoundTripThroughEpochDay() {
+        // java.sql.Date has no 1582-10-05 through 1582-10-14; the Julian to
+        // Gregorian cutover skips them.
+        int gapStart = (int) LocalDate.of(1582, 10, 5).toEpochDay();
+        int gapEnd = (int) LocalDate.of(1582, 10, 14).toEpochDay();
+        for (int day = FIRST_DAY; day <= LAST_DAY; day++) {
+            if (day >= gapStart && day <= gapEnd) {
+                continue;
+            }
+            Date date = CalendarMath.toDate(day);
+            assertEquals(LocalDate.ofEpochDay(day).toString(), day, CalendarMath.epochDay(date));
+        }
+    }
+}
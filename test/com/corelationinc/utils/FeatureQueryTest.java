@@ -0,0 +1,124 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.ScriptException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs an assembled FeatureQuery against an in-memory H2 database. Column
+ * and sub-select features are interleaved and both carry parameters, so
+ * binding them in any order other than the markers' gives wrong values.
+ *
+ * @author stosti
+ */
+public class FeatureQueryTest {
+
+    private Connection connection;
+    private FeatureQuery query;
+    private FeatureQuery.Feature large;
+    private FeatureQuery.Feature kindCount;
+    private FeatureQuery.Feature scaled;
+    private FeatureQuery.Feature lastPosted;
+    private FeatureQuery.Feature total;
+
+    @Before
+    public void createTables() throws SQLException, ScriptException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:;MODE=DB2");
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE BASE (SERIAL BIGINT NOT NULL PRIMARY KEY, AMOUNT DECIMAL(17, 2) NOT NULL)");
+            stmt.execute("CREATE TABLE CHILD (SERIAL BIGINT NOT NULL PRIMARY KEY, PARENT_SERIAL BIGINT NOT NULL,"
+                    + " KIND VARCHAR(1) NOT NULL, POSTED DATE NOT NULL, AMOUNT DECIMAL(17, 2) NOT NULL)");
+            stmt.execute("INSERT INTO BASE VALUES (1, 50.00), (2, 150.00), (3, 0.00)");
+            stmt.execute("INSERT INTO CHILD VALUES"
+                    + " (1, 1, 'A', DATE '2020-01-01', 10.00),"
+                    + " (2, 1, 'A', DATE '2020-03-01', 20.25),"
+                    + " (3, 1, 'B', DATE '2020-05-01', 99.00),"
+                    + " (4, 2, 'B', DATE '2020-02-01', 5.00),"
+                    + " (5, 2, 'A', DATE '2020-04-01', 1.00)");
+        }
+        query = new FeatureQuery("BASE", "BASE", "SERIAL");
+        large = query.addColumn("LARGE", FeatureQuery.FeatureType.BOOLEAN, "CASE WHEN BASE.AMOUNT > ? THEN 1 ELSE 0 END", 100);
+        kindCount = query.addSubselect("KIND_COUNT", FeatureQuery.FeatureType.LONG,
+                "SELECT COUNT(*) FROM CHILD WHERE CHILD.PARENT_SERIAL = BASE.SERIAL AND CHILD.KIND = ?", "A");
+        scaled = query.addColumn("SCALED", FeatureQuery.FeatureType.LONG, "BASE.SERIAL * ?", 10);
+        lastPosted = query.addSubselect("LAST_POSTED", FeatureQuery.FeatureType.DATE,
+                "SELECT MAX(CHILD.POSTED) FROM CHILD WHERE CHILD.PARENT_SERIAL = BASE.SERIAL AND CHILD.AMOUNT > ?", 6);
+        total = query.addSubselect("TOTAL", FeatureQuery.FeatureType.MONEY,
+                "SELECT SUM(CHILD.AMOUNT) FROM CHILD WHERE CHILD.PARENT_SERIAL = BASE.SERIAL");
+    }
+
+    @After
+    public void closeConnection() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void assemblesOneSubselectPerAggregateFeature() {
+        assertEquals("SELECT BASE.SERIAL,"
+                + " CASE WHEN BASE.AMOUNT > ? THEN 1 ELSE 0 END AS LARGE,"
+                + " (SELECT COUNT(*) FROM CHILD WHERE CHILD.PARENT_SERIAL = BASE.SERIAL AND CHILD.KIND = ?) AS KIND_COUNT,"
+                + " BASE.SERIAL * ? AS SCALED,"
+                + " (SELECT MAX(CHILD.POSTED) FROM CHILD WHERE CHILD.PARENT_SERIAL = BASE.SERIAL AND CHILD.AMOUNT > ?) AS LAST_POSTED,"
+                + " (SELECT SUM(CHILD.AMOUNT) FROM CHILD WHERE CHILD.PARENT_SERIAL = BASE.SERIAL) AS TOTAL"
+                + " FROM BASE AS BASE"
+                + " WHERE BASE.SERIAL IN (" + ScriptUtils.IN_LIST_MARKER + ")",
+                query.getSQL());
+    }
+
+    @Test
+    public void bindsParametersInRegistrationOrder() throws Exception {
+        FeatureQuery.FeatureTable table = query.load(connection, new long[]{1, 2, 3, 4});
+        assertEquals(3, table.size());
+        assertFalse(table.contains(4));
+        assertNull(table.get(4));
+
+        FeatureQuery.FeatureVector first = table.get(1);
+        assertFalse(first.getBoolean(large));
+        assertEquals(2, first.getLong(kindCount));
+        assertEquals(10, first.getLong(scaled));
+        assertEquals(Date.valueOf("2020-05-01"), first.getDate(lastPosted));
+        assertEquals(12925, first.getCents(total));
+
+        FeatureQuery.FeatureVector second = table.get(2);
+        assertTrue(second.getBoolean(large));
+        assertEquals(1, second.getLong(kindCount));
+        assertEquals(20, second.getLong(scaled));
+        assertNull(second.getDate(lastPosted));
+        assertTrue(second.isNull(lastPosted));
+        assertEquals(600, second.getCents(total));
+
+        FeatureQuery.FeatureVector third = table.get(3);
+        assertEquals(0, third.getLong(kindCount));
+        assertEquals(30, third.getLong(scaled));
+        assertTrue(third.isNull(total));
+        assertNull(third.getMoney(total));
+    }
+
+    @Test
+    public void rejectsWrongTypeAndLateRegistration() throws Exception {
+        FeatureQuery.FeatureVector first = query.load(connection, new long[]{1}).get(1);
+        try {
+            first.getLong(large);
+            fail("Expected a type mismatch");
+        } catch (ScriptException e) {
+            assertEquals("Feature LARGE is BOOLEAN, not LONG.", e.getMessage());
+        }
+        try {
+            query.addColumn("LATE", FeatureQuery.FeatureType.LONG, "BASE.SERIAL");
+            fail("Expected late registration to fail");
+        } catch (ScriptException e) {
+            assertEquals("Feature LATE registered after the feature query was built.", e.getMessage());
+        }
+    }
+}
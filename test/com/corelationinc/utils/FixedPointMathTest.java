@@ -0,0 +1,235 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.Money;
+import com.corelationinc.script.Rate;
+import com.corelationinc.script.ScriptException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.SplittableRandom;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Checks FixedPointMath and the ScriptMathUtils Money overloads against
+ * BigDecimal with setScale(2, RoundingMode.HALF_UP).
+ *
+ * @author stosti
+ */
+public class FixedPointMathTest {
+
+    private static final long MAX = Money.MAX_PENNIES_VALUE;
+    private static final long MIN = Money.MIN_PENNIES_VALUE;
+
+    @Test
+    public void moneyRangeIsTheDoubleSafeIntegers() {
+        assertEquals(9007199254740991L, MAX);
+        assertEquals(-9007199254740991L, MIN);
+    }
+
+    @Test
+    public void divideHalfUpRoundsTiesAwayFromZero() {
+        assertEquals(3, FixedPointMath.divideHalfUp(5, 2));
+        assertEquals(-3, FixedPointMath.divideHalfUp(-5, 2));
+        assertEquals(-3, FixedPointMath.divideHalfUp(5, -2));
+        assertEquals(3, FixedPointMath.divideHalfUp(-5, -2));
+        assertEquals(2, FixedPointMath.divideHalfUp(7, 4));
+        assertEquals(-2, FixedPointMath.divideHalfUp(-7, 4));
+        assertEquals(1, FixedPointMath.divideHalfUp(5, 4));
+        assertEquals(-1, FixedPointMath.divideHalfUp(-5, 4));
+        assertEquals(0, FixedPointMath.divideHalfUp(1, 3));
+        assertEquals(1, FixedPointMath.divideHalfUp(2, 3));
+        assertEquals(1, FixedPointMath.divideHalfUp(Long.MAX_VALUE, Long.MAX_VALUE));
+        assertEquals(1, FixedPointMath.divideHalfUp(Long.MAX_VALUE / 2 + 1, Long.MAX_VALUE));
+        assertEquals(0, FixedPointMath.divideHalfUp(Long.MAX_VALUE / 2, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void divideHalfUpMatchesBigDecimal() {
+        SplittableRandom random = new SplittableRandom(39);
+        for (int i = 0; i < 300000; i++) {
+            long numerator = random.nextLong();
+            long denominator = i % 2 == 0 ? random.nextLong() : random.nextLong(1, 1000);
+            if (denominator == 0) {
+                continue;
+            }
+            BigDecimal expected = new BigDecimal(numerator).divide(new BigDecimal(denominator), 0, RoundingMode.HALF_UP);
+            assertEquals(numerator + " / " + denominator, expected.longValueExact(), FixedPointMath.divideHalfUp(numerator, denominator));
+        }
+    }
+
+    @Test
+    public void halfCentProductsRoundAwayFromZero() throws ScriptException {
+        FixedPointMath.ScaledRate half = FixedPointMath.ScaledRate.parse("0.5");
+        assertEquals(1, FixedPointMath.multiply(1, half));
+        assertEquals(-1, FixedPointMath.multiply(-1, half));
+        assertEquals(2, FixedPointMath.multiply(3, half));
+        assertEquals(-2, FixedPointMath.multiply(-3, half));
+        assertEquals(0, FixedPointMath.multiply(1, FixedPointMath.ScaledRate.parse("0.4999")));
+        assertEquals(1, FixedPointMath.multiplyCents(50, 1));
+        assertEquals(-1, FixedPointMath.multiplyCents(-50, 1));
+        assertEquals(0, FixedPointMath.multiplyCents(49, 1));
+        assertEquals(1, FixedPointMath.divideCents(1, 200));
+        assertEquals(-1, FixedPointMath.divideCents(-1, 200));
+        assertEquals(-1, FixedPointMath.divideCents(1, -200));
+        assertEquals(0, FixedPointMath.divideCents(1, 201));
+    }
+
+    @Test
+    public void rateOperationsMatchBigDecimal() throws ScriptException {
+        SplittableRandom random = new SplittableRandom(17);
+        for (int i = 0; i < 300000; i++) {
+            long cents = i % 2 == 0 ? random.nextLong(-10000000, 10000000) : random.nextLong(MIN, MAX + 1);
+            long unscaled = i % 10 == 0 ? random.nextLong(-1000000000000L, 1000000000000L) : random.nextLong(-1000000, 1000000);
+            String value = BigDecimal.valueOf(unscaled, random.nextInt(9)).toPlainString();
+            FixedPointMath.ScaledRate rate = FixedPointMath.ScaledRate.parse(value);
+            BigDecimal amount = BigDecimal.valueOf(cents, 2);
+            BigDecimal product = amount.multiply(new BigDecimal(value)).setScale(2, RoundingMode.HALF_UP);
+            assertCents(cents + " * " + value, product, () -> FixedPointMath.multiply(cents, rate));
+            if (!rate.isZero()) {
+                BigDecimal quotient = amount.divide(new BigDecimal(value), 2, RoundingMode.HALF_UP);
+                assertCents(cents + " / " + value, quotient, () -> FixedPointMath.divide(cents, rate));
+            }
+        }
+    }
+
+    @Test
+    public void centOperationsMatchBigDecimal() throws ScriptException {
+        SplittableRandom random = new SplittableRandom(23);
+        for (int i = 0; i < 300000; i++) {
+            long cents = i % 2 == 0 ? random.nextLong(-10000000, 10000000) : random.nextLong(MIN, MAX + 1);
+            long otherCents = i % 10 == 0 ? random.nextLong(MIN, MAX + 1) : random.nextLong(-1000000, 1000000);
+            BigDecimal amount = BigDecimal.valueOf(cents, 2);
+            BigDecimal other = BigDecimal.valueOf(otherCents, 2);
+            BigDecimal product = amount.multiply(other).setScale(2, RoundingMode.HALF_UP);
+            assertCents(cents + " * " + otherCents, product, () -> FixedPointMath.multiplyCents(cents, otherCents));
+            if (otherCents != 0) {
+                BigDecimal quotient = amount.divide(other, 2, RoundingMode.HALF_UP);
+                assertCents(cents + " / " + otherCents, quotient, () -> FixedPointMath.divideCents(cents, otherCents));
+            }
+            BigDecimal sum = amount.add(other);
+            assertCents(cents + " + " + otherCents, sum, () -> FixedPointMath.add(cents, otherCents));
+        }
+    }
+
+    @Test
+    public void moneyRangeBoundaryIsInclusive() throws ScriptException {
+        FixedPointMath.ScaledRate one = FixedPointMath.ScaledRate.parse("1.000");
+        assertEquals(MAX, FixedPointMath.multiply(MAX, one));
+        assertEquals(MIN, FixedPointMath.multiply(MIN, one));
+        assertEquals(MAX, FixedPointMath.divide(MAX, one));
+        assertEquals(MIN, FixedPointMath.divide(MIN, one));
+        assertEquals(MAX, FixedPointMath.multiplyCents(MAX, 100));
+        assertEquals(MIN, FixedPointMath.multiplyCents(MAX, -100));
+        assertEquals(MAX, FixedPointMath.divideCents(MAX, 100));
+        assertEquals(MIN, FixedPointMath.divideCents(MIN, 100));
+        assertEquals(MAX, FixedPointMath.add(MAX - 1, 1));
+        assertEquals(MIN, FixedPointMath.add(MIN + 1, -1));
+        assertEquals(MAX, FixedPointMath.toMoney(MAX).getPennies());
+        assertEquals(MIN, FixedPointMath.toMoney(MIN).getPennies());
+    }
+
+    @Test
+    public void resultsOutsideMoneyRangeThrow() {
+        assertThrows(() -> FixedPointMath.add(MAX, 1));
+        assertThrows(() -> FixedPointMath.add(MIN, -1));
+        assertThrows(() -> FixedPointMath.multiply(MAX, FixedPointMath.ScaledRate.parse("1.01")));
+        assertThrows(() -> FixedPointMath.multiply(MIN, FixedPointMath.ScaledRate.parse("1.01")));
+        assertThrows(() -> FixedPointMath.divide(MAX, FixedPointMath.ScaledRate.parse("0.99")));
+        assertThrows(() -> FixedPointMath.multiplyCents(MAX, 101));
+        assertThrows(() -> FixedPointMath.multiplyCents(MIN, 101));
+        assertThrows(() -> FixedPointMath.divideCents(MAX, 99));
+        assertThrows(() -> FixedPointMath.multiplyCents(MAX, MAX));
+        assertThrows(() -> FixedPointMath.toMoney(MAX + 1).getPennies());
+        assertThrows(() -> FixedPointMath.toMoney(MIN - 1).getPennies());
+    }
+
+    @Test
+    public void overflowingIntermediatesFallBackToBigDecimal() throws ScriptException {
+        String value = "0.123456789012";
+        BigDecimal expected = BigDecimal.valueOf(MAX, 2).multiply(new BigDecimal(value)).setScale(2, RoundingMode.HALF_UP);
+        assertEquals(expected.unscaledValue().longValueExact(), FixedPointMath.multiply(MAX, FixedPointMath.ScaledRate.parse(value)));
+        expected = BigDecimal.valueOf(MIN, 2).divide(new BigDecimal("12345.6789"), 2, RoundingMode.HALF_UP);
+        assertEquals(expected.unscaledValue().longValueExact(), FixedPointMath.divide(MIN, FixedPointMath.ScaledRate.parse("12345.6789")));
+    }
+
+    @Test
+    public void scaledRateParsing() {
+        FixedPointMath.ScaledRate rate = FixedPointMath.ScaledRate.parse("-12.3400");
+        assertEquals(-123400, rate.getUnscaled());
+        assertEquals(4, rate.getScale());
+        assertEquals(7, FixedPointMath.ScaledRate.parse("+7").getUnscaled());
+        assertNull(FixedPointMath.ScaledRate.parse("1.5E3"));
+        assertNull(FixedPointMath.ScaledRate.parse("1234567890.123456789"));
+        assertNull(FixedPointMath.ScaledRate.parse("0.0000000000000000001"));
+    }
+
+    @Test
+    public void scriptMathUtilsMatchesBigDecimal() throws Exception {
+        SplittableRandom random = new SplittableRandom(5);
+        for (int i = 0; i < 100000; i++) {
+            long cents = random.nextLong(-1000000000L, 1000000000L);
+            String value = BigDecimal.valueOf(random.nextLong(-10000000, 10000000), random.nextInt(1, 7)).toPlainString();
+            Money amount = new Money(cents);
+            Rate rate = new Rate(value);
+            BigDecimal exact = BigDecimal.valueOf(cents, 2);
+            BigDecimal expectedRate = new BigDecimal(rate.toKeyBridgeString());
+            assertEquals(cents + " * " + value, exact.multiply(expectedRate).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact(),
+                    ScriptMathUtils.multiply(amount, rate).getPennies());
+            if (!rate.isZero()) {
+                assertEquals(cents + " / " + value, exact.divide(expectedRate, 2, RoundingMode.HALF_UP).unscaledValue().longValueExact(),
+                        ScriptMathUtils.divide(amount, rate).getPennies());
+            }
+        }
+    }
+
+    @Test
+    public void scriptMathUtilsThrowsOutsideMoneyRange() throws Exception {
+        assertEquals(MAX, ScriptMathUtils.multiply(new Money(MAX), new Rate("1")).getPennies());
+        assertEquals(MIN, ScriptMathUtils.multiply(new Money(MAX), new Money(-100)).getPennies());
+        try {
+            ScriptMathUtils.multiply(new Money(MAX), new Rate("2"));
+            fail("Expected a ScriptException for a product outside the Money range");
+        } catch (ScriptException e) {
+            // expected
+        }
+        try {
+            ScriptMathUtils.divide(new Money(MIN), new Money(50));
+            fail("Expected a ScriptException for a quotient outside the Money range");
+        } catch (ScriptException e) {
+            // expected
+        }
+    }
+
+    private interface CentsOperation {
+
+        long apply() throws ScriptException;
+    }
+
+    /**
+     * Asserts that the operation returns the expected cents, or throws if the
+     * expected value is outside the Money range.
+     */
+    private static void assertCents(String message, BigDecimal expected, CentsOperation operation) throws ScriptException {
+        BigDecimal cents = expected.movePointRight(2);
+        if (cents.compareTo(BigDecimal.valueOf(MAX)) > 0 || cents.compareTo(BigDecimal.valueOf(MIN)) < 0) {
+            try {
+                long result = operation.apply();
+                fail(message + " returned " + result + " instead of throwing");
+            } catch (ScriptException e) {
+                return;
+            }
+        }
+        assertEquals(message, cents.longValueExact(), operation.apply());
+    }
+
+    private static void assertThrows(CentsOperation operation) {
+        try {
+            long result = operation.apply();
+            fail("Expected a ScriptException, got " + result);
+        } catch (ScriptException e) {
+            // expected
+        }
+    }
+}
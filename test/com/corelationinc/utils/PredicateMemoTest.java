@@ -0,0 +1,132 @@
+package com.corelationinc.utils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks PredicateMemo's single-flight lookups: concurrent misses on one key
+ * share one load, and a failed load is handed to every waiter and then
+ * retried.
+ *
+ * @author stosti
+ */
+public class PredicateMemoTest {
+
+    private static final int THREADS = 8;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentMissesRunTheLoaderOnce() throws Exception {
+        PredicateMemo memo = new PredicateMemo();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        PredicateMemo.Loader<Boolean> loader = () -> {
+            loads.incrementAndGet();
+            await(release);
+            return Boolean.TRUE;
+        };
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> memo.get("hasDelinquentLoan", 42L, 29L, loader)));
+        }
+        // The load is held until every other thread is waiting on it.
+        waitFor(() -> memo.getWaitCount() == THREADS - 1);
+        release.countDown();
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, memo.getMissCount());
+        assertEquals(THREADS - 1, memo.getWaitCount());
+
+        assertTrue(memo.get("hasDelinquentLoan", 42L, 29L, loader));
+        assertEquals(1, loads.get());
+        assertEquals(1, memo.getHitCount());
+        memo.get("hasDelinquentLoan", 42L, 30L, loader);
+        memo.get("hasChargeOffs", 42L, 29L, loader);
+        assertEquals(3, loads.get());
+        assertEquals(3, memo.getEntryCount());
+    }
+
+    @Test
+    public void failedLoadIsSharedThenRetried() throws Exception {
+        PredicateMemo memo = new PredicateMemo();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        SQLException failure = new SQLException("Connection reset");
+        PredicateMemo.Loader<Boolean> loader = () -> {
+            if (loads.incrementAndGet() == 1) {
+                await(release);
+                throw failure;
+            }
+            return Boolean.FALSE;
+        };
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> memo.get("hasChargedOffLoans", 7L, 0L, loader)));
+        }
+        waitFor(() -> memo.getWaitCount() == THREADS - 1);
+        release.countDown();
+        for (Future<Boolean> result : results) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("Expected the load failure");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertEquals(1, loads.get());
+        assertEquals(0, memo.getEntryCount());
+
+        assertEquals(Boolean.FALSE, memo.get("hasChargedOffLoans", 7L, 0L, loader));
+        assertEquals(2, loads.get());
+        assertEquals(2, memo.getMissCount());
+        assertEquals(1, memo.getEntryCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Timed out waiting for the test to release the load");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface Condition {
+
+        boolean holds();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.holds()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for the lookups to queue");
+            }
+            Thread.sleep(1);
+        }
+    }
+}
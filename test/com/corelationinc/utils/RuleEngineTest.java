@@ -0,0 +1,118 @@
+package com.corelationinc.utils;
+
+import java.util.SplittableRandom;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that RuleEngine gives the same answers as the plain boolean
+ * expression its rules describe, before and after adaptive reordering, and
+ * that no predicate runs twice for one Evaluation.
+ *
+ * @author stosti
+ */
+public class RuleEngineTest {
+
+    private static final int PREDICATES = 5;
+    private static final long CHECK_NANOS = 2000;
+
+    /**
+     * A row of predicate inputs, with a count of how often each predicate
+     * ran for it and which ran first.
+     */
+    private static final class Row {
+
+        final boolean[] values = new boolean[PREDICATES];
+        final int[] calls = new int[PREDICATES];
+        int first = -1;
+    }
+
+    private final RuleEngine<Row> rules = new RuleEngine<Row>().setAdaptive(true);
+    private final RuleEngine.Predicate<Row>[] predicates = createPredicates();
+
+    @SuppressWarnings("unchecked")
+    private RuleEngine.Predicate<Row>[] createPredicates() {
+        RuleEngine.Predicate<Row>[] result = new RuleEngine.Predicate[PREDICATES];
+        for (int p = 0; p < PREDICATES; p++) {
+            int index = p;
+            result[p] = rules.predicate("P" + p, RuleEngine.COST_MEMORY, row -> {
+                row.calls[index]++;
+                if (row.first < 0) {
+                    row.first = index;
+                }
+                // Equal, measurable latency, so the observed true ratios
+                // decide the order rather than timer noise.
+                long end = System.nanoTime() + CHECK_NANOS;
+                while (System.nanoTime() < end) {
+                    // spin
+                }
+                return row.values[index];
+            });
+        }
+        return result;
+    }
+
+    /**
+     * P0 is true for 98% of rows and P3 for 2%, so an and() of them that
+     * starts in registration order should be reordered to test P3 first.
+     */
+    private static Row randomRow(SplittableRandom random) {
+        double[] trueRatios = {0.98, 0.6, 0.5, 0.02, 0.3};
+        Row row = new Row();
+        for (int p = 0; p < PREDICATES; p++) {
+            row.values[p] = random.nextDouble() < trueRatios[p];
+        }
+        return row;
+    }
+
+    @Test
+    public void reorderingNeverChangesResults() throws Exception {
+        RuleEngine.Rule<Row> all = rules.and(predicates[0], predicates[1], predicates[2], predicates[3]);
+        RuleEngine.Rule<Row> mixed = rules.or(
+                rules.and(predicates[0], rules.not(predicates[3]), predicates[4]),
+                rules.and(rules.not(predicates[1]), predicates[2]),
+                rules.not(rules.or(predicates[0], predicates[4])));
+        SplittableRandom random = new SplittableRandom(11);
+        int rowCount = RuleEngine.REORDER_INTERVAL * 20;
+        int firstOfEarliest = -1;
+        int firstOfLatest = -1;
+        for (int i = 0; i < rowCount; i++) {
+            Row row = randomRow(random);
+            boolean[] v = row.values;
+            RuleEngine.Evaluation<Row> evaluation = rules.begin(row);
+            assertEquals("row " + i, v[0] && v[1] && v[2] && v[3], evaluation.test(all));
+            if (i == 0) {
+                firstOfEarliest = row.first;
+            } else if (i == rowCount - 1) {
+                firstOfLatest = row.first;
+            }
+            boolean expected = (v[0] && !v[3] && v[4]) || (!v[1] && v[2]) || !(v[0] || v[4]);
+            assertEquals("row " + i, expected, evaluation.test(mixed));
+        }
+        assertEquals(0, firstOfEarliest);
+        assertEquals(3, firstOfLatest);
+    }
+
+    @Test
+    public void predicatesRunAtMostOncePerEvaluation() throws Exception {
+        RuleEngine.Rule<Row> first = rules.or(
+                rules.and(predicates[0], predicates[1]),
+                rules.and(predicates[1], rules.not(predicates[0]), predicates[2]),
+                rules.not(predicates[2]));
+        RuleEngine.Rule<Row> second = rules.and(rules.not(predicates[1]), rules.or(predicates[0], predicates[2], predicates[3]));
+        SplittableRandom random = new SplittableRandom(13);
+        for (int i = 0; i < RuleEngine.REORDER_INTERVAL * 4; i++) {
+            Row row = randomRow(random);
+            RuleEngine.Evaluation<Row> evaluation = rules.begin(row);
+            boolean firstResult = evaluation.test(first);
+            boolean secondResult = evaluation.test(second);
+            assertEquals(firstResult, evaluation.test(first));
+            assertEquals(secondResult, evaluation.test(second));
+            for (int p = 0; p < PREDICATES; p++) {
+                assertTrue("row " + i + " P" + p, row.calls[p] <= 1);
+            }
+        }
+        assertTrue(rules.getSummary().startsWith("P0: "));
+    }
+}
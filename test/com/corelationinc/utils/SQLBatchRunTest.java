@@ -0,0 +1,200 @@
+package com.corelationinc.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs SQLBatchRun against an in-memory H2 database. Driver behaviours H2
+ * does not show (stopping a batch at the first failure, a failing final
+ * flush) are produced by wrapping the H2 connection.
+ *
+ * @author stosti
+ */
+public class SQLBatchRunTest {
+
+    private static final String INSERT = "INSERT INTO AUDIT (SERIAL, NOTE) VALUES (?, ?)";
+
+    private Connection connection;
+
+    @Before
+    public void createTable() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE AUDIT (SERIAL BIGINT NOT NULL PRIMARY KEY, NOTE VARCHAR(20) NOT NULL)");
+        }
+    }
+
+    @After
+    public void closeConnection() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void constraintViolationsMidBatchAreRecordedPerRow() throws Exception {
+        SQLBatchRun batch = new SQLBatchRun(connection, INSERT, 4, 0);
+        batch.add(1L, "a");
+        batch.add(2L, "b");
+        batch.add(1L, "duplicate");
+        batch.add(3L, "c");
+        batch.add(4L, "d");
+        batch.add(3L, "duplicate");
+        batch.add(5L, "e");
+        batch.close();
+
+        List<SQLBatchRun.BatchError> errors = batch.getErrors();
+        assertEquals(2, errors.size());
+        assertEquals(3, errors.get(0).getRowNumber());
+        assertEquals(Arrays.<Object>asList(1L, "duplicate"), errors.get(0).getParameters());
+        assertTrue(errors.get(0).getException() != null);
+        assertEquals(6, errors.get(1).getRowNumber());
+        assertEquals(Arrays.<Object>asList(3L, "duplicate"), errors.get(1).getParameters());
+        assertEquals(7, batch.getRowCount());
+        assertEquals(5, batch.getUpdateCount());
+        assertEquals(5, count());
+    }
+
+    @Test
+    public void driverThatStopsEarlyMarksTheRestNotExecuted() throws Exception {
+        // Reports only the counts before the failing row, as drivers that
+        // stop at the first failure do.
+        Connection stopping = wrap(connection, (stmt, calls) -> {
+            try {
+                return stmt.executeBatch();
+            } catch (BatchUpdateException e) {
+                int[] counts = e.getUpdateCounts();
+                int failed = 0;
+                while (counts[failed] != Statement.EXECUTE_FAILED) {
+                    failed++;
+                }
+                throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(counts, failed), e);
+            }
+        });
+        SQLBatchRun batch = new SQLBatchRun(stopping, INSERT, 5, 0);
+        batch.add(1L, "a");
+        batch.add(2L, "b");
+        batch.add(3L, "c");
+        batch.add(1L, "duplicate");
+        batch.add(4L, "d");
+        batch.add(5L, "e");
+        batch.close();
+
+        List<SQLBatchRun.BatchError> errors = batch.getErrors();
+        assertEquals(2, errors.size());
+        assertEquals(4, errors.get(0).getRowNumber());
+        assertEquals(Arrays.<Object>asList(1L, "duplicate"), errors.get(0).getParameters());
+        assertTrue(errors.get(0).getException() != null);
+        assertEquals(5, errors.get(1).getRowNumber());
+        assertEquals(Arrays.<Object>asList(4L, "d"), errors.get(1).getParameters());
+        assertNull(errors.get(1).getException());
+        assertEquals(6, batch.getRowCount());
+    }
+
+    @Test
+    public void commitsEveryIntervalAndRestoresAutoCommit() throws Exception {
+        try (SQLBatchRun batch = new SQLBatchRun(connection, INSERT, 2, 4)) {
+            assertTrue(!connection.getAutoCommit());
+            for (long serial = 1; serial <= 5; serial++) {
+                batch.add(serial, "row");
+            }
+            connection.rollback();
+            assertEquals(4, count());
+        }
+        assertTrue(connection.getAutoCommit());
+        assertEquals(5, count());
+    }
+
+    @Test
+    public void failedCloseRollsBackBeforeRestoringAutoCommit() throws Exception {
+        Connection failing = wrap(connection, (stmt, calls) -> {
+            if (calls == 2) {
+                throw new SQLException("Connection lost");
+            }
+            return stmt.executeBatch();
+        });
+        SQLBatchRun batch = new SQLBatchRun(failing, INSERT, 2, 100);
+        batch.add(1L, "a");
+        batch.add(2L, "b");
+        batch.add(3L, "c");
+        try {
+            batch.close();
+            fail("Expected close() to rethrow the flush failure");
+        } catch (SQLException e) {
+            assertEquals("Connection lost", e.getMessage());
+        }
+        assertTrue(connection.getAutoCommit());
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void badSqlLeavesAutoCommitOn() throws Exception {
+        try {
+            new SQLBatchRun(connection, "INSERT INTO MISSING (SERIAL) VALUES (?)", 10, 10);
+            fail("Expected the prepare to fail");
+        } catch (SQLException e) {
+            // expected
+        }
+        assertTrue(connection.getAutoCommit());
+    }
+
+    private long count() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+                ResultSet rset = stmt.executeQuery("SELECT COUNT(*) FROM AUDIT")) {
+            rset.next();
+            return rset.getLong(1);
+        }
+    }
+
+    private interface BatchHook {
+
+        int[] executeBatch(PreparedStatement stmt, int calls) throws SQLException;
+    }
+
+    /**
+     * Returns a connection whose prepared statements send executeBatch()
+     * through the hook, with a 1-based call count. Everything else is
+     * passed to the real connection.
+     */
+    private static Connection wrap(Connection target, BatchHook hook) {
+        AtomicInteger calls = new AtomicInteger();
+        return (Connection) Proxy.newProxyInstance(SQLBatchRunTest.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(target, method, args);
+                    if (!method.getName().equals("prepareStatement")) {
+                        return result;
+                    }
+                    PreparedStatement stmt = (PreparedStatement) result;
+                    return Proxy.newProxyInstance(SQLBatchRunTest.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                            (stmtProxy, stmtMethod, stmtArgs) -> {
+                                if (stmtMethod.getName().equals("executeBatch")) {
+                                    return hook.executeBatch(stmt, calls.incrementAndGet());
+                                }
+                                return invoke(stmt, stmtMethod, stmtArgs);
+                            });
+                });
+    }
+
+    private static Object invoke(Object target, java.lang.reflect.Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
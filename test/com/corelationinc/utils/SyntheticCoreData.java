@@ -0,0 +1,553 @@
+package com.corelationinc.utils;
+
+import com.corelationinc.script.ScriptException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Creates a stand-in for the subset of the CORE schema used by the utils and
+ * scripts in this project (PERSON, ACCOUNT, SHARE, SH_TYPE, LOAN, LN_TYPE,
+ * MONETARY, MON_DETAIL, ENV, COURTESY_PAY_RESTRICTION) and fills it with
+ * seeded synthetic data, so MultiThreadScript, SQLSingleRun and CourtesyPay
+ * can be measured against any JDBC database (an embedded H2 or Derby
+ * instance, or a scratch DB2 schema) instead of a live host.
+ * <br></br>
+ * The same seed and share count always produce the same rows. The data is
+ * skewed the way production data is: most accounts hold one or two shares,
+ * some people own several accounts, transaction counts per share follow a
+ * heavy-tailed distribution, balances are log-normal with a few percent
+ * negative, and small fractions of shares, loans and people fall into each
+ * Courtesy Pay rule (restrictions, NULL limits and open dates, delinquent and
+ * charged-off loans, minors, IRS/VEC ACH deposits, loan proceeds). Only the columns the code reads are
+ * created.
+ * <br></br>
+ * The DDL is portable. The DB2 date arithmetic used by some per-row
+ * predicates (labeled durations, DAYS()) needs a DB2-compatible database;
+ * the driver queries, bulk loaders and reference data preloads do not.
+ * <br>Ex.</br>
+ *
+ * <br>SyntheticCoreData data = new SyntheticCoreData(42, 100000);</br>
+ * <br>data.createSchema(connection);</br>
+ * <br>String summary = data.generate(connection);</br>
+ *
+ * @author stosti
+ */
+public class SyntheticCoreData {
+
+    public static final Date DEFAULT_POSTING_DATE = Date.valueOf("2020-06-30");
+    public static final double DEFAULT_MONETARY_PER_SHARE = 6.0;
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_COMMIT_INTERVAL = 50000;
+
+    public static final String[] SHARE_TYPES = {
+        "Checking - Regular", "Checking - Premium", "Savings - Regular", "Money Market", "Certificate"};
+    public static final String[] LOAN_TYPES = {"Auto Loan", "Personal Loan", "Home Equity Line", "Visa Platinum"};
+    private static final String[] LOAN_TYPE_CATEGORIES = {"CE", "CE", "LC", "CC"};
+    public static final String[] COURTESY_PAY_RESTRICTIONS = {
+        "Negative Balance Days > 30", "Delinquent Loans", "Charged Off Loans/Accounts", "Second Chance", "Member Request"};
+    private static final String[] ACH_COMPANIES = {"ACME PAYROLL", "STATE PAYROLL", "SSA TREAS 310", "DIRECT DEP"};
+
+    private final long seed;
+    private final int shareCount;
+    private Date postingDate = DEFAULT_POSTING_DATE;
+    private double monetaryPerShare = DEFAULT_MONETARY_PER_SHARE;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+
+    private long personSerial = 0;
+    private long accountSerial = 0;
+    private long shareSerial = 0;
+    private long loanSerial = 0;
+    private long monetarySerial = 0;
+    private long monDetailSerial = 0;
+
+    /**
+     * @param seed random seed; the same seed and share count give the same
+     * rows
+     * @param shareCount number of SHARE rows to generate (10,000 to
+     * 10,000,000 is typical)
+     * @throws ScriptException
+     */
+    public SyntheticCoreData(long seed, int shareCount) throws ScriptException {
+        if (shareCount <= 0) {
+            throw new ScriptException("Non-positive share count passed to SyntheticCoreData.");
+        }
+        this.seed = seed;
+        this.shareCount = shareCount;
+    }
+
+    /**
+     * Sets ENV.POSTING_DATE. Every generated date is relative to it.
+     *
+     * @param postingDate
+     * @return this
+     * @throws ScriptException
+     */
+    public SyntheticCoreData setPostingDate(Date postingDate) throws ScriptException {
+        if (postingDate == null) {
+            throw new ScriptException("Null posting date passed to SyntheticCoreData.");
+        }
+        this.postingDate = postingDate;
+        return this;
+    }
+
+    /**
+     * Sets the mean number of MONETARY rows per share over the last 120 days.
+     *
+     * @param monetaryPerShare
+     * @return this
+     */
+    public SyntheticCoreData setMonetaryPerShare(double monetaryPerShare) {
+        this.monetaryPerShare = Math.max(0, monetaryPerShare);
+        return this;
+    }
+
+    /**
+     * Sets the JDBC batch size and the number of rows between commits.
+     *
+     * @param batchSize
+     * @param commitInterval
+     * @return this
+     */
+    public SyntheticCoreData setBatching(int batchSize, int commitInterval) {
+        this.batchSize = Math.max(1, batchSize);
+        this.commitInterval = Math.max(this.batchSize, commitInterval);
+        return this;
+    }
+
+    /**
+     * Returns the CREATE statements for the stand-in schema, in dependency
+     * order.
+     *
+     * @return
+     */
+    public static List<String> getSchemaDDL() {
+        List<String> ddl = new ArrayList<>();
+        ddl.add("CREATE SCHEMA CORE");
+        ddl.add("CREATE TABLE CORE.ENV ("
+                + " SERIAL BIGINT NOT NULL PRIMARY KEY,"
+                + " POSTING_DATE DATE NOT NULL)");
+        ddl.add("CREATE TABLE CORE.SH_TYPE ("
+                + " SERIAL BIGINT NOT NULL PRIMARY KEY,"
+                + " DESCRIPTION VARCHAR(40) NOT NULL)");
+        ddl.add("CREATE TABLE CORE.LN_TYPE ("
+                + " SERIAL BIGINT NOT NULL PRIMARY KEY,"
+                + " DESCRIPTION VARCHAR(40) NOT NULL,"
+                + " CATEGORY VARCHAR(2) NOT NULL)");
+        ddl.add("CREATE TABLE CORE.COURTESY_PAY_RESTRICTION ("
+                + " SERIAL BIGINT NOT NULL PRIMARY KEY,"
+                + " DESCRIPTION VARCHAR(40) NOT NULL,"
+                + " STATUS VARCHAR(1) NOT NULL)");
+        ddl.add("CREATE TABLE CORE.PERSON ("
+                + " SERIAL BIGINT NOT NULL PRIMARY KEY,"
+                + " BIRTH_DATE DATE)");
+        ddl.add("CREATE TABLE CORE.ACCOUNT ("
+                + " SERIAL BIGINT NOT NULL PRIMARY KEY,"
+                + " ACCOUNT_NUMBER VARCHAR(20) NOT NULL,"
+                + " PRIMARY_PERSON_SERIAL BIGINT NOT NULL,"
+                + " CLOSE_DATE DATE)");
+        ddl.add("CREATE TABLE CORE.SHARE ("
+                + " SERIAL BIGINT NOT NULL PRIMARY KEY,"
+                + " PARENT_SERIAL BIGINT NOT NULL,"
+                + " ID VARCHAR(4) NOT NULL,"
+                + " TYPE_SERIAL BIGINT NOT NULL,"
+                + " OPEN_DATE DATE,"
+                + " CLOSE_DATE DATE,"
+                + " CHARGE_OFF_DATE DATE,"
+                + " BALANCE DECIMAL(17, 2) NOT NULL,"
+                + " STORED_ACCESS_KEY VARCHAR(24) NOT NULL,"
+                + " COURTESY_PAY_LIMIT DECIMAL(17, 2),"
+                + " COURTESY_PAY_RESTRICT_SERIAL BIGINT)");
+        ddl.add("CREATE TABLE CORE.LOAN ("
+                + " SERIAL BIGINT NOT NULL PRIMARY KEY,"
+                + " PARENT_SERIAL BIGINT NOT NULL,"
+                + " TYPE_SERIAL BIGINT NOT NULL,"
+                + " BALANCE DECIMAL(17, 2) NOT NULL,"
+                + " PAYMENT_DUE_DATE DATE,"
+                + " CLOSE_DATE DATE,"
+                + " CHARGE_OFF_DATE DATE,"
+                + " STORED_ACCESS_KEY VARCHAR(24) NOT NULL)");
+        ddl.add("CREATE TABLE CORE.MONETARY ("
+                + " SERIAL BIGINT NOT NULL PRIMARY KEY,"
+                + " TARGET_ACCESS_KEY VARCHAR(24) NOT NULL,"
+                + " POSTING_DATE DATE NOT NULL,"
+                + " PRINCIPAL DECIMAL(17, 2) NOT NULL,"
+                + " NEW_BALANCE DECIMAL(17, 2) NOT NULL,"
+                + " STATUS VARCHAR(1) NOT NULL,"
+                + " CATEGORY VARCHAR(1) NOT NULL,"
+                + " TRANSFER_OPTION VARCHAR(1) NOT NULL,"
+                + " SOURCE VARCHAR(1) NOT NULL,"
+                + " DESCRIPTION VARCHAR(40))");
+        ddl.add("CREATE TABLE CORE.MON_DETAIL ("
+                + " SERIAL BIGINT NOT NULL PRIMARY KEY,"
+                + " PARENT_SERIAL BIGINT NOT NULL,"
+                + " CATEGORY VARCHAR(4) NOT NULL,"
+                + " CONTENTS_1 VARCHAR(40))");
+        ddl.add("CREATE INDEX CORE.ACCOUNT_PERSON ON CORE.ACCOUNT (PRIMARY_PERSON_SERIAL)");
+        ddl.add("CREATE INDEX CORE.SHARE_PARENT ON CORE.SHARE (PARENT_SERIAL)");
+        ddl.add("CREATE INDEX CORE.SHARE_ACCESS_KEY ON CORE.SHARE (STORED_ACCESS_KEY)");
+        ddl.add("CREATE INDEX CORE.LOAN_PARENT ON CORE.LOAN (PARENT_SERIAL)");
+        ddl.add("CREATE INDEX CORE.LOAN_ACCESS_KEY ON CORE.LOAN (STORED_ACCESS_KEY)");
+        ddl.add("CREATE INDEX CORE.MONETARY_TARGET ON CORE.MONETARY (TARGET_ACCESS_KEY, POSTING_DATE)");
+        ddl.add("CREATE INDEX CORE.MON_DETAIL_PARENT ON CORE.MON_DETAIL (PARENT_SERIAL)");
+        return Collections.unmodifiableList(ddl);
+    }
+
+    /**
+     * Creates the stand-in schema. The CORE schema must not already exist.
+     *
+     * @param connection
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public void createSchema(Connection connection) throws SQLException, ScriptException {
+        if (connection == null) {
+            throw new ScriptException("Null connection passed to createSchema.");
+        }
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : getSchemaDDL()) {
+                stmt.execute(sql);
+            }
+        }
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    /**
+     * Fills the (empty) stand-in schema and returns a one-line summary of the
+     * rows written.
+     *
+     * @param connection
+     * @return
+     * @throws SQLException
+     * @throws ScriptException
+     */
+    public String generate(Connection connection) throws SQLException, ScriptException {
+        if (connection == null) {
+            throw new ScriptException("Null connection passed to generate.");
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        personSerial = 0;
+        accountSerial = 0;
+        shareSerial = 0;
+        loanSerial = 0;
+        monetarySerial = 0;
+        monDetailSerial = 0;
+        int postingDay = CalendarMath.epochDay(postingDate);
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Inserter env = new Inserter(connection, "INSERT INTO CORE.ENV (SERIAL, POSTING_DATE) VALUES (?, ?)");
+                Inserter shType = new Inserter(connection, "INSERT INTO CORE.SH_TYPE (SERIAL, DESCRIPTION) VALUES (?, ?)");
+                Inserter lnType = new Inserter(connection, "INSERT INTO CORE.LN_TYPE (SERIAL, DESCRIPTION, CATEGORY) VALUES (?, ?, ?)");
+                Inserter restriction = new Inserter(connection, "INSERT INTO CORE.COURTESY_PAY_RESTRICTION (SERIAL, DESCRIPTION, STATUS) VALUES (?, ?, ?)");
+                Inserter person = new Inserter(connection, "INSERT INTO CORE.PERSON (SERIAL, BIRTH_DATE) VALUES (?, ?)");
+                Inserter account = new Inserter(connection, "INSERT INTO CORE.ACCOUNT (SERIAL, ACCOUNT_NUMBER, PRIMARY_PERSON_SERIAL, CLOSE_DATE) VALUES (?, ?, ?, ?)");
+                Inserter share = new Inserter(connection, "INSERT INTO CORE.SHARE (SERIAL, PARENT_SERIAL, ID, TYPE_SERIAL, OPEN_DATE, CLOSE_DATE, CHARGE_OFF_DATE, BALANCE, STORED_ACCESS_KEY, COURTESY_PAY_LIMIT, COURTESY_PAY_RESTRICT_SERIAL) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                Inserter loan = new Inserter(connection, "INSERT INTO CORE.LOAN (SERIAL, PARENT_SERIAL, TYPE_SERIAL, BALANCE, PAYMENT_DUE_DATE, CLOSE_DATE, CHARGE_OFF_DATE, STORED_ACCESS_KEY) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+                Inserter monetary = new Inserter(connection, "INSERT INTO CORE.MONETARY (SERIAL, TARGET_ACCESS_KEY, POSTING_DATE, PRINCIPAL, NEW_BALANCE, STATUS, CATEGORY, TRANSFER_OPTION, SOURCE, DESCRIPTION) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                Inserter monDetail = new Inserter(connection, "INSERT INTO CORE.MON_DETAIL (SERIAL, PARENT_SERIAL, CATEGORY, CONTENTS_1) VALUES (?, ?, ?, ?)")) {
+
+            env.add(1L, postingDate);
+            for (int i = 0; i < SHARE_TYPES.length; i++) {
+                shType.add((long) i + 1, SHARE_TYPES[i]);
+            }
+            for (int i = 0; i < LOAN_TYPES.length; i++) {
+                lnType.add((long) i + 1, LOAN_TYPES[i], LOAN_TYPE_CATEGORIES[i]);
+            }
+            for (int i = 0; i < COURTESY_PAY_RESTRICTIONS.length; i++) {
+                restriction.add((long) i + 1, COURTESY_PAY_RESTRICTIONS[i], "O");
+            }
+
+            while (shareSerial < shareCount) {
+                // About one account in seven belongs to someone who already
+                // has one, so people with several Checking shares exist.
+                long owner;
+                if (personSerial > 0 && random.nextInt(7) == 0) {
+                    owner = 1 + random.nextLong(personSerial);
+                } else {
+                    owner = ++personSerial;
+                    person.add(owner, birthDate(random, postingDay));
+                }
+                long accountKey = ++accountSerial;
+                account.add(accountKey, String.format("%010d", accountKey), owner,
+                        random.nextInt(100) < 3 ? dateBefore(random, postingDay, 1, 720) : null);
+
+                int shares = sharesPerAccount(random);
+                for (int id = 0; id < shares && shareSerial < shareCount; id++) {
+                    addShare(random, postingDay, accountKey, id, share, monetary, monDetail);
+                }
+                if (random.nextInt(100) < 35) {
+                    int loans = 1 + random.nextInt(3);
+                    for (int i = 0; i < loans; i++) {
+                        addLoan(random, postingDay, accountKey, loan, monetary);
+                    }
+                }
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return "Synthetic CORE data (seed " + seed + "): " + personSerial + " persons, " + accountSerial + " accounts, "
+                + shareSerial + " shares, " + loanSerial + " loans, " + monetarySerial + " monetary, "
+                + monDetailSerial + " monetary details, posting date " + postingDate;
+    }
+
+    private void addShare(SplittableRandom random, int postingDay, long accountKey, int id,
+            Inserter share, Inserter monetary, Inserter monDetail) throws SQLException {
+        long serial = ++shareSerial;
+        int type = id == 0 && random.nextInt(100) < 70 ? 1 : 1 + random.nextInt(SHARE_TYPES.length);
+        boolean checking = type == 1;
+
+        Date openDate;
+        int openRoll = random.nextInt(100);
+        if (openRoll < 1) {
+            openDate = null;
+        } else if (openRoll < 11) {
+            openDate = dateBefore(random, postingDay, 0, 89);
+        } else {
+            openDate = dateBefore(random, postingDay, 90, 3650);
+        }
+        Date closeDate = random.nextInt(100) < 4 ? dateBefore(random, postingDay, 1, 365) : null;
+        Date chargeOffDate = random.nextInt(1000) < 5 ? dateBefore(random, postingDay, 1, 365) : null;
+        long balance = random.nextInt(100) < 5
+                ? -logNormalCents(random, 9.0, 1.0)
+                : logNormalCents(random, 10.5, 1.8);
+
+        long cpLimit = 0;
+        Long cpRestriction = null;
+        if (checking) {
+            cpLimit = random.nextInt(100) < 55 ? 50000 : 0;
+            if (random.nextInt(100) < 12) {
+                int restrictionRoll = random.nextInt(100);
+                cpRestriction = (long) (restrictionRoll < 35 ? 1 : restrictionRoll < 65 ? 2 : restrictionRoll < 80 ? 3 : restrictionRoll < 90 ? 4 : 5);
+                cpLimit = 0;
+            }
+        }
+        // Some shares without a limit carry NULL rather than 0; the scripts
+        // must read both as no limit.
+        BigDecimal cpLimitValue = cpLimit == 0 && random.nextInt(100) < 10 ? null : cents(cpLimit);
+        String accessKey = "S" + serial;
+        share.add(serial, accountKey, String.format("%02d", id), (long) type, openDate, closeDate, chargeOffDate,
+                cents(balance), accessKey, cpLimitValue, cpRestriction);
+
+        addShareActivity(random, postingDay, accessKey, balance, checking, monetary, monDetail);
+    }
+
+    /**
+     * Writes the share's transactions over the last 120 days in posting
+     * order, ending at the share's current balance.
+     */
+    private void addShareActivity(SplittableRandom random, int postingDay, String accessKey, long balance,
+            boolean checking, Inserter monetary, Inserter monDetail) throws SQLException {
+        int count = heavyTailedCount(random, checking ? monetaryPerShare * 1.5 : monetaryPerShare * 0.5);
+        if (count == 0) {
+            return;
+        }
+        int[] days = new int[count];
+        long[] principals = new long[count];
+        boolean[] deposits = new boolean[count];
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            days[i] = postingDay - random.nextInt(120);
+            deposits[i] = random.nextInt(100) < 45;
+            long amount = logNormalCents(random, deposits[i] ? 10.8 : 9.2, 1.2);
+            principals[i] = deposits[i] ? amount : -amount;
+            total += principals[i];
+        }
+        Arrays.sort(days);
+        long running = balance - total;
+        for (int i = 0; i < count; i++) {
+            running += principals[i];
+            long serial = ++monetarySerial;
+            boolean ach = random.nextInt(100) < 30;
+            String description = deposits[i]
+                    ? (random.nextInt(100) < 2 ? "Loan Proceeds" : ach ? "ACH Deposit" : "Deposit")
+                    : (ach ? "ACH Debit" : "Withdrawal");
+            monetary.add(serial, accessKey, CalendarMath.toDate(days[i]), cents(principals[i]), cents(running),
+                    random.nextInt(100) < 97 ? "P" : "V",
+                    deposits[i] ? "D" : "W",
+                    random.nextInt(100) < 10 ? "T" : "N",
+                    ach ? "a" : random.nextBoolean() ? "c" : "o",
+                    description);
+            if (ach && deposits[i]) {
+                int companyRoll = random.nextInt(100);
+                String company = companyRoll < 4 ? "IRS TREAS 310" : companyRoll < 6 ? "VEC BENEFITS"
+                        : ACH_COMPANIES[random.nextInt(ACH_COMPANIES.length)];
+                monDetail.add(++monDetailSerial, serial, "ACH", company);
+            }
+        }
+    }
+
+    private void addLoan(SplittableRandom random, int postingDay, long accountKey, Inserter loan, Inserter monetary) throws SQLException {
+        long serial = ++loanSerial;
+        int type = 1 + random.nextInt(LOAN_TYPES.length);
+        long balance = random.nextInt(100) < 3 ? 0 : logNormalCents(random, 13.5, 1.0);
+        Date dueDate = random.nextInt(100) < 6
+                ? dateBefore(random, postingDay, 30, 200)
+                : CalendarMath.toDate(postingDay - 5 + random.nextInt(31));
+        Date closeDate = random.nextInt(100) < 5 ? dateBefore(random, postingDay, 1, 720) : null;
+        Date chargeOffDate = random.nextInt(1000) < 15 ? dateBefore(random, postingDay, 1, 720) : null;
+        String accessKey = "L" + serial;
+        loan.add(serial, accountKey, (long) type, cents(balance), dueDate, closeDate, chargeOffDate, accessKey);
+
+        // Monthly payments, newest first, each leaving the balance that
+        // the next one started from.
+        int payments = random.nextInt(4);
+        long running = balance;
+        for (int i = 0; i < payments; i++) {
+            long payment = logNormalCents(random, 10.0, 0.5);
+            monetary.add(++monetarySerial, accessKey, CalendarMath.toDate(postingDay - 30 * i - random.nextInt(5)),
+                    cents(-payment), cents(running), "P", "W", "N", random.nextBoolean() ? "a" : "c", "Loan Payment");
+            running += payment;
+        }
+    }
+
+    private static Date birthDate(SplittableRandom random, int postingDay) {
+        int roll = random.nextInt(100);
+        if (roll < 5) {
+            return null;
+        }
+        int age = roll < 8 ? 14 + random.nextInt(4) : 18 + random.nextInt(73);
+        return dateBefore(random, postingDay, age * 365 + random.nextInt(365), age * 365 + 364);
+    }
+
+    private static int sharesPerAccount(SplittableRandom random) {
+        int roll = random.nextInt(100);
+        if (roll < 60) {
+            return 1;
+        }
+        if (roll < 85) {
+            return 2;
+        }
+        if (roll < 95) {
+            return 3;
+        }
+        return 4 + random.nextInt(3);
+    }
+
+    /**
+     * Pareto-like count: most shares see a handful of transactions, a few
+     * see hundreds.
+     */
+    private static int heavyTailedCount(SplittableRandom random, double mean) {
+        if (mean <= 0) {
+            return 0;
+        }
+        double alpha = 2.5;
+        double scale = mean * (alpha - 1) / alpha;
+        double value = scale / Math.pow(1.0 - random.nextDouble(), 1.0 / alpha);
+        return (int) Math.min(2000, Math.floor(value));
+    }
+
+    private static long logNormalCents(SplittableRandom random, double mu, double sigma) {
+        return Math.max(1, Math.round(Math.exp(mu + sigma * gaussian(random))));
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        double u1 = 1.0 - random.nextDouble();
+        double u2 = random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u1)) * Math.cos(2.0 * Math.PI * u2);
+    }
+
+    private static Date dateBefore(SplittableRandom random, int postingDay, int minDays, int maxDays) {
+        return CalendarMath.toDate(postingDay - minDays - random.nextInt(maxDays - minDays + 1));
+    }
+
+    private static BigDecimal cents(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    /**
+     * Batched INSERT that accepts nulls, committing every commitInterval
+     * rows.
+     */
+    private final class Inserter implements AutoCloseable {
+
+        private final Connection connection;
+        private final PreparedStatement stmt;
+        private int[] nullTypes = null;
+        private int pending = 0;
+        private long sinceCommit = 0;
+
+        private Inserter(Connection connection, String sql) throws SQLException {
+            this.connection = connection;
+            this.stmt = connection.prepareStatement(sql);
+        }
+
+        private void add(Object... values) throws SQLException {
+            for (int i = 0; i < values.length; i++) {
+                Object value = values[i];
+                if (value == null) {
+                    stmt.setNull(i + 1, getNullType(i + 1));
+                } else if (value instanceof Long) {
+                    stmt.setLong(i + 1, (Long) value);
+                } else if (value instanceof String) {
+                    stmt.setString(i + 1, (String) value);
+                } else if (value instanceof Date) {
+                    stmt.setDate(i + 1, (Date) value);
+                } else {
+                    stmt.setBigDecimal(i + 1, (BigDecimal) value);
+                }
+            }
+            stmt.addBatch();
+            if (++pending >= batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Some drivers (Derby) reject Types.NULL, so the column's declared
+         * type is used when the driver reports it.
+         */
+        private int getNullType(int index) throws SQLException {
+            if (nullTypes == null) {
+                int count = stmt.getParameterMetaData().getParameterCount();
+                nullTypes = new int[count + 1];
+                for (int i = 1; i <= count; i++) {
+                    try {
+                        nullTypes[i] = stmt.getParameterMetaData().getParameterType(i);
+                    } catch (SQLException e) {
+                        nullTypes[i] = Types.NULL;
+                    }
+                }
+            }
+            return nullTypes[index];
+        }
+
+        private void flush() throws SQLException {
+            if (pending > 0) {
+                stmt.executeBatch();
+                sinceCommit += pending;
+                pending = 0;
+            }
+            if (sinceCommit >= commitInterval) {
+                connection.commit();
+                sinceCommit = 0;
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                if (pending > 0) {
+                    stmt.executeBatch();
+                    pending = 0;
+                }
+                connection.commit();
+            } finally {
+                stmt.close();
+            }
+        }
+    }
+}